@@ -0,0 +1,190 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * This handler passes log records to another handler on a background thread so logging 
+ * doesn't slow down the prune.  The records are formatted on the thread which logged them
+ * since the parameters can change after the call, and the queue is bounded so a burst
+ * of logging waits instead of running out of memory.  Flushing or closing this handler 
+ * waits until every queued record is written.
+ */
+final class AsyncLogHandler extends Handler implements Runnable
+{
+    private static final int QUEUE_SIZE = 1024;
+    
+    /*
+     The log manager only keeps weak references to loggers so we hold on
+     to the loggers we set up to keep their handlers
+     */
+    private static final List<Logger> INSTALLED = new ArrayList<Logger>();
+    private static AsyncLogHandler g_handler;
+    
+    private Handler m_target;
+    private Formatter m_formatter = new SimpleFormatter();
+    private LinkedList<LogRecord> m_queue = new LinkedList<LogRecord>();
+    private Thread m_thread;
+    private boolean m_closed;
+    
+    /**
+     * Create a new AsyncLogHandler and start its thread.
+     * 
+     * @param target the handler which writes the records
+     */
+    AsyncLogHandler(Handler target)
+    {
+        m_target = target;
+        setLevel(target.getLevel());
+        m_thread = new Thread(this, "JSlim logging");
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+    
+    /**
+     * Send the records from the specified loggers to the console through one shared
+     * handler.  Each logger is only set up the first time.
+     * 
+     * @param loggers the loggers to set up
+     */
+    static synchronized void install(Logger... loggers)
+    {
+        if (g_handler == null) {
+            g_handler = new AsyncLogHandler(new SlimConsoleHandler());
+        }
+        
+        for (Logger logger : loggers) {
+            if (!INSTALLED.contains(logger)) {
+                logger.setUseParentHandlers(false);
+                logger.addHandler(g_handler);
+                INSTALLED.add(logger);
+            }
+        }
+    }
+    
+    @Override
+    public void publish(LogRecord record)
+    {
+        if (!isLoggable(record)) {
+            return;
+        }
+        
+        /*
+         The caller is found from the stack so we have to find it before
+         the record leaves this thread
+         */
+        record.getSourceClassName();
+        if (record.getParameters() != null) {
+            record.setMessage(m_formatter.formatMessage(record));
+            record.setParameters(null);
+        }
+        
+        synchronized (m_queue) {
+            try {
+                while (m_queue.size() >= QUEUE_SIZE && !m_closed) {
+                    m_queue.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            
+            if (!m_closed && m_queue.size() < QUEUE_SIZE) {
+                m_queue.addLast(record);
+                m_queue.notifyAll();
+                return;
+            }
+        }
+        
+        m_target.publish(record);
+    }
+    
+    @Override
+    public void run()
+    {
+        while (true) {
+            LogRecord record;
+            synchronized (m_queue) {
+                try {
+                    while (m_queue.isEmpty()) {
+                        if (m_closed) {
+                            return;
+                        }
+                        
+                        m_queue.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                
+                /*
+                 The record stays in the queue until it is written so 
+                 flush waits for it
+                 */
+                record = m_queue.getFirst();
+            }
+            
+            m_target.publish(record);
+            
+            synchronized (m_queue) {
+                m_queue.removeFirst();
+                if (m_queue.isEmpty()) {
+                    m_target.flush();
+                }
+                
+                m_queue.notifyAll();
+            }
+        }
+    }
+    
+    @Override
+    public void flush()
+    {
+        synchronized (m_queue) {
+            try {
+                while (!m_queue.isEmpty() && m_thread.isAlive()) {
+                    m_queue.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        m_target.flush();
+    }
+    
+    @Override
+    public void close()
+    {
+        flush();
+        
+        synchronized (m_queue) {
+            m_closed = true;
+            m_queue.notifyAll();
+        }
+        
+        m_target.close();
+    }
+}
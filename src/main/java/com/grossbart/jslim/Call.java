@@ -19,13 +19,14 @@ package com.grossbart.jslim;
 
 /**
  * A Call represents a single function call within either the library JavaScript files
- * or the main JavaScript files.  Each call is just the name of the function and a count
- * of the number of times it is called.
+ * or the main JavaScript files.  Each call is just the name of the function.  Calls can 
+ * also have the receiver they were made on, like the $ in $.each, when it can be resolved.
+ * The number of times each call is made is kept by the CallList the call is in.
  */
 public class Call
 {
-    private int m_count = 1;
     private String m_name;
+    private String m_receiver;
     
     /**
      * Create a new Call object.
@@ -34,65 +35,48 @@ public class Call
      */
     public Call(String name)
     {
-        m_name = name;
-    }
-    
-    /**
-     * Get the count of this call.
-     * 
-     * @return the number of times this call was made
-     */
-    public int getCount()
-    {
-        return m_count;
-    }
-    
-    /**
-     * Increment the call count.
-     * 
-     * @return the new call count
-     */
-    public int incCount()
-    {
-        return m_count++;
+        this(name, null);
     }
     
     /**
-     * Decrement the call count.
+     * Create a new Call object.
      * 
-     * @return the new call count
+     * @param name     the name of this call
+     * @param receiver the receiver this call was made on or null if it isn't known
      */
-    public int decCount()
+    public Call(String name, String receiver)
     {
-        return m_count--;
+        m_name = name;
+        m_receiver = receiver;
     }
     
     /**
-     * Decrement the call count.
-     * 
-     * @param dec    the amount to decrement
+     * Get the name of this function.
      * 
-     * @return the new call count
+     * @return the name
      */
-    public int decCount(int dec)
+    public String getName()
     {
-        m_count -= dec;
-        return m_count;
+        return m_name;
     }
     
     /**
-     * Get the name of this function.
+     * Get the receiver this call was made on.
      * 
-     * @return the name
+     * @return the receiver or null if it isn't known
      */
-    public String getName()
+    public String getReceiver()
     {
-        return m_name;
+        return m_receiver;
     }
     
     @Override
     public String toString()
     {
-        return m_name + ": " + m_count;
+        if (m_receiver != null) {
+            return m_receiver + "." + m_name;
+        }
+        
+        return m_name;
     }
 }
@@ -0,0 +1,560 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.javascript.rhino.Node;
+
+/**
+ * The call graph is a snapshot of the interesting functions in the library files.  Each
+ * function is stored with the names it can be called by and the names of the calls it
+ * makes.  Functions are identified by their index in the graph so the results of a
+ * reachability search are returned as a BitSet of function indexes.
+ * 
+ * Names are interned in a symbol table and the graph is stored as compressed sparse
+ * rows of int IDs.  The calls of function i are the call IDs from getCallStart(i) up to
+ * getCallEnd(i) and the functions named by a name work the same way.  This keeps the
+ * graph of a large library in a few int arrays instead of many small objects.
+ */
+public class CallGraph
+{
+    /**
+     * Graphs with fewer functions than this are always searched on one thread since 
+     * splitting up the search would cost more than it saves.
+     */
+    public static final int PARALLEL_THRESHOLD = 4096;
+    
+    /*
+     A search task expands at most this many names and splits bigger
+     parts of the frontier into two tasks.
+     */
+    private static final int TASK_SIZE = 512;
+    
+    private SymbolTable m_symbols = new SymbolTable();
+    private List<Node> m_funcs = new ArrayList<Node>();
+    private Map<Node, Integer> m_indexes = new IdentityHashMap<Node, Integer>();
+    
+    /*
+     The call rows.  The calls of function i are in m_callIds from
+     m_callStarts[i] up to m_callStarts[i + 1].
+     */
+    private int m_callStarts[] = new int[16];
+    private int m_callIds[] = new int[64];
+    private int m_callCount;
+    
+    /*
+     The pairs of name ID and function index in the order they were 
+     added.  We sort them into rows by name the first time we look up
+     a name after adding functions.
+     */
+    private int m_pairNames[] = new int[64];
+    private int m_pairFuncs[] = new int[64];
+    private int m_pairCount;
+    
+    private int m_nameStarts[];
+    private int m_nameFuncs[];
+    
+    /**
+     * Add a function to this graph.
+     * 
+     * @param func   the function node or null if the graph only summarizes a tree we don't keep
+     * @param names  the names this function can be called by
+     * @param calls  the calls this function makes
+     * 
+     * @return the index of the new function
+     */
+    public int addFunction(Node func, List<String> names, Call calls[])
+    {
+        int index = m_funcs.size();
+        m_funcs.add(func);
+        if (func != null) {
+            m_indexes.put(func, index);
+        }
+        
+        m_callIds = ensureCapacity(m_callIds, m_callCount + calls.length);
+        for (Call call : calls) {
+            m_callIds[m_callCount++] = m_symbols.intern(call.getName());
+        }
+        
+        m_callStarts = ensureCapacity(m_callStarts, index + 2);
+        m_callStarts[index + 1] = m_callCount;
+        
+        m_pairNames = ensureCapacity(m_pairNames, m_pairCount + names.size());
+        m_pairFuncs = ensureCapacity(m_pairFuncs, m_pairCount + names.size());
+        for (String name : names) {
+            m_pairNames[m_pairCount] = m_symbols.intern(name);
+            m_pairFuncs[m_pairCount] = index;
+            m_pairCount++;
+        }
+        
+        m_nameStarts = null;
+        return index;
+    }
+    
+    /**
+     * Make sure an array can hold the specified number of values.
+     * 
+     * @param array  the array
+     * @param size   the number of values
+     * 
+     * @return the array or a larger copy of it
+     */
+    private static int[] ensureCapacity(int array[], int size)
+    {
+        if (size <= array.length) {
+            return array;
+        }
+        
+        return Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+    
+    /**
+     * Sort the name and function pairs into rows by name.  This is a counting sort so 
+     * the functions in each row stay in the order they were added.
+     */
+    private void buildNameRows()
+    {
+        if (m_nameStarts != null) {
+            return;
+        }
+        
+        int starts[] = new int[m_symbols.size() + 1];
+        for (int i = 0; i < m_pairCount; i++) {
+            starts[m_pairNames[i] + 1]++;
+        }
+        
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        
+        int next[] = Arrays.copyOf(starts, starts.length - 1);
+        m_nameFuncs = new int[m_pairCount];
+        for (int i = 0; i < m_pairCount; i++) {
+            m_nameFuncs[next[m_pairNames[i]]++] = m_pairFuncs[i];
+        }
+        
+        m_nameStarts = starts;
+    }
+    
+    /**
+     * Get the number of functions in this graph.
+     * 
+     * @return the number of functions
+     */
+    public int size()
+    {
+        return m_funcs.size();
+    }
+    
+    /**
+     * Get the function at the specified index.
+     * 
+     * @param index  the index of the function
+     * 
+     * @return the function node
+     */
+    public Node getFunction(int index)
+    {
+        return m_funcs.get(index);
+    }
+    
+    /**
+     * Get the index of the specified function.
+     * 
+     * @param func   the function node to look for
+     * 
+     * @return the index of the function or -1 if it isn't part of this graph
+     */
+    public int indexOf(Node func)
+    {
+        Integer index = m_indexes.get(func);
+        if (index == null) {
+            return -1;
+        } else {
+            return index;
+        }
+    }
+    
+    /**
+     * Get the symbol table with the IDs of the names in this graph.
+     * 
+     * @return the symbol table
+     */
+    public SymbolTable getSymbols()
+    {
+        return m_symbols;
+    }
+    
+    /**
+     * Get the position of the first call the specified function makes.
+     * 
+     * @param index  the index of the function
+     * 
+     * @return the position of the first call
+     */
+    public int getCallStart(int index)
+    {
+        return m_callStarts[index];
+    }
+    
+    /**
+     * Get the position after the last call the specified function makes.
+     * 
+     * @param index  the index of the function
+     * 
+     * @return the position after the last call
+     */
+    public int getCallEnd(int index)
+    {
+        return m_callStarts[index + 1];
+    }
+    
+    /**
+     * Get the name ID of the call at the specified position.
+     * 
+     * @param pos    the position of the call
+     * 
+     * @return the name ID of the call
+     */
+    public int getCallId(int pos)
+    {
+        return m_callIds[pos];
+    }
+    
+    /**
+     * Get the position of the first function with the specified name.
+     * 
+     * @param id     the name ID
+     * 
+     * @return the position of the first function
+     */
+    public int getNameStart(int id)
+    {
+        buildNameRows();
+        return m_nameStarts[id];
+    }
+    
+    /**
+     * Get the position after the last function with the specified name.
+     * 
+     * @param id     the name ID
+     * 
+     * @return the position after the last function
+     */
+    public int getNameEnd(int id)
+    {
+        buildNameRows();
+        return m_nameStarts[id + 1];
+    }
+    
+    /**
+     * Get the index of the function at the specified position in a name row.
+     * 
+     * @param pos    the position of the function
+     * 
+     * @return the function index
+     */
+    public int getNameFunction(int pos)
+    {
+        return m_nameFuncs[pos];
+    }
+    
+    /**
+     * Get the names of the calls the function at the specified index makes.
+     * 
+     * @param index  the index of the function
+     * 
+     * @return the call names
+     */
+    public String[] getCalls(int index)
+    {
+        String calls[] = new String[getCallEnd(index) - getCallStart(index)];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = m_symbols.getName(m_callIds[getCallStart(index) + i]);
+        }
+        
+        return calls;
+    }
+    
+    /**
+     * Get the indexes of the functions which can be called by the specified name.
+     * 
+     * @param name   the call name
+     * 
+     * @return the function indexes or an empty list if no function has this name
+     */
+    public List<Integer> getFunctions(String name)
+    {
+        List<Integer> funcs = new ArrayList<Integer>();
+        int id = m_symbols.getId(name);
+        if (id > -1) {
+            for (int pos = getNameStart(id); pos < getNameEnd(id); pos++) {
+                funcs.add(m_nameFuncs[pos]);
+            }
+        }
+        
+        return funcs;
+    }
+    
+    /**
+     * Find all of the functions which can be reached from the specified root call names.
+     * 
+     * @param roots  the names of the root calls
+     * 
+     * @return the set of indexes of reachable functions
+     */
+    public BitSet findReachable(Collection<String> roots)
+    {
+        return findReachable(roots, new int[m_funcs.size()], new String[m_funcs.size()]);
+    }
+    
+    /**
+     * Find all of the functions which can be reached from the specified root call names
+     * and the shortest chain of calls which reaches each one.  The search is breadth first
+     * so each function is reached by the fewest number of calls from a root.
+     * 
+     * @param roots   the names of the root calls
+     * @param parents the array to fill with the index of the function which made the call
+     *                reaching each function or -1 if it was reached directly from a root
+     * @param via     the array to fill with the name of the call reaching each function.  
+     *                Functions which can't be reached are left null.
+     * 
+     * @return the set of indexes of reachable functions
+     */
+    public BitSet findReachable(Collection<String> roots, int parents[], String via[])
+    {
+        buildNameRows();
+        
+        BitSet reachable = new BitSet(m_funcs.size());
+        BitSet examined = new BitSet(m_symbols.size());
+        
+        /*
+         Each function adds its calls to the queue once so the queue
+         never holds more than the roots and all the calls
+         */
+        int names[] = new int[roots.size() + m_callCount];
+        int callers[] = new int[names.length];
+        int tail = 0;
+        for (String root : roots) {
+            int id = m_symbols.getId(root);
+            if (id > -1) {
+                names[tail] = id;
+                callers[tail] = -1;
+                tail++;
+            }
+        }
+        
+        for (int head = 0; head < tail; head++) {
+            int name = names[head];
+            if (examined.get(name)) {
+                /*
+                 Then we've already examined this call and we can skip it.
+                 */
+                continue;
+            }
+            examined.set(name);
+            
+            for (int pos = getNameStart(name); pos < getNameEnd(name); pos++) {
+                int index = m_nameFuncs[pos];
+                if (!reachable.get(index)) {
+                    reachable.set(index);
+                    parents[index] = callers[head];
+                    via[index] = m_symbols.getName(name);
+                    for (int call = getCallStart(index); call < getCallEnd(index); call++) {
+                        names[tail] = m_callIds[call];
+                        callers[tail] = index;
+                        tail++;
+                    }
+                }
+            }
+        }
+        
+        return reachable;
+    }
+    
+    /**
+     * Find all of the functions which can be reached from the specified root call names.
+     * Large graphs are searched one level at a time and each level is split across the 
+     * threads of the pool.  Small graphs are searched on this thread.
+     * 
+     * @param roots  the names of the root calls
+     * @param pool   the pool to search with or null to search on this thread
+     * 
+     * @return the set of indexes of reachable functions
+     */
+    public BitSet findReachable(Collection<String> roots, ForkJoinPool pool)
+    {
+        if (pool == null || pool.getParallelism() < 2 || m_funcs.size() < PARALLEL_THRESHOLD) {
+            return findReachable(roots);
+        }
+        
+        return findReachableParallel(roots, pool);
+    }
+    
+    /**
+     * Find all of the functions which can be reached from the specified root call names
+     * on the threads of the pool no matter how big the graph is.  The frontier is the list 
+     * of call names found in the last level.  Each task expands part of the frontier and
+     * the examined names and reachable functions are shared bitsets which the tasks set
+     * with compare and swap so each name and function is only expanded once.
+     * 
+     * @param roots  the names of the root calls
+     * @param pool   the pool to search with
+     * 
+     * @return the set of indexes of reachable functions
+     */
+    BitSet findReachableParallel(Collection<String> roots, ForkJoinPool pool)
+    {
+        buildNameRows();
+        
+        AtomicLongArray examined = new AtomicLongArray((m_symbols.size() + 63) / 64);
+        AtomicLongArray reachable = new AtomicLongArray((m_funcs.size() + 63) / 64);
+        
+        int frontier[] = new int[roots.size()];
+        int size = 0;
+        for (String root : roots) {
+            int id = m_symbols.getId(root);
+            if (id > -1) {
+                frontier[size++] = id;
+            }
+        }
+        
+        while (size > 0) {
+            frontier = pool.invoke(new Expand(frontier, 0, size, examined, reachable));
+            size = frontier.length;
+        }
+        
+        long words[] = new long[reachable.length()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = reachable.get(i);
+        }
+        
+        return BitSet.valueOf(words);
+    }
+    
+    /**
+     * Set the specified bit if it isn't already set.  Only one of the threads trying to 
+     * set the same bit succeeds.
+     * 
+     * @param bits   the bits
+     * @param index  the index of the bit to set
+     * 
+     * @return true if this call set the bit and false if it was already set
+     */
+    private static boolean trySet(AtomicLongArray bits, int index)
+    {
+        int word = index >> 6;
+        long mask = 1L << (index & 63);
+        
+        long old = bits.get(word);
+        while ((old & mask) == 0) {
+            if (bits.compareAndSet(word, old, old | mask)) {
+                return true;
+            }
+            old = bits.get(word);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * This task expands part of the frontier of the parallel search.  It returns the names
+     * of the calls made by the functions it reached first, which are part of the next 
+     * frontier.
+     */
+    private final class Expand extends RecursiveTask<int[]>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final int m_names[];
+        private final int m_start;
+        private final int m_end;
+        private final AtomicLongArray m_examined;
+        private final AtomicLongArray m_reachable;
+        
+        /**
+         * Create a new Expand task.
+         * 
+         * @param names     the frontier
+         * @param start     the position of the first name to expand
+         * @param end       the position after the last name to expand
+         * @param examined  the names which were examined
+         * @param reachable the functions which were reached
+         */
+        private Expand(int names[], int start, int end, AtomicLongArray examined, AtomicLongArray reachable)
+        {
+            m_names = names;
+            m_start = start;
+            m_end = end;
+            m_examined = examined;
+            m_reachable = reachable;
+        }
+        
+        /**
+         * Expand the names of this task or split them with another task.
+         * 
+         * @return the names of the calls in the next frontier
+         */
+        @Override
+        protected int[] compute()
+        {
+            if (m_end - m_start > TASK_SIZE) {
+                int mid = (m_start + m_end) >>> 1;
+                Expand left = new Expand(m_names, m_start, mid, m_examined, m_reachable);
+                left.fork();
+                int right[] = new Expand(m_names, mid, m_end, m_examined, m_reachable).compute();
+                int next[] = left.join();
+                
+                int both[] = Arrays.copyOf(next, next.length + right.length);
+                System.arraycopy(right, 0, both, next.length, right.length);
+                return both;
+            }
+            
+            int next[] = new int[64];
+            int count = 0;
+            for (int i = m_start; i < m_end; i++) {
+                int name = m_names[i];
+                if (!trySet(m_examined, name)) {
+                    continue;
+                }
+                
+                for (int pos = m_nameStarts[name]; pos < m_nameStarts[name + 1]; pos++) {
+                    int index = m_nameFuncs[pos];
+                    if (trySet(m_reachable, index)) {
+                        int calls = m_callStarts[index + 1] - m_callStarts[index];
+                        next = ensureCapacity(next, count + calls);
+                        System.arraycopy(m_callIds, m_callStarts[index], next, count, calls);
+                        count += calls;
+                    }
+                }
+            }
+            
+            return Arrays.copyOf(next, count);
+        }
+    }
+}
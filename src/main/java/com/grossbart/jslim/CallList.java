@@ -0,0 +1,409 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The call list holds the distinct calls made by part of the code and the number of times
+ * each one was made.  Each pair of a name and a receiver gets a call ID, which is its
+ * position in the list, and the names, receivers, and counts are arrays indexed by call ID.
+ * Adding a call which is already in the list only adds to its count, so the list keeps
+ * the order the calls were first made in without duplicates.  That is why this isn't a
+ * java.util.List.
+ * 
+ * The list doesn't keep Call objects.  They are only created for code which needs them by
+ * getCalls and toArray.  Most calls are only made once in a function so the counts are
+ * all one until a call is added again or its count changes.
+ * 
+ * Once the list has INDEX_SIZE calls it finds calls in an open addressing table of call
+ * IDs keyed by the hash of the call name.  Calls with the same name and different
+ * receivers end up next to each other in the table so we can also find every call with a
+ * name without an index of the names.  Most lists hold the calls of a single function
+ * and only have a few calls, so they are searched in order instead of paying for a table
+ * they don't need.
+ */
+final class CallList
+{
+    private static final int INDEX_SIZE = 8;
+    
+    private String m_names[] = new String[4];
+    private int m_size;
+    
+    /*
+     The counts are null while every count is one and the receivers
+     are null until we add a call with a receiver
+     */
+    private int m_counts[];
+    private String m_receivers[];
+    
+    /*
+     The table of call IDs or -1 for an empty slot.  It is null until
+     the list has INDEX_SIZE calls.
+     */
+    private int m_slots[];
+    
+    /**
+     * Add a call with the specified name and receiver.  If the list already has the call
+     * then this adds one to its count.
+     * 
+     * @param name     the call name
+     * @param receiver the receiver of the call or null if it isn't known
+     * 
+     * @return the call ID
+     */
+    int add(String name, String receiver)
+    {
+        int id = indexOf(name, receiver);
+        if (id == -1) {
+            id = m_size++;
+            if (id == m_names.length) {
+                m_names = Arrays.copyOf(m_names, id * 2);
+                if (m_counts != null) {
+                    m_counts = Arrays.copyOf(m_counts, id * 2);
+                }
+                if (m_receivers != null) {
+                    m_receivers = Arrays.copyOf(m_receivers, id * 2);
+                }
+            }
+            
+            m_names[id] = name;
+            if (m_counts != null) {
+                m_counts[id] = 1;
+            }
+            if (receiver != null) {
+                if (m_receivers == null) {
+                    m_receivers = new String[m_names.length];
+                }
+                m_receivers[id] = receiver;
+            }
+            
+            if (m_slots != null) {
+                index(id);
+            } else if (m_size == INDEX_SIZE) {
+                rehash(INDEX_SIZE * 4);
+            }
+        } else {
+            addCount(id, 1);
+        }
+        
+        return id;
+    }
+    
+    /**
+     * Add each of the specified calls once.
+     * 
+     * @param calls  the calls to add
+     */
+    void addAll(List<Call> calls)
+    {
+        for (Call call : calls) {
+            add(call.getName(), call.getReceiver());
+        }
+    }
+    
+    /**
+     * Add each of the calls in the specified list once.
+     * 
+     * @param calls  the calls to add
+     */
+    void addAll(CallList calls)
+    {
+        for (int id = 0; id < calls.size(); id++) {
+            add(calls.getName(id), calls.getReceiver(id));
+        }
+    }
+    
+    /**
+     * Get the call ID of the call with the specified name and receiver.
+     * 
+     * @param name     the call name
+     * @param receiver the receiver of the call or null if it isn't known
+     * 
+     * @return the call ID or -1 if there is no such call in the list
+     */
+    int indexOf(String name, String receiver)
+    {
+        if (m_slots == null) {
+            for (int id = 0; id < m_size; id++) {
+                if (matches(id, name, receiver)) {
+                    return id;
+                }
+            }
+            
+            return -1;
+        }
+        
+        int mask = m_slots.length - 1;
+        for (int slot = getSlot(name); m_slots[slot] != -1; slot = (slot + 1) & mask) {
+            if (matches(m_slots[slot], name, receiver)) {
+                return m_slots[slot];
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Determine if the list has a call with the specified name and receiver.
+     * 
+     * @param name     the call name
+     * @param receiver the receiver of the call or null if it isn't known
+     * 
+     * @return true if the list has the call and false otherwise
+     */
+    boolean contains(String name, String receiver)
+    {
+        return indexOf(name, receiver) > -1;
+    }
+    
+    /**
+     * Determine if any call with the specified name has a count above zero.  There can be
+     * more than one call with the same name when calls are matched with their receivers.
+     * 
+     * @param name   the call name
+     * 
+     * @return true if there is a call with this name and a count above zero
+     */
+    boolean hasCount(String name)
+    {
+        if (m_slots == null) {
+            for (int id = 0; id < m_size; id++) {
+                if (getCount(id) > 0 && m_names[id].equals(name)) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        int mask = m_slots.length - 1;
+        for (int slot = getSlot(name); m_slots[slot] != -1; slot = (slot + 1) & mask) {
+            int id = m_slots[slot];
+            if (getCount(id) > 0 && m_names[id].equals(name)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Get the name of the specified call.
+     * 
+     * @param id     the call ID
+     * 
+     * @return the call name
+     */
+    String getName(int id)
+    {
+        return m_names[id];
+    }
+    
+    /**
+     * Get the receiver of the specified call.
+     * 
+     * @param id     the call ID
+     * 
+     * @return the receiver or null if it isn't known
+     */
+    String getReceiver(int id)
+    {
+        return m_receivers == null ? null : m_receivers[id];
+    }
+    
+    /**
+     * Get the count of the specified call.
+     * 
+     * @param id     the call ID
+     * 
+     * @return the number of times the call was made
+     */
+    int getCount(int id)
+    {
+        return m_counts == null ? 1 : m_counts[id];
+    }
+    
+    /**
+     * Add to the count of the specified call.
+     * 
+     * @param id     the call ID
+     * @param count  the amount to add, which can be negative
+     * 
+     * @return the new count
+     */
+    int addCount(int id, int count)
+    {
+        if (m_counts == null) {
+            m_counts = new int[m_names.length];
+            Arrays.fill(m_counts, 0, m_size, 1);
+        }
+        
+        m_counts[id] += count;
+        return m_counts[id];
+    }
+    
+    /**
+     * Get the number of distinct calls in this list.
+     * 
+     * @return the number of calls
+     */
+    int size()
+    {
+        return m_size;
+    }
+    
+    /**
+     * Determine if this list has no calls.
+     * 
+     * @return true if the list is empty and false otherwise
+     */
+    boolean isEmpty()
+    {
+        return m_size == 0;
+    }
+    
+    /**
+     * Remove all of the calls from this list.
+     */
+    void clear()
+    {
+        Arrays.fill(m_names, 0, m_size, null);
+        m_counts = null;
+        m_receivers = null;
+        m_slots = null;
+        m_size = 0;
+    }
+    
+    /**
+     * Create a Call for each of the calls in this list.
+     * 
+     * @return the calls in the order they were first added
+     */
+    Call[] toArray()
+    {
+        Call calls[] = new Call[m_size];
+        for (int id = 0; id < m_size; id++) {
+            calls[id] = new Call(m_names[id], getReceiver(id));
+        }
+        
+        return calls;
+    }
+    
+    /**
+     * Create a list with a Call for each of the calls in this list.
+     * 
+     * @return the calls in the order they were first added
+     */
+    List<Call> getCalls()
+    {
+        return new ArrayList<Call>(Arrays.asList(toArray()));
+    }
+    
+    /**
+     * Determine if the specified call has this name and receiver.
+     * 
+     * @param id       the call ID
+     * @param name     the call name
+     * @param receiver the receiver of the call or null if it isn't known
+     * 
+     * @return true if the call matches and false otherwise
+     */
+    private boolean matches(int id, String name, String receiver)
+    {
+        if (!m_names[id].equals(name)) {
+            return false;
+        }
+        
+        String r = getReceiver(id);
+        return receiver == null ? r == null : receiver.equals(r);
+    }
+    
+    /**
+     * Get the first slot in the table for calls with the specified name.
+     * 
+     * @param name   the call name
+     * 
+     * @return the slot
+     */
+    private int getSlot(String name)
+    {
+        int hash = name.hashCode() * 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & (m_slots.length - 1);
+    }
+    
+    /**
+     * Add the specified call to the table and grow the table when it gets half full.
+     * 
+     * @param id     the call ID
+     */
+    private void index(int id)
+    {
+        if (m_size * 2 > m_slots.length) {
+            rehash(m_slots.length * 2);
+            return;
+        }
+        
+        int mask = m_slots.length - 1;
+        int slot = getSlot(m_names[id]);
+        while (m_slots[slot] != -1) {
+            slot = (slot + 1) & mask;
+        }
+        m_slots[slot] = id;
+    }
+    
+    /**
+     * Build a new table of the specified size with all of the calls in the list.
+     * 
+     * @param length the number of slots, which must be a power of two
+     */
+    private void rehash(int length)
+    {
+        m_slots = new int[length];
+        Arrays.fill(m_slots, -1);
+        
+        int mask = length - 1;
+        for (int id = 0; id < m_size; id++) {
+            int slot = getSlot(m_names[id]);
+            while (m_slots[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            m_slots[slot] = id;
+        }
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer("[");
+        for (int id = 0; id < m_size; id++) {
+            if (id > 0) {
+                sb.append(", ");
+            }
+            
+            if (getReceiver(id) != null) {
+                sb.append(getReceiver(id) + ".");
+            }
+            sb.append(m_names[id] + ": " + getCount(id));
+        }
+        
+        return sb.append("]").toString();
+    }
+}
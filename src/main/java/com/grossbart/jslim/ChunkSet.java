@@ -0,0 +1,94 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A chunk set is the result of splitting the library files across multiple entry points.
+ * The shared chunk contains the library code needed by many entries and each entry chunk
+ * contains the extra library code needed by just that entry.  Each page loads the shared
+ * chunk first and then the chunk for its entry.
+ */
+public class ChunkSet
+{
+    private String m_shared;
+    private Map<String, String> m_entries = new LinkedHashMap<String, String>();
+    
+    /**
+     * Create a new ChunkSet.
+     * 
+     * @param shared the pruned library code shared by the entries
+     */
+    public ChunkSet(String shared)
+    {
+        m_shared = shared;
+    }
+    
+    /**
+     * Add the chunk for a single entry.
+     * 
+     * @param entry  the name of the entry
+     * @param chunk  the library code needed only by this entry
+     */
+    public void addEntryChunk(String entry, String chunk)
+    {
+        m_entries.put(entry, chunk);
+    }
+    
+    /**
+     * Get the shared chunk.
+     * 
+     * @return the library code shared by the entries
+     */
+    public String getSharedChunk()
+    {
+        return m_shared;
+    }
+    
+    /**
+     * Get the names of all the entries in this chunk set in the order they were added.
+     * 
+     * @return the entry names
+     */
+    public List<String> getEntryNames()
+    {
+        return new ArrayList<String>(m_entries.keySet());
+    }
+    
+    /**
+     * Get the chunk for the specified entry.
+     * 
+     * @param entry  the name of the entry
+     * 
+     * @return the library code needed only by this entry or null if there is no entry with this name
+     */
+    public String getEntryChunk(String entry)
+    {
+        return m_entries.get(entry);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "ChunkSet: " + m_entries.keySet();
+    }
+}
@@ -0,0 +1,343 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.rhino.Node;
+
+/**
+ * The closure cache keeps the closure tables of the libraries we've pruned so pruning
+ * more main files against the same library doesn't compute the table again.  Tables are
+ * kept in memory and they can also be stored in a directory so they are reused between
+ * runs.
+ * 
+ * Tables are found by a hash of everything the call graph is built from: the source of
+ * the library files, the compilation level they are parsed with, the names functions are
+ * bound to and the version of the graph JSlim builds.  That means a table can be found
+ * before building the graph so a hit never has to build it.  Each table also holds the
+ * names of the functions it was built from in graph order and it is only used when the
+ * library has the same functions.
+ */
+public class ClosureCache
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    /**
+     * The version of the call graph.  Change this whenever JSlim finds different
+     * functions or calls in the same library so old tables are never used.
+     */
+    private static final int FORMAT = 2;
+    
+    private static final int MAX_TABLES = 16;
+    private static final String EXTENSION = ".closures";
+    
+    private File m_dir;
+    private Map<String, ClosureTable> m_tables = new LinkedHashMap<String, ClosureTable>(MAX_TABLES, 0.75f, true);
+    private int m_hits;
+    private int m_misses;
+    
+    /**
+     * Create a new ClosureCache which only keeps tables in memory.
+     */
+    public ClosureCache()
+    {
+        this(null);
+    }
+    
+    /**
+     * Create a new ClosureCache which stores tables in the specified directory.
+     * 
+     * @param dir    the directory to store tables in or null to only keep tables in memory
+     */
+    public ClosureCache(File dir)
+    {
+        m_dir = dir;
+    }
+    
+    /**
+     * Determine if there is a table for the specified key in memory or the cache
+     * directory.  The streaming prune uses this to decide if it needs the calls of each
+     * function before it knows the function names.
+     * 
+     * @param key    the key of the library
+     * 
+     * @return true if there is a table and false otherwise
+     */
+    public synchronized boolean hasTable(String key)
+    {
+        return loadTable(key) != null;
+    }
+    
+    /**
+     * Find the closure table for the specified key.  The table comes from memory or the
+     * cache directory.
+     * 
+     * @param key       the key of the library
+     * @param functions the names of the library functions in graph order
+     * 
+     * @return the table or null if there is no table with the same functions
+     */
+    public synchronized ClosureTable findTable(String key, String functions[])
+    {
+        ClosureTable table = loadTable(key);
+        if (table == null) {
+            return null;
+        } else if (!table.matches(functions)) {
+            LOGGER.log(Level.WARNING, "The closure table " + key + " doesn't match the library functions.");
+            return null;
+        }
+        
+        m_hits++;
+        return table;
+    }
+    
+    /**
+     * Compute the closure table for the specified graph and add it to the cache.
+     * 
+     * @param key       the key of the library
+     * @param graph     the call graph of the library
+     * @param functions the names of the library functions in graph order
+     * 
+     * @return the closure table
+     */
+    public synchronized ClosureTable addTable(String key, CallGraph graph, String functions[])
+    {
+        m_misses++;
+        ClosureTable table = new ClosureTable(graph, functions);
+        if (m_dir != null) {
+            writeTable(table, new File(m_dir, key + EXTENSION));
+        }
+        
+        putTable(key, table);
+        return table;
+    }
+    
+    /**
+     * Get the table for the specified key from memory or the cache directory.
+     * 
+     * @param key    the key of the library
+     * 
+     * @return the table or null if we don't have it
+     */
+    private ClosureTable loadTable(String key)
+    {
+        ClosureTable table = m_tables.get(key);
+        if (table == null && m_dir != null) {
+            table = readTable(new File(m_dir, key + EXTENSION));
+            if (table != null) {
+                putTable(key, table);
+            }
+        }
+        
+        return table;
+    }
+    
+    /**
+     * Keep a table in memory.
+     * 
+     * @param key    the key of the library
+     * @param table  the table
+     */
+    private void putTable(String key, ClosureTable table)
+    {
+        m_tables.put(key, table);
+        if (m_tables.size() > MAX_TABLES) {
+            /*
+             Then we drop the table we used least recently
+             */
+            m_tables.remove(m_tables.keySet().iterator().next());
+        }
+    }
+    
+    /**
+     * Read a table from the cache directory.
+     * 
+     * @param file   the table file
+     * 
+     * @return the table or null if the file doesn't exist or can't be read
+     */
+    private static ClosureTable readTable(File file)
+    {
+        if (!file.exists()) {
+            return null;
+        }
+        
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                return ClosureTable.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the closure table " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Write a table to the cache directory.  The table is written to a temporary file and
+     * then renamed so other processes sharing the directory never read part of a table.
+     * 
+     * @param table  the table to write
+     * @param file   the table file
+     */
+    private static void writeTable(ClosureTable table, File file)
+    {
+        try {
+            file.getParentFile().mkdirs();
+            File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                table.write(out);
+            } finally {
+                out.close();
+            }
+            
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write the closure table " + file + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Get the key of a library.  This is a hash of the version of the call graph, the
+     * compilation level, the names functions are bound to and the source of each library
+     * file.  The bound names include the ones from libraries added before this one since
+     * they change which references count as calls.
+     * 
+     * @param libs       the library files
+     * @param level      the compilation level the files are parsed with
+     * @param boundNames the names functions are bound to
+     * 
+     * @return the key
+     */
+    public static String getKey(List<JSFile> libs, CompilationLevel level, Set<String> boundNames)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            update(digest, Integer.toString(FORMAT));
+            update(digest, String.valueOf(level));
+            
+            List<String> names = new ArrayList<String>(boundNames);
+            Collections.sort(names);
+            for (String name : names) {
+                update(digest, name);
+            }
+            update(digest, ";");
+            
+            for (JSFile lib : libs) {
+                update(digest, lib.getName());
+                update(digest, lib.getContent());
+            }
+            
+            StringBuffer sb = new StringBuffer();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Get the names of each of the specified functions.  A table is only used for a
+     * library with the same names in the same order.
+     * 
+     * @param funcs  the library functions in graph order
+     * 
+     * @return the names of each function joined together
+     */
+    static String[] getFunctionNames(List<Node> funcs)
+    {
+        String names[] = new String[funcs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = FunctionNames.getNames(funcs.get(i)).toString();
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Add a string to the specified digest.
+     * 
+     * @param digest the digest
+     * @param s      the string to add
+     */
+    private static void update(MessageDigest digest, String s)
+    {
+        try {
+            digest.update(s.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Get the number of tables which were found in memory or the cache directory.
+     * 
+     * @return the number of cache hits
+     */
+    public synchronized int getHitCount()
+    {
+        return m_hits;
+    }
+    
+    /**
+     * Get the number of tables which had to be computed.
+     * 
+     * @return the number of cache misses
+     */
+    public synchronized int getMissCount()
+    {
+        return m_misses;
+    }
+    
+    @Override
+    public synchronized String toString()
+    {
+        return "ClosureCache: " + m_tables.size() + " tables, " + m_hits + " hits, " + m_misses + " misses";
+    }
+}
@@ -0,0 +1,606 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The closure table holds the transitive closure of a call graph for every call name.
+ * The closure of a name is the set of functions that a call with that name keeps, so
+ * finding the functions reachable from a set of root calls is just the union of the
+ * closures of the root names instead of a search through the graph.
+ * 
+ * The closures are computed once for each strongly connected component of the graph
+ * since all the functions in a cycle of calls keep each other.  The table only depends
+ * on the library so it can be reused for every main file pruned against that library.
+ * 
+ * Closures are stored by the name IDs of the graph.  A name which only calls one function
+ * shares the closure of that function's component instead of getting a copy.  Each
+ * closure is stored as a list of function indexes when that is smaller than a bitset.
+ * Most components in a large library only reach a few leaf functions and a bitset for
+ * them would be as long as the index of the last one, so this keeps the table close to
+ * the number of reachable functions instead of the square of the number of functions.
+ * 
+ * The table can also hold the names of the functions it was built from so a table
+ * read from the cache is only used for a library with the same functions.
+ */
+public final class ClosureTable
+{
+    private static final int VERSION = 2;
+    
+    private static final byte SPARSE = 0;
+    private static final byte DENSE = 1;
+    
+    private int m_size;
+    private SymbolTable m_symbols;
+    private Closure m_closures[];
+    private int m_closureIds[];
+    private String m_functions[];
+    
+    /**
+     * Create a new ClosureTable by computing the closures of the specified graph.
+     * 
+     * @param graph  the call graph
+     */
+    public ClosureTable(CallGraph graph)
+    {
+        this(graph, null);
+    }
+    
+    /**
+     * Create a new ClosureTable by computing the closures of the specified graph.
+     * 
+     * @param graph     the call graph
+     * @param functions the names of the functions in the graph in graph order or null if
+     *                  the table doesn't need them
+     */
+    public ClosureTable(CallGraph graph, String functions[])
+    {
+        m_size = graph.size();
+        m_symbols = graph.getSymbols();
+        m_functions = functions;
+        m_closureIds = new int[m_symbols.size()];
+        Arrays.fill(m_closureIds, -1);
+        
+        List<Closure> closures = new ArrayList<Closure>();
+        int component[] = findComponents(getEdges(graph), closures);
+        
+        /*
+         Names with one function share the closure of its component so we
+         only keep the closures which some name uses
+         */
+        List<Closure> used = new ArrayList<Closure>();
+        Map<Closure, Integer> ids = new IdentityHashMap<Closure, Integer>();
+        for (int id = 0; id < m_closureIds.length; id++) {
+            int start = graph.getNameStart(id);
+            int end = graph.getNameEnd(id);
+            Closure closure = null;
+            if (end - start == 1) {
+                closure = closures.get(component[graph.getNameFunction(start)]);
+            } else if (end - start > 1) {
+                BitSet bits = new BitSet(m_size);
+                for (int pos = start; pos < end; pos++) {
+                    closures.get(component[graph.getNameFunction(pos)]).addTo(bits);
+                }
+                closure = Closure.compress(bits);
+            }
+            
+            if (closure != null) {
+                Integer closureId = ids.get(closure);
+                if (closureId == null) {
+                    closureId = used.size();
+                    ids.put(closure, closureId);
+                    used.add(closure);
+                }
+                m_closureIds[id] = closureId;
+            }
+        }
+        
+        m_closures = used.toArray(new Closure[used.size()]);
+    }
+    
+    private ClosureTable(int size, SymbolTable symbols, Closure closures[], int closureIds[], String functions[])
+    {
+        m_size = size;
+        m_symbols = symbols;
+        m_closures = closures;
+        m_closureIds = closureIds;
+        m_functions = functions;
+    }
+    
+    /**
+     * Get the indexes of the functions each function in the graph calls.
+     * 
+     * @param graph  the call graph
+     * 
+     * @return the called function indexes for each function
+     */
+    private static int[][] getEdges(CallGraph graph)
+    {
+        int edges[][] = new int[graph.size()][];
+        BitSet called = new BitSet(graph.size());
+        for (int i = 0; i < edges.length; i++) {
+            called.clear();
+            for (int call = graph.getCallStart(i); call < graph.getCallEnd(i); call++) {
+                int id = graph.getCallId(call);
+                for (int pos = graph.getNameStart(id); pos < graph.getNameEnd(id); pos++) {
+                    called.set(graph.getNameFunction(pos));
+                }
+            }
+            
+            edges[i] = new int[called.cardinality()];
+            int j = 0;
+            for (int func = called.nextSetBit(0); func >= 0; func = called.nextSetBit(func + 1)) {
+                edges[i][j++] = func;
+            }
+        }
+        
+        return edges;
+    }
+    
+    /**
+     * Find the strongly connected components of the graph with Tarjan's algorithm and
+     * compute the closure of each one.  Tarjan's algorithm finishes each component after
+     * all the components it calls so their closures are always ready when we need them.
+     * We keep our own stack instead of recursing since call chains in large libraries
+     * can be very deep.
+     * 
+     * @param edges    the called function indexes for each function
+     * @param closures the list to add the closure of each component to
+     * 
+     * @return the component index of each function
+     */
+    private static int[] findComponents(int edges[][], List<Closure> closures)
+    {
+        int size = edges.length;
+        int order[] = new int[size];
+        int low[] = new int[size];
+        int component[] = new int[size];
+        int next[] = new int[size];
+        int stack[] = new int[size];
+        int path[] = new int[size];
+        boolean onStack[] = new boolean[size];
+        Arrays.fill(order, -1);
+        
+        int count = 0;
+        int stackSize = 0;
+        BitSet closure = new BitSet(size);
+        
+        for (int root = 0; root < size; root++) {
+            if (order[root] > -1) {
+                continue;
+            }
+            
+            int pathSize = 0;
+            path[pathSize++] = root;
+            order[root] = count;
+            low[root] = count;
+            count++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            
+            while (pathSize > 0) {
+                int func = path[pathSize - 1];
+                if (next[func] < edges[func].length) {
+                    int called = edges[func][next[func]++];
+                    if (order[called] == -1) {
+                        path[pathSize++] = called;
+                        order[called] = count;
+                        low[called] = count;
+                        count++;
+                        stack[stackSize++] = called;
+                        onStack[called] = true;
+                    } else if (onStack[called]) {
+                        low[func] = Math.min(low[func], order[called]);
+                    }
+                    continue;
+                }
+                
+                pathSize--;
+                if (pathSize > 0) {
+                    int caller = path[pathSize - 1];
+                    low[caller] = Math.min(low[caller], low[func]);
+                }
+                
+                if (low[func] == order[func]) {
+                    /*
+                     Then this function is the root of a component and
+                     everything above it on the stack is in the component.
+                     We build the closure in one scratch bitset and only
+                     keep the compressed copy.
+                     */
+                    int id = closures.size();
+                    closure.clear();
+                    int start = stackSize;
+                    do {
+                        start--;
+                        onStack[stack[start]] = false;
+                        component[stack[start]] = id;
+                        closure.set(stack[start]);
+                    } while (stack[start] != func);
+                    
+                    for (int i = start; i < stackSize; i++) {
+                        for (int called : edges[stack[i]]) {
+                            if (component[called] != id) {
+                                closures.get(component[called]).addTo(closure);
+                            }
+                        }
+                    }
+                    
+                    stackSize = start;
+                    closures.add(Closure.compress(closure));
+                }
+            }
+        }
+        
+        return component;
+    }
+    
+    /**
+     * Get the number of functions in the graph this table was built from.
+     * 
+     * @return the number of functions
+     */
+    public int size()
+    {
+        return m_size;
+    }
+    
+    /**
+     * Determine if this table was built from a graph with the specified functions.
+     * 
+     * @param functions the names of the functions in graph order
+     * 
+     * @return true if this table has the same function names and false otherwise
+     */
+    public boolean matches(String functions[])
+    {
+        return m_functions != null && Arrays.equals(m_functions, functions);
+    }
+    
+    /**
+     * Get the closure of the specified call name.
+     * 
+     * @param name   the call name
+     * 
+     * @return the indexes of the functions this call keeps or null if no function has this name
+     */
+    public BitSet getClosure(String name)
+    {
+        Closure closure = findClosure(name);
+        if (closure == null) {
+            return null;
+        }
+        
+        BitSet bits = new BitSet(m_size);
+        closure.addTo(bits);
+        return bits;
+    }
+    
+    /**
+     * Find the stored closure of the specified call name.
+     * 
+     * @param name   the call name
+     * 
+     * @return the closure or null if no function has this name
+     */
+    private Closure findClosure(String name)
+    {
+        int id = m_symbols.getId(name);
+        if (id == -1 || id >= m_closureIds.length || m_closureIds[id] == -1) {
+            /*
+             Then no function has this name or the name was added to
+             the graph after we built this table
+             */
+            return null;
+        }
+        
+        return m_closures[m_closureIds[id]];
+    }
+    
+    /**
+     * Find all of the functions which can be reached from the specified root call names.
+     * This returns the same functions as CallGraph.findReachable for the graph this table
+     * was built from.
+     * 
+     * @param roots  the names of the root calls
+     * 
+     * @return the set of indexes of reachable functions
+     */
+    public BitSet getReachable(Collection<String> roots)
+    {
+        BitSet reachable = new BitSet(m_size);
+        for (String root : roots) {
+            Closure closure = findClosure(root);
+            if (closure != null) {
+                closure.addTo(reachable);
+            }
+        }
+        
+        return reachable;
+    }
+    
+    /**
+     * Write this table to the specified stream.  The stream isn't closed.
+     * 
+     * @param out    the stream to write to
+     * 
+     * @exception IOException if there is an error writing the table
+     */
+    public void write(OutputStream out)
+        throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(VERSION);
+        data.writeInt(m_size);
+        
+        if (m_functions == null) {
+            data.writeInt(-1);
+        } else {
+            data.writeInt(m_functions.length);
+            for (String function : m_functions) {
+                data.writeUTF(function);
+            }
+        }
+        
+        data.writeInt(m_closures.length);
+        for (Closure closure : m_closures) {
+            closure.write(data);
+        }
+        
+        int count = 0;
+        for (int closureId : m_closureIds) {
+            if (closureId != -1) {
+                count++;
+            }
+        }
+        data.writeInt(count);
+        
+        for (int id = 0; id < m_closureIds.length; id++) {
+            if (m_closureIds[id] != -1) {
+                data.writeUTF(m_symbols.getName(id));
+                data.writeInt(m_closureIds[id]);
+            }
+        }
+        
+        data.flush();
+    }
+    
+    /**
+     * Read a table written with write.
+     * 
+     * @param in     the stream to read from
+     * 
+     * @return the table
+     * @exception IOException if there is an error reading the table or it was written by a different version
+     */
+    public static ClosureTable read(InputStream in)
+        throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != VERSION) {
+            throw new IOException("The closure table was written by a different version of JSlim.");
+        }
+        
+        int size = data.readInt();
+        
+        String functions[] = null;
+        int functionCount = data.readInt();
+        if (functionCount > -1) {
+            functions = new String[functionCount];
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = data.readUTF();
+            }
+        }
+        
+        Closure closures[] = new Closure[data.readInt()];
+        for (int i = 0; i < closures.length; i++) {
+            closures[i] = Closure.read(data);
+        }
+        
+        SymbolTable symbols = new SymbolTable();
+        int closureIds[] = new int[data.readInt()];
+        for (int id = 0; id < closureIds.length; id++) {
+            symbols.intern(data.readUTF());
+            closureIds[id] = data.readInt();
+            if (closureIds[id] < 0 || closureIds[id] >= closures.length) {
+                throw new IOException("The closure table is corrupt.");
+            }
+        }
+        
+        return new ClosureTable(size, symbols, closures, closureIds, functions);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "ClosureTable: " + m_symbols.size() + " names, " + m_closures.length + " closures, " +
+            m_size + " functions";
+    }
+    
+    /**
+     * A closure is stored either as the sorted indexes of its functions or as a bitset,
+     * whichever is smaller.  This is the same choice compressed bitsets make for each
+     * block of bits, but our closures are small enough to make it once for the whole set.
+     */
+    private static final class Closure
+    {
+        private int m_members[];
+        private BitSet m_bits;
+        
+        private Closure(int members[], BitSet bits)
+        {
+            m_members = members;
+            m_bits = bits;
+        }
+        
+        /**
+         * Store the specified bits in the smaller form.
+         * 
+         * @param bits   the function indexes
+         * 
+         * @return the closure
+         */
+        static Closure compress(BitSet bits)
+        {
+            int count = bits.cardinality();
+            
+            /*
+             An index takes 32 bits and a bitset word takes 64
+             */
+            if (count < 2 * ((bits.length() + 63) / 64)) {
+                int members[] = new int[count];
+                int i = 0;
+                for (int func = bits.nextSetBit(0); func >= 0; func = bits.nextSetBit(func + 1)) {
+                    members[i++] = func;
+                }
+                return new Closure(members, null);
+            }
+            
+            return new Closure(null, BitSet.valueOf(bits.toLongArray()));
+        }
+        
+        /**
+         * Add the functions in this closure to the specified set.
+         * 
+         * @param set    the set to add to
+         */
+        void addTo(BitSet set)
+        {
+            if (m_bits != null) {
+                set.or(m_bits);
+            } else {
+                for (int func : m_members) {
+                    set.set(func);
+                }
+            }
+        }
+        
+        /**
+         * Write this closure.  The indexes of a sparse closure are written as the
+         * differences between them so most of them fit in a single byte.
+         * 
+         * @param data   the stream to write to
+         * 
+         * @exception IOException if there is an error writing the closure
+         */
+        void write(DataOutputStream data)
+            throws IOException
+        {
+            if (m_bits != null) {
+                data.writeByte(DENSE);
+                long words[] = m_bits.toLongArray();
+                data.writeInt(words.length);
+                for (long word : words) {
+                    data.writeLong(word);
+                }
+            } else {
+                data.writeByte(SPARSE);
+                data.writeInt(m_members.length);
+                int last = 0;
+                for (int func : m_members) {
+                    writeVarInt(data, func - last);
+                    last = func;
+                }
+            }
+        }
+        
+        /**
+         * Read a closure written with write.
+         * 
+         * @param data   the stream to read from
+         * 
+         * @return the closure
+         * @exception IOException if there is an error reading the closure
+         */
+        static Closure read(DataInputStream data)
+            throws IOException
+        {
+            byte type = data.readByte();
+            if (type == DENSE) {
+                long words[] = new long[data.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = data.readLong();
+                }
+                return new Closure(null, BitSet.valueOf(words));
+            } else if (type == SPARSE) {
+                int members[] = new int[data.readInt()];
+                int last = 0;
+                for (int i = 0; i < members.length; i++) {
+                    last += readVarInt(data);
+                    members[i] = last;
+                }
+                return new Closure(members, null);
+            }
+            
+            throw new IOException("The closure table is corrupt.");
+        }
+        
+        /**
+         * Write a non-negative int in as few bytes as it needs, seven bits at a time.
+         * 
+         * @param data   the stream to write to
+         * @param value  the value to write
+         * 
+         * @exception IOException if there is an error writing the value
+         */
+        private static void writeVarInt(DataOutputStream data, int value)
+            throws IOException
+        {
+            while ((value & ~0x7f) != 0) {
+                data.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            data.writeByte(value);
+        }
+        
+        /**
+         * Read an int written with writeVarInt.
+         * 
+         * @param data   the stream to read from
+         * 
+         * @return the value
+         * @exception IOException if there is an error reading the value
+         */
+        private static int readVarInt(DataInputStream data)
+            throws IOException
+        {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = data.readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            
+            throw new IOException("The closure table is corrupt.");
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+
+/**
+ * <p>
+ * The compile cache stores the result of each closure compile in a directory so compiling 
+ * the same code with the same options again reads the result instead.  Results are found 
+ * by a hash of the code, the compilation level, the formatting options, and the version
+ * of the closure compiler so a newer compiler never uses an old result.
+ * </p>
+ * 
+ * <p>
+ * The directory is limited to a number of results and a number of bytes.  When it gets 
+ * bigger we delete the results used least recently.  Reading a result updates the time
+ * of its file so the file times keep track of use across processes.  Results are written 
+ * to a temporary file and renamed so builds sharing the directory never read part of a
+ * result.  Compiles with errors are never stored.
+ * </p>
+ */
+public class CompileCache
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    /**
+     * The default maximum number of results in the cache directory.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+    
+    /**
+     * The default maximum number of bytes in the cache directory.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+    
+    private static final String EXTENSION = ".compiled";
+    private static final String CHARSET = "UTF-8";
+    
+    /*
+     The closure build writes its revision and date into the parser
+     configuration next to the compiler classes
+     */
+    private static final String COMPILER_CONFIG = "parsing/ParserConfig.properties";
+    
+    private static final String COMPILER_VERSION = getCompilerVersion();
+    
+    private File m_dir;
+    private int m_maxEntries;
+    private long m_maxBytes;
+    
+    private int m_hits;
+    private int m_misses;
+    private int m_evictions;
+    private long m_bytesRead;
+    private long m_bytesWritten;
+    
+    /**
+     * Create a new CompileCache with the default limits.
+     * 
+     * @param dir    the directory to store results in
+     */
+    public CompileCache(File dir)
+    {
+        this(dir, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+    
+    /**
+     * Create a new CompileCache.
+     * 
+     * @param dir        the directory to store results in
+     * @param maxEntries the maximum number of results to keep
+     * @param maxBytes   the maximum number of bytes of results to keep
+     */
+    public CompileCache(File dir, int maxEntries, long maxBytes)
+    {
+        m_dir = dir;
+        m_maxEntries = maxEntries;
+        m_maxBytes = maxBytes;
+    }
+    
+    /**
+     * Compile the specified code or read the result from the cache if we compiled the same
+     * code with the same options before.
+     * 
+     * @param name       the name of the file to compile
+     * @param code       the code to compile
+     * @param level      the compilation level
+     * @param formatting the formatting options or null for none
+     * @param fragments  the fragment cache to compile with on a miss or null to compile the whole code
+     * 
+     * @return the compiled code
+     */
+    public String compile(String name, String code, CompilationLevel level, 
+                          JSlim.FormattingOption formatting, FragmentCache fragments)
+    {
+        File file = new File(m_dir, getKey(code, level, formatting) + EXTENSION);
+        String result = readResult(file);
+        if (result != null) {
+            return result;
+        }
+        
+        if (fragments != null) {
+            result = fragments.compileFragments(name, code, level, formatting);
+        }
+        
+        if (result == null) {
+            Compiler compiler = CompileVariant.runCompiler(name, code, level, formatting, true);
+            result = compiler.toSource();
+            if (compiler.getErrorCount() > 0) {
+                return result;
+            }
+        }
+        
+        writeResult(result, file);
+        evict(file);
+        return result;
+    }
+    
+    /**
+     * Read a result from the cache directory and mark it as used.
+     * 
+     * @param file   the result file
+     * 
+     * @return the result or null if it isn't in the cache
+     */
+    private String readResult(File file)
+    {
+        String result = null;
+        if (file.exists()) {
+            try {
+                result = FileUtils.readFileToString(file, CHARSET);
+                file.setLastModified(System.currentTimeMillis());
+            } catch (IOException e) {
+                /*
+                 Another build might have evicted the file while we read it
+                 */
+                LOGGER.log(Level.FINE, "Unable to read the compile result {0}: {1}", new Object[] {file, e.getMessage()});
+            }
+        }
+        
+        synchronized (this) {
+            if (result == null) {
+                m_misses++;
+            } else {
+                m_hits++;
+                m_bytesRead += file.length();
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Write a result to the cache directory.  The result is written to a temporary file 
+     * and then renamed.
+     * 
+     * @param result the result to write
+     * @param file   the result file
+     */
+    private void writeResult(String result, File file)
+    {
+        try {
+            file.getParentFile().mkdirs();
+            File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            FileUtils.writeStringToFile(temp, result, CHARSET);
+            
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            
+            synchronized (this) {
+                m_bytesWritten += file.length();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write the compile result " + file + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Delete the results used least recently until the cache directory is within its limits.
+     * File times only change once a second on some systems so we never delete the result 
+     * we just wrote even if it looks as old as another one.
+     * 
+     * @param keep   the result we just wrote
+     */
+    private synchronized void evict(File keep)
+    {
+        File files[] = m_dir.listFiles(new FileFilter() {
+            public boolean accept(File file)
+            {
+                return file.getName().endsWith(EXTENSION);
+            }
+        });
+        
+        if (files == null) {
+            return;
+        }
+        
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        
+        if (files.length <= m_maxEntries && bytes <= m_maxBytes) {
+            return;
+        }
+        
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2)
+            {
+                long diff = f1.lastModified() - f2.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : f1.getName().compareTo(f2.getName());
+            }
+        });
+        
+        int count = files.length;
+        for (int i = 0; i < files.length && (count > m_maxEntries || bytes > m_maxBytes); i++) {
+            long length = files[i].length();
+            if (!files[i].equals(keep) && files[i].delete()) {
+                count--;
+                bytes -= length;
+                m_evictions++;
+            }
+        }
+    }
+    
+    /**
+     * Get the key of the specified code compiled with the specified options.
+     * 
+     * @param code       the code
+     * @param level      the compilation level
+     * @param formatting the formatting options or null for none
+     * 
+     * @return the key
+     */
+    private static String getKey(String code, CompilationLevel level, JSlim.FormattingOption formatting)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((COMPILER_VERSION + "\u0000" + level + "\u0000" + formatting + "\u0000").getBytes(CHARSET));
+            digest.update(code.getBytes(CHARSET));
+            
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Get the hexadecimal string of the specified bytes.
+     * 
+     * @param bytes  the bytes
+     * 
+     * @return the string
+     */
+    private static String toHex(byte bytes[])
+    {
+        StringBuffer sb = new StringBuffer();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Get the version of the closure compiler.  The compiler jar doesn't have an 
+     * implementation version, but its build writes the revision and date into the parser
+     * configuration.  If that is missing too we use a hash of the jar the compiler was 
+     * loaded from.  The version never depends on where the jar is, so checkouts and build 
+     * machines sharing a cache directory share the results of the same compiler.
+     * 
+     * @return the compiler version
+     */
+    private static String getCompilerVersion()
+    {
+        Package p = Compiler.class.getPackage();
+        if (p != null && p.getImplementationVersion() != null) {
+            return p.getImplementationVersion();
+        }
+        
+        String version = getConfigVersion();
+        if (version != null) {
+            return version;
+        }
+        
+        CodeSource source = Compiler.class.getProtectionDomain().getCodeSource();
+        URL location = source == null ? null : source.getLocation();
+        File jar = location == null ? null : FileUtils.toFile(location);
+        if (jar == null || !jar.isFile()) {
+            return String.valueOf(location);
+        }
+        
+        try {
+            return getHash(jar);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the closure compiler from " + jar, e);
+            return String.valueOf(location);
+        }
+    }
+    
+    /**
+     * Get the revision and date of the closure compiler build from its parser configuration.
+     * 
+     * @return the revision and date or null if the configuration doesn't have them
+     */
+    private static String getConfigVersion()
+    {
+        InputStream in = Compiler.class.getResourceAsStream(COMPILER_CONFIG);
+        if (in == null) {
+            return null;
+        }
+        
+        Properties config = new Properties();
+        try {
+            config.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        
+        String revision = config.getProperty("compiler.version");
+        String date = config.getProperty("compiler.date");
+        if (revision == null || revision.trim().length() == 0 || revision.indexOf('$') > -1) {
+            /*
+             Then this is a compiler built without the release properties
+             */
+            return null;
+        }
+        
+        return revision.trim() + " " + date;
+    }
+    
+    /**
+     * Get a hash of the contents of the specified file.
+     * 
+     * @param file   the file
+     * 
+     * @return the hash
+     * @exception IOException
+     *                   if there is an error reading the file
+     */
+    private static String getHash(File file)
+        throws IOException
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            InputStream in = FileUtils.openInputStream(file);
+            try {
+                byte buffer[] = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Get the number of results which were read from the cache.
+     * 
+     * @return the number of cache hits
+     */
+    public synchronized int getHitCount()
+    {
+        return m_hits;
+    }
+    
+    /**
+     * Get the number of results which had to be compiled.
+     * 
+     * @return the number of cache misses
+     */
+    public synchronized int getMissCount()
+    {
+        return m_misses;
+    }
+    
+    /**
+     * Get the number of results deleted to keep the cache within its limits.
+     * 
+     * @return the number of evictions
+     */
+    public synchronized int getEvictionCount()
+    {
+        return m_evictions;
+    }
+    
+    @Override
+    public synchronized String toString()
+    {
+        return "CompileCache: " + m_hits + " hits, " + m_misses + " misses, " + m_evictions + " evictions, " + 
+            m_bytesRead + " bytes read, " + m_bytesWritten + " bytes written";
+    }
+}
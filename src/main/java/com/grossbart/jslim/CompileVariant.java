@@ -0,0 +1,269 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.jscomp.BasicErrorManager;
+import com.google.javascript.jscomp.CheckLevel;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.JSSourceFile;
+
+/**
+ * A compile variant is one more output from the same prune with its own compilation level
+ * and formatting, like a pretty printed debug build next to an advanced optimizations 
+ * build.  The prune happens once and the variants are compiled at the same time on 
+ * separate threads.
+ */
+final class CompileVariant
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    private static final String NONE = "NONE";
+    
+    private CompilationLevel m_level;
+    private JSlim.FormattingOption m_formatting;
+    private String m_output;
+    
+    /**
+     * Create a new CompileVariant.
+     * 
+     * @param level      the compilation level or null to skip the closure compile
+     * @param formatting the formatting options or null for none
+     * @param output     the output file or null to write to System.out
+     */
+    CompileVariant(CompilationLevel level, JSlim.FormattingOption formatting, String output)
+    {
+        m_level = level;
+        m_formatting = formatting;
+        m_output = output;
+    }
+    
+    /**
+     * Parse a variant in the form LEVEL[,FORMATTING]:file.js like 
+     * WHITESPACE_ONLY,PRETTY_PRINT:app.debug.js.  The level can be NONE to skip the 
+     * closure compile.
+     * 
+     * @param variant the variant to parse
+     * 
+     * @return the variant
+     * @exception IllegalArgumentException if the variant isn't in the right form or names
+     *                   an unknown level or formatting option
+     */
+    static CompileVariant parse(String variant)
+    {
+        int index = variant.indexOf(':');
+        if (index < 1 || index == variant.length() - 1) {
+            throw new IllegalArgumentException("The variant " + variant + " must be in the form LEVEL[,FORMATTING]:file.js");
+        }
+        
+        String options[] = variant.substring(0, index).split(",");
+        if (options.length > 2) {
+            throw new IllegalArgumentException("The variant " + variant + " must be in the form LEVEL[,FORMATTING]:file.js");
+        }
+        
+        try {
+            CompilationLevel level = null;
+            if (!NONE.equals(options[0].trim())) {
+                level = CompilationLevel.valueOf(options[0].trim());
+            }
+            
+            JSlim.FormattingOption formatting = null;
+            if (options.length > 1) {
+                formatting = JSlim.FormattingOption.valueOf(options[1].trim());
+            }
+            
+            return new CompileVariant(level, formatting, variant.substring(index + 1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The variant " + variant + " has an unknown compilation level or " +
+                                               "formatting option", e);
+        }
+    }
+    
+    /**
+     * Compile the specified code for each variant.  Each variant is compiled on its own
+     * thread up to the specified number of threads.
+     * 
+     * @param code     the pruned code
+     * @param variants the variants to compile
+     * @param threads  the number of threads to use
+     * @param cache    the fragment cache to compile with or null to compile the whole code
+     * @param compiled the compile cache to read and store results in or null to always compile
+     * 
+     * @return the compiled code for each variant in the same order as the variants
+     */
+    static List<String> compileAll(final String code, List<CompileVariant> variants, int threads, 
+                                   final FragmentCache cache, final CompileCache compiled)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, variants.size())));
+        
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (final CompileVariant variant : variants) {
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call()
+                    {
+                        return variant.compile(code, cache, compiled);
+                    }
+                }));
+            }
+            
+            List<String> results = new ArrayList<String>();
+            for (Future<String> future : futures) {
+                results.add(future.get());
+            }
+            
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Run the specified code through the closure compiler with the level and formatting of
+     * this variant.
+     * 
+     * @param code     the code to compile
+     * @param cache    the fragment cache to compile with or null to compile the whole code
+     * @param compiled the compile cache to read and store results in or null to always compile
+     * 
+     * @return the compiled code
+     */
+    String compile(String code, FragmentCache cache, CompileCache compiled)
+    {
+        if (m_level == null) {
+            return code;
+        }
+        
+        LOGGER.log(Level.INFO, "Starting closure compile of " + m_output + " with compile level " + m_level);
+        if (compiled != null) {
+            return compiled.compile(m_output, code, m_level, m_formatting, cache);
+        } else if (cache != null) {
+            return cache.compile(m_output, code, m_level, m_formatting);
+        }
+        
+        return JSlim.plainCompile(m_output, code, m_level, m_formatting);
+    }
+    
+    /**
+     * Run the closure compiler on the specified code.  This is the compile behind 
+     * JSlim.plainCompile, but it returns the compiler so the caches can check for errors
+     * before they keep the result.
+     * 
+     * @param name       the name of the file to compile or null for System.out
+     * @param code       the code to compile
+     * @param level      the compilation level
+     * @param formatting the formatting options or null for none
+     * @param report     true to report errors and warnings and false to only count them
+     * 
+     * @return the compiler holding the compiled code
+     */
+    static Compiler runCompiler(String name, String code, CompilationLevel level, 
+                                JSlim.FormattingOption formatting, boolean report)
+    {
+        Compiler compiler = new Compiler();
+        
+        compiler.setLoggingLevel(LOGGER.getLevel());
+        if (!report) {
+            compiler.setErrorManager(new QuietErrorManager());
+        }
+        
+        CompilerOptions options = new CompilerOptions();
+        level.setOptionsForCompilationLevel(options);
+        
+        if (formatting != null) {
+            formatting.applyToOptions(options);
+        }
+        
+        // To get the complete set of externs, the logic in
+        // CompilerRunner.getDefaultExterns() should be used here.
+        JSSourceFile extern = JSSourceFile.fromCode("externs.js", "");
+        
+        // The name is used here so that any warnings or errors will cite 
+        // line numbers in terms of the output file.
+        JSSourceFile input = JSSourceFile.fromCode(name == null ? "System.out.js" : name, code);
+        
+        // compile() returns a Result, but it is not needed here.
+        compiler.compile(extern, input, options);
+        
+        return compiler;
+    }
+    
+    /**
+     * Get the compilation level of this variant.
+     * 
+     * @return the compilation level or null to skip the closure compile
+     */
+    CompilationLevel getLevel()
+    {
+        return m_level;
+    }
+    
+    /**
+     * Get the formatting options of this variant.
+     * 
+     * @return the formatting options or null for none
+     */
+    JSlim.FormattingOption getFormatting()
+    {
+        return m_formatting;
+    }
+    
+    /**
+     * Get the output file of this variant.
+     * 
+     * @return the output file or null to write to System.out
+     */
+    String getOutput()
+    {
+        return m_output;
+    }
+    
+    /**
+     * This error manager counts the errors without reporting them.  The code is compiled
+     * again with reporting if there are errors.
+     */
+    private static final class QuietErrorManager extends BasicErrorManager
+    {
+        @Override
+        public void println(CheckLevel level, JSError error)
+        {
+        }
+        
+        @Override
+        protected void printSummary()
+        {
+        }
+    }
+}
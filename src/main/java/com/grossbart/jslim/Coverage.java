@@ -0,0 +1,78 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * Coverage instrumentation records which library functions are really called when a page
+ * runs.  Each interesting function gets a call to the coverage function at the start of
+ * its body and the coverage header defines that function along with a function that 
+ * returns the coverage profile.  The profile has the name of each called function on a 
+ * separate line and it can be passed back to JSlim to use those functions as the roots 
+ * of the prune instead of the calls in the main files.
+ */
+public final class Coverage
+{
+    /**
+     * The name of the function called at the start of every instrumented function.
+     */
+    public static final String COVER_FUNCTION = "__jslimCover";
+    
+    /**
+     * The JavaScript which defines the coverage functions.  It must be loaded before the
+     * instrumented library.  Call __jslimCoverageProfile() after using the page to get
+     * the coverage profile.
+     */
+    public static final String HEADER = 
+        "var __jslimCoverage = {};\n" +
+        "function " + COVER_FUNCTION + "(name) {\n" +
+        "    if (!__jslimCoverage.hasOwnProperty(name)) {\n" +
+        "        __jslimCoverage[name] = true;\n" +
+        "    }\n" +
+        "}\n" +
+        "function __jslimCoverageProfile() {\n" +
+        "    var names = [];\n" +
+        "    for (var name in __jslimCoverage) {\n" +
+        "        if (__jslimCoverage.hasOwnProperty(name)) {\n" +
+        "            names.push(name);\n" +
+        "        }\n" +
+        "    }\n" +
+        "    return names.join(\"\\n\");\n" +
+        "}\n";
+    
+    private Coverage()
+    {
+        /*
+         This is a utility class with only static methods
+         */
+    }
+    
+    /**
+     * Add the coverage call to the start of the specified function.
+     * 
+     * @param func   the function to instrument
+     * @param name   the name the function is recorded under
+     */
+    public static void instrument(Node func, String name)
+    {
+        Node call = new Node(Token.CALL, Node.newString(Token.NAME, COVER_FUNCTION), Node.newString(name));
+        func.getLastChild().addChildToFront(new Node(Token.EXPR_RESULT, call));
+    }
+}
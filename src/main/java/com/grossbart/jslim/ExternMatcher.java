@@ -0,0 +1,229 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The extern matcher holds the externs which match more than one function name.  An extern 
+ * can be a glob like on* where * matches any characters and ? matches a single character, 
+ * a regular expression between slashes like /^_on[A-Z]/, or either of those scoped to a 
+ * single library like backbone.js:_on*.
+ * 
+ * Globs ending in a single * are literal prefixes and go in a prefix tree.  The other globs 
+ * and the regular expressions are compiled together into one pattern so each function name
+ * is matched once no matter how many patterns there are.
+ */
+final class ExternMatcher
+{
+    private Set<String> m_names = new HashSet<String>();
+    private PrefixNode m_prefixes = new PrefixNode();
+    private List<String> m_regexes = new ArrayList<String>();
+    private Pattern m_pattern;
+    private Map<String, ExternMatcher> m_scopes = new HashMap<String, ExternMatcher>();
+    private boolean m_isEmpty = true;
+    
+    /**
+     * Determine if the specified extern is a pattern or scoped to a library instead of a 
+     * plain function name.  None of the pattern characters can be part of a name.
+     * 
+     * @param extern the extern
+     * 
+     * @return true if the extern is a pattern and false otherwise
+     */
+    static boolean isPattern(String extern)
+    {
+        return isRegex(extern) || extern.indexOf('*') > -1 || extern.indexOf('?') > -1 || 
+            extern.indexOf(':') > -1;
+    }
+    
+    /**
+     * Add a pattern to this matcher.
+     * 
+     * @param extern the pattern
+     * 
+     * @exception IllegalArgumentException if the pattern contains an invalid regular expression
+     */
+    void add(String extern)
+    {
+        m_isEmpty = false;
+        
+        int colon = extern.indexOf(':');
+        if (!isRegex(extern) && colon > 0) {
+            String file = extern.substring(0, colon);
+            ExternMatcher scope = m_scopes.get(file);
+            if (scope == null) {
+                scope = new ExternMatcher();
+                m_scopes.put(file, scope);
+            }
+            
+            scope.add(extern.substring(colon + 1).trim());
+        } else if (isRegex(extern)) {
+            addRegex(extern.substring(1, extern.length() - 1));
+        } else if (extern.endsWith("*") && !isPattern(extern.substring(0, extern.length() - 1))) {
+            m_prefixes.add(extern.substring(0, extern.length() - 1));
+        } else if (isPattern(extern)) {
+            addRegex(globToRegex(extern));
+        } else {
+            m_names.add(extern);
+        }
+    }
+    
+    /**
+     * Determine if the specified function name matches any pattern in this matcher.
+     * 
+     * @param name   the function name
+     * @param file   the name of the library the function is in or null if it isn't known
+     * 
+     * @return true if the name matches and false otherwise
+     */
+    boolean matches(String name, String file)
+    {
+        if (m_isEmpty || name == null) {
+            return false;
+        }
+        
+        if (m_names.contains(name) || m_prefixes.matches(name)) {
+            return true;
+        }
+        
+        if (!m_regexes.isEmpty()) {
+            if (m_pattern == null) {
+                m_pattern = Pattern.compile(join(m_regexes));
+            }
+            
+            if (m_pattern.matcher(name).find()) {
+                return true;
+            }
+        }
+        
+        ExternMatcher scope = file == null ? null : m_scopes.get(file);
+        return scope != null && scope.matches(name, null);
+    }
+    
+    /**
+     * Determine if this matcher has any patterns.
+     * 
+     * @return true if there are no patterns and false otherwise
+     */
+    boolean isEmpty()
+    {
+        return m_isEmpty;
+    }
+    
+    private void addRegex(String regex)
+    {
+        /*
+         We compile each expression on its own first so a bad expression 
+         fails with the expression that caused it
+         */
+        Pattern.compile(regex);
+        m_regexes.add(regex);
+        m_pattern = null;
+    }
+    
+    private static boolean isRegex(String extern)
+    {
+        return extern.length() > 2 && extern.startsWith("/") && extern.endsWith("/");
+    }
+    
+    private static String globToRegex(String glob)
+    {
+        StringBuffer sb = new StringBuffer("^");
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    sb.append(Pattern.quote(glob.substring(start, i)));
+                }
+                
+                sb.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        
+        if (start < glob.length()) {
+            sb.append(Pattern.quote(glob.substring(start)));
+        }
+        
+        return sb.append("$").toString();
+    }
+    
+    private static String join(List<String> regexes)
+    {
+        StringBuffer sb = new StringBuffer();
+        for (String regex : regexes) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            
+            sb.append("(?:").append(regex).append(')');
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * A node in the tree of literal prefixes.  Matching a name walks down the tree one 
+     * character at a time until it finds the end of a prefix or runs out of tree.
+     */
+    private static final class PrefixNode
+    {
+        private Map<Character, PrefixNode> m_children = new HashMap<Character, PrefixNode>();
+        private boolean m_isPrefix;
+        
+        private void add(String prefix)
+        {
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                PrefixNode child = node.m_children.get(prefix.charAt(i));
+                if (child == null) {
+                    child = new PrefixNode();
+                    node.m_children.put(prefix.charAt(i), child);
+                }
+                
+                node = child;
+            }
+            
+            node.m_isPrefix = true;
+        }
+        
+        private boolean matches(String name)
+        {
+            PrefixNode node = this;
+            for (int i = 0; node != null; i++) {
+                if (node.m_isPrefix) {
+                    return true;
+                } else if (i == name.length()) {
+                    return false;
+                }
+                
+                node = node.m_children.get(name.charAt(i));
+            }
+            
+            return false;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.rhino.Node;
+
+/**
+ * <p>
+ * The fragment cache keeps the compiled output of each top level statement so compiling 
+ * the same code again only compiles the statements which changed.  WHITESPACE_ONLY and 
+ * SIMPLE_OPTIMIZATIONS don't change code across top level statements so we can compile
+ * each statement on its own and put the results together.  Other compilation levels 
+ * always compile the whole file.
+ * </p>
+ * 
+ * <p>
+ * Most libraries wrap all of their code in one function so each library is usually a 
+ * single statement.  When the prune only changes one library the others come from the
+ * cache.  The result means the same as compiling the whole file, but the lines can break
+ * in different places.
+ * </p>
+ * 
+ * <p>
+ * Fragments are kept in memory and they can also be stored in a directory so they are 
+ * reused between runs.
+ * </p>
+ */
+public class FragmentCache
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    private static final int MAX_FRAGMENTS = 256;
+    private static final String EXTENSION = ".fragment";
+    private static final String CHARSET = "UTF-8";
+    
+    private File m_dir;
+    private Map<String, String> m_fragments = new LinkedHashMap<String, String>(MAX_FRAGMENTS, 0.75f, true);
+    private int m_hits;
+    private int m_misses;
+    
+    /**
+     * Create a new FragmentCache which only keeps fragments in memory.
+     */
+    public FragmentCache()
+    {
+        this(null);
+    }
+    
+    /**
+     * Create a new FragmentCache which stores fragments in the specified directory.
+     * 
+     * @param dir    the directory to store fragments in or null to only keep fragments in memory
+     */
+    public FragmentCache(File dir)
+    {
+        m_dir = dir;
+    }
+    
+    /**
+     * Compile the specified code with the fragments in this cache.  This gives the same 
+     * result as JSlim.plainCompile except for where the lines break.
+     * 
+     * @param name       the name of the file to compile
+     * @param code       the code to compile
+     * @param level      the compilation level
+     * @param formatting the formatting options or null for none
+     * 
+     * @return the compiled code
+     */
+    public String compile(String name, String code, CompilationLevel level, JSlim.FormattingOption formatting)
+    {
+        String result = compileFragments(name, code, level, formatting);
+        if (result == null) {
+            /*
+             The plain compile reports the errors
+             */
+            return JSlim.plainCompile(name, code, level, formatting);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Compile the specified code with the fragments in this cache if the compilation level
+     * supports fragments and the code compiles without errors.  Fragments with errors are
+     * never kept.
+     * 
+     * @param name       the name of the file to compile
+     * @param code       the code to compile
+     * @param level      the compilation level
+     * @param formatting the formatting options or null for none
+     * 
+     * @return the compiled code or null if it must be compiled as a whole
+     */
+    String compileFragments(String name, String code, CompilationLevel level, JSlim.FormattingOption formatting)
+    {
+        if (level != CompilationLevel.WHITESPACE_ONLY && level != CompilationLevel.SIMPLE_OPTIMIZATIONS) {
+            return null;
+        }
+        
+        List<String> statements = split(name, code);
+        if (statements == null) {
+            return null;
+        }
+        
+        StringBuffer sb = new StringBuffer();
+        for (String statement : statements) {
+            String key = getKey(statement, level, formatting);
+            String fragment = getFragment(key);
+            if (fragment == null) {
+                Compiler compiler = CompileVariant.runCompiler(name, statement, level, formatting, false);
+                if (compiler.getErrorCount() > 0) {
+                    return null;
+                }
+                
+                fragment = compiler.toSource();
+                putFragment(key, fragment);
+            }
+            
+            sb.append(fragment);
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Split the specified code into its top level statements.
+     * 
+     * @param name   the name of the file
+     * @param code   the code to split
+     * 
+     * @return the source of each statement or null if the code has parse errors
+     */
+    private static List<String> split(String name, String code)
+    {
+        Compiler compiler = new Compiler();
+        compiler.init(new JSSourceFile[] {JSSourceFile.fromCode("externs.js", "")}, 
+                      new JSSourceFile[] {JSSourceFile.fromCode(name, code)}, new CompilerOptions());
+        compiler.parse();
+        
+        if (compiler.getErrorCount() > 0) {
+            return null;
+        }
+        
+        List<String> statements = new ArrayList<String>();
+        for (Node statement : compiler.getRoot().getLastChild().getFirstChild().children()) {
+            Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
+            compiler.toSource(cb, 0, statement);
+            statements.add(cb.toString());
+        }
+        
+        return statements;
+    }
+    
+    /**
+     * Get a fragment from memory or the cache directory.
+     * 
+     * @param key    the key of the fragment
+     * 
+     * @return the fragment or null if it isn't in the cache
+     */
+    private synchronized String getFragment(String key)
+    {
+        String fragment = m_fragments.get(key);
+        if (fragment == null && m_dir != null) {
+            fragment = readFragment(new File(m_dir, key + EXTENSION));
+            if (fragment != null) {
+                m_fragments.put(key, fragment);
+                trim();
+            }
+        }
+        
+        if (fragment == null) {
+            m_misses++;
+        } else {
+            m_hits++;
+        }
+        
+        return fragment;
+    }
+    
+    /**
+     * Add a fragment to memory and the cache directory.
+     * 
+     * @param key      the key of the fragment
+     * @param fragment the compiled fragment
+     */
+    private synchronized void putFragment(String key, String fragment)
+    {
+        m_fragments.put(key, fragment);
+        trim();
+        
+        if (m_dir != null) {
+            writeFragment(fragment, new File(m_dir, key + EXTENSION));
+        }
+    }
+    
+    /**
+     * Drop the fragments we used least recently until the cache fits in memory.
+     */
+    private void trim()
+    {
+        while (m_fragments.size() > MAX_FRAGMENTS) {
+            m_fragments.remove(m_fragments.keySet().iterator().next());
+        }
+    }
+    
+    /**
+     * Read a fragment from the cache directory.
+     * 
+     * @param file   the fragment file
+     * 
+     * @return the fragment or null if the file doesn't exist or can't be read
+     */
+    private static String readFragment(File file)
+    {
+        if (!file.exists()) {
+            return null;
+        }
+        
+        try {
+            return FileUtils.readFileToString(file, CHARSET);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the fragment " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Write a fragment to the cache directory.  The fragment is written to a temporary 
+     * file and then renamed so other processes sharing the directory never read part of 
+     * a fragment.
+     * 
+     * @param fragment the fragment to write
+     * @param file     the fragment file
+     */
+    private static void writeFragment(String fragment, File file)
+    {
+        try {
+            file.getParentFile().mkdirs();
+            File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            FileUtils.writeStringToFile(temp, fragment, CHARSET);
+            
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write the fragment " + file + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Get the key of a statement compiled with the specified options.
+     * 
+     * @param statement  the source of the statement
+     * @param level      the compilation level
+     * @param formatting the formatting options or null for none
+     * 
+     * @return the key
+     */
+    private static String getKey(String statement, CompilationLevel level, JSlim.FormattingOption formatting)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((level + "\u0000" + formatting + "\u0000").getBytes(CHARSET));
+            digest.update(statement.getBytes(CHARSET));
+            
+            StringBuffer sb = new StringBuffer();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Get the number of fragments which were found in memory or the cache directory.
+     * 
+     * @return the number of cache hits
+     */
+    public synchronized int getHitCount()
+    {
+        return m_hits;
+    }
+    
+    /**
+     * Get the number of fragments which had to be compiled.
+     * 
+     * @return the number of cache misses
+     */
+    public synchronized int getMissCount()
+    {
+        return m_misses;
+    }
+    
+    @Override
+    public synchronized String toString()
+    {
+        return "FragmentCache: " + m_fragments.size() + " fragments, " + m_hits + " hits, " + m_misses + " misses";
+    }
+}
@@ -0,0 +1,340 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * Function names are the names an interesting function can be called by.  A function can 
+ * be declared, defined in an object literal, assigned to a property or a variable, or 
+ * assigned through a chain like var getText = Sizzle.getText = function() and it can be
+ * called by every name in that chain.
+ */
+final class FunctionNames
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    private FunctionNames()
+    {
+    }
+    
+    /**
+     * Get a list of the names of all of the functions under this specific node.  This method
+     * does not recurse into all children, but is used for unravelling function changes.
+     * 
+     * @param n      the node to look under
+     * 
+     * @return the list of function names in this chaing
+     */
+    static List<String> getNames(Node n)
+    {
+        /*
+         EXPR_RESULT 561 [source_file: input.js]
+            ASSIGN 561 [source_file: input.js]
+                GETPROP 561 [source_file: input.js]
+                    NAME _ 561 [source_file: input.js]
+                    STRING functions 561 [source_file: input.js]
+                ASSIGN 561 [source_file: input.js]
+                    GETPROP 561 [source_file: input.js]
+                        NAME _ 561 [source_file: input.js]
+                        STRING methods 561 [source_file: input.js]
+                    FUNCTION  561 [source_file: input.js]
+         */
+        ArrayList<String> names = new ArrayList<String>();
+        if (n.getType() == Token.FUNCTION) {
+            names.add(getName(n));
+        }
+        
+        if (n.getType() == Token.ASSIGN) {
+            if (n.getFirstChild().getType() == Token.GETELEM) {
+                List<String> c = StringIndex.getStringIndexes(n.getFirstChild());
+                if (c != null) {
+                    names.addAll(c);
+                }
+            } else if (n.getFirstChild().getType() == Token.NAME) {
+                names.add(n.getFirstChild().getString());
+            } else if (n.getFirstChild().getLastChild() != null) {
+                names.add(n.getFirstChild().getLastChild().getString());
+            }
+        }
+        
+        if (n.getParent().getType() == Token.ASSIGN) {
+            names.addAll(getNames(n.getParent()));
+        } else if (n.getType() == Token.ASSIGN && isVarName(n.getParent())) {
+            /*
+             This is the top of a chain declared as a variable like:
+                var getText = Sizzle.getText = function()
+             */
+            names.add(n.getParent().getString());
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Get the name of the function at the specified node if this node represents an
+     * interesting function.
+     * 
+     * @param n      the node to look under
+     * 
+     * @return the name of this function
+     */
+    static String getName(Node n)
+    {
+        try {
+            if (n.getParent().getType() == Token.ASSIGN) {
+                if (n.getParent().getFirstChild().getType() == Token.NAME) {
+                    /*
+                     This is a variable assignment of a function to a
+                     variable like:
+                        myVar = function()
+                     */
+                    return n.getParent().getFirstChild().getString();
+                } else if (n.getParent().getFirstChild().getChildCount() == 0) {
+                    return null;
+                } else if (n.getParent().getFirstChild().getType() == Token.GETELEM) {
+                    /*
+                     This is a property assignment function with an array
+                     index like this: 
+                        jQuery.fn[ "inner" + name ] = function()
+                     
+                     We can only remove these functions when we can
+                     figure out the index without running the code.  If
+                     the index has more than one value this is the first
+                     one and getNames returns all of them.
+                     */
+                    return StringIndex.getConcatenatedStringIndex(n.getParent().getFirstChild());
+                } else {
+                    /*
+                     This is a property assignment function like:
+                        myObj.func1 = function()
+                     */
+                    return n.getParent().getFirstChild().getLastChild().getString();
+                }
+            }
+            
+            if (n.getParent().getType() == Token.STRING) {
+                /*
+                 This is a closure style function like this:
+                     myFunc: function()
+                 */
+                return n.getParent().getString();
+            } else if (isVarName(n.getParent())) {
+                /*
+                 This is a function declared as a variable like this:
+                     var myFunc = function()
+                 */
+                return n.getParent().getString();
+            } else {
+                if (n.getFirstChild().getType() == Token.GETPROP) {
+                    /*
+                     This is a chain function assignment
+                     */
+                    return n.getFirstChild().getFirstChild().getNext().getString();
+                } else {
+                    /*
+                     This is a standard type of function like this:
+                        function myFunc()
+                     */
+                    return n.getFirstChild().getString();
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "npe: " + n.toStringTree());
+            e.printStackTrace();
+            throw new RuntimeException("stop here...");
+        }
+    }
+    
+    /**
+     * Determine if the specified node is the name in a variable declaration.
+     * 
+     * @param n      the node to check
+     * 
+     * @return true if this is a declared variable name and false otherwise
+     */
+    static boolean isVarName(Node n)
+    {
+        return n != null && n.getType() == Token.NAME && 
+            n.getParent() != null && n.getParent().getType() == Token.VAR;
+    }
+    
+    /**
+     * Find the names of all the variables which functions are assigned to under the 
+     * specified node, like f in var f = function() or f = function().  These functions 
+     * are often passed around by name instead of called so reading the variable counts
+     * as a call.
+     * 
+     * @param node   the node to look under
+     * @param names  the set to add the names to
+     */
+    static void findBoundNames(Node node, Set<String> names)
+    {
+        for (Node n : node.children()) {
+            if (n.getType() == Token.FUNCTION) {
+                Node parent = n.getParent();
+                while (parent.getType() == Token.ASSIGN) {
+                    if (parent.getFirstChild().getType() == Token.NAME) {
+                        names.add(parent.getFirstChild().getString());
+                    }
+                    parent = parent.getParent();
+                }
+                
+                if (isVarName(parent)) {
+                    names.add(parent.getString());
+                }
+            }
+            
+            findBoundNames(n, names);
+        }
+    }
+    
+    /**
+     * Determine if the specified name node reads the value of the variable.  Calls and 
+     * assignments are tracked separately so they don't count, and neither do declarations.
+     * 
+     * @param n      the name node
+     * 
+     * @return true if the variable is read and false otherwise
+     */
+    static boolean isRead(Node n)
+    {
+        int type = n.getParent().getType();
+        if (type == Token.CALL || type == Token.NEW) {
+            return n.getParent().getFirstChild() != n;
+        }
+        
+        return type != Token.ASSIGN && type != Token.VAR && type != Token.FUNCTION &&
+               type != Token.PARAM_LIST && type != Token.CATCH;
+    }
+    
+    /**
+     * Determine if the specified node is one of the assignment operators.
+     * 
+     * @param n      the node to check
+     * 
+     * @return true if this node is an assignment and false otherwise
+     */
+    static boolean isAssign(Node n)
+    {
+        return n.getType() == Token.ASSIGN ||
+               n.getType() == Token.ASSIGN_BITOR  ||
+               n.getType() == Token.ASSIGN_BITXOR ||
+               n.getType() == Token.ASSIGN_BITAND ||
+               n.getType() == Token.ASSIGN_LSH ||
+               n.getType() == Token.ASSIGN_RSH ||
+               n.getType() == Token.ASSIGN_URSH ||
+               n.getType() == Token.ASSIGN_ADD ||
+               n.getType() == Token.ASSIGN_SUB ||
+               n.getType() == Token.ASSIGN_MUL ||
+               n.getType() == Token.ASSIGN_DIV ||
+               n.getType() == Token.ASSIGN_MOD;
+    }
+    
+    /**
+     * Find the closest interesting function which is the specified node or one of its
+     * parents.
+     * 
+     * @param n      the node to start from
+     * 
+     * @return the interesting function or null if there isn't one
+     */
+    static Node findInterestingFunctionParent(Node n)
+    {
+        if (n == null) {
+            return null;
+        } else if (isInterestingFunction(n)) {
+            return n;
+        } else {
+            return findInterestingFunctionParent(n.getParent());
+        }
+    }
+    
+    /**
+     * This method determines if the specified function is interesting.  In our case interesting
+     * means it is a potentatial candidate for removal.  There are many reasons the function
+     * might not be a good cadidate.  For example, anonymous functions are never removed since
+     * they are almost always used and there is no way to track if they are used or not.
+     * 
+     * @param n      the function to check
+     * 
+     * @return true if the function is interesting and false otherwise
+     */
+    static boolean isInterestingFunction(Node n)
+    {
+        if (n.getType() != Token.FUNCTION) {
+            /*
+             If this node isn't a function then it definitely isn't an
+             interesting function
+             */
+            return false;
+        }
+        
+        if (n.getParent().getType() == Token.ASSIGN &&
+            n.getParent().getParent().getType() == Token.RETURN) {
+            /*
+             Then this is a function getting returned from another
+             function and that makes it really difficult to determine
+             if the function is being called because it is never
+             called directly by name
+             */
+            return false;
+        }
+        
+        /*
+         We need to check to make sure this is a named
+         function.  If it is an anonymous function then
+         it can't be called directly outside of scope and
+         it is probably being called locally so we can't remove it.
+         */
+        if (n.getParent().getType() == Token.STRING ||
+            FunctionNames.isVarName(n.getParent()) ||
+            (n.getFirstChild().getType() == Token.NAME &&
+             n.getFirstChild().getString() != null &&
+             n.getFirstChild().getString().length() > 0) ||
+            n.getParent().getType() == Token.ASSIGN) {
+            
+            /*
+             If the function doesn't have a name we can identify then it is anonymous and
+             we can't tell if anyone is calling it.
+             */
+            if (FunctionNames.getName(n) != null) {
+                /*
+                 If this function has a direct parent which is another function instead of
+                 a block or a property then it is probably being created to get returned from
+                 the functions and therefore only has a name in he scope of that function.
+                 It might be possible to change the mapping to the parent function, but we
+                 can't understand that right now and there might me multiple functions within
+                 this one specific function.
+                 */
+                if (!(n.getParent().getType() == Token.BLOCK && n.getParent().getParent().getType() == Token.FUNCTION)) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+}
@@ -0,0 +1,208 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * The function remover takes interesting functions out of a library tree.  Each way of 
+ * defining a function needs a different part of the tree removed and functions defined
+ * in a variable declaration can share that declaration with other variables.
+ */
+final class FunctionRemover
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    private FunctionRemover()
+    {
+    }
+    
+    /**
+     * Remove the function at the specified node.
+     * 
+     * @param n         the node to remove
+     * @param lazyStubs the lazy stubs to replace the function with or null to remove it
+     * @param compiler  the compiler holding the library tree
+     */
+    static void remove(Node n, LazyStubs lazyStubs, Compiler compiler)
+    {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "removeFunction({0})", FunctionNames.getName(n));
+        }
+        
+        if (n.getParent() == null || n.getParent().getParent() == null) {
+            /*
+             This means the function has already been removed
+             */
+            return;
+        }
+        
+        if (lazyStubs != null) {
+            /*
+             With lazy stubs we replace the body of the function instead
+             of removing it.  The assignments around the function stay so
+             the stub is defined in the same place as the function.
+             */
+            if (n.getType() == Token.FUNCTION) {
+                Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
+                compiler.toSource(cb, 0, n);
+                lazyStubs.stub(n, FunctionNames.getName(n), cb.toString());
+            }
+            return;
+        }
+        
+        if (n.getType() == Token.ASSIGN) {
+            /*
+             This is one link of an assignment chain like:
+                myObj.func1 = myObj.func2 = function()
+             The function at the end of the chain can still be called by 
+             the other names so we only remove this name.  The whole 
+             statement goes when the function itself is removed.
+             */
+            n.getParent().replaceChild(n, n.getLastChild().detachFromParent());
+            return;
+        }
+        
+        if (n.getParent().getType() == Token.STRING) {
+            /*
+             This is a closure style function like this:
+                 myFunc: function()
+             */
+            //System.out.println("Removing function: " + n.getParent().getString());
+            n.getParent().detachFromParent();
+        } else if (n.getParent().getType() == Token.ASSIGN || n.getParent().getType() == Token.EXPR_RESULT) {
+            /*
+             This is a property assignment function like:
+                myObj.func1 = function()
+             */
+            Node expr = findExprOrVar(n);
+            if (expr != null && expr.getType() == Token.EXPR_RESULT && expr.getParent() != null) {
+                LOGGER.log(Level.FINE, "expr: {0}", expr);
+                expr.detachFromParent();
+            } else if (expr != null && expr.getType() == Token.VAR) {
+                /*
+                 This is a property assignment function declared as a
+                 variable like:
+                    var getText = Sizzle.getText = function()
+                 */
+                removeDeclaration(n);
+            }
+        } else if (FunctionNames.isVarName(n.getParent())) {
+            /*
+             This is a function declared as a variable like:
+                var myFunc = function()
+             */
+            removeDeclaration(n);
+        } else {
+            /*
+             This is a standard type of function like this:
+                function myFunc()
+             */
+            //println("n.toStringTree(): " + n.toStringTree());
+            //println("Removing function: " + n.getFirstChild().getString());
+            n.detachFromParent();
+        }
+    }
+    
+    /**
+     * Remove the variable declaration which the specified function or assignment chain is
+     * assigned to.  The whole var statement goes if this is the only variable in it.  We 
+     * leave the declaration alone if the function is just part of a larger value.
+     * 
+     * @param n      the function or assignment node
+     */
+    private static void removeDeclaration(Node n)
+    {
+        Node name = n.getParent();
+        while (name.getType() == Token.ASSIGN) {
+            name = name.getParent();
+        }
+        
+        if (!FunctionNames.isVarName(name)) {
+            return;
+        }
+        
+        Node var = name.getParent();
+        if (!var.hasOneChild()) {
+            name.detachFromParent();
+        } else if (var.getParent().getType() != Token.FOR) {
+            var.detachFromParent();
+        }
+    }
+    
+    /**
+     * Find the closest expression result or variable declaration token parent of the 
+     * specified node.
+     * 
+     * @param n      the child node to look for
+     * 
+     * @return the closest variable or expression result parent or null if there isn't one
+     */
+    private static Node findExprOrVar(Node n)
+    {
+        if (n == null) {
+            return null;
+        } else if (n.getType() == Token.EXPR_RESULT ||
+                   n.getType() == Token.VAR) {
+            return n;
+        } else {
+            return findExprOrVar(n.getParent());
+        }
+    }
+    
+    /**
+     * Find the top level statement which defines the specified function.  Only functions
+     * defined by a statement directly in the script can be moved to a separate file.
+     * Functions in a closure or an object literal depend on the code around them.
+     * 
+     * @param func   the function to look for
+     * 
+     * @return the statement defining this function or null if it can't be moved
+     */
+    static Node findSplittableStatement(Node func)
+    {
+        Node statement = func.getParent();
+        if (func.getType() == Token.FUNCTION && statement.getType() == Token.SCRIPT) {
+            /*
+             This is a standard type of function like this:
+                function myFunc()
+             */
+            return func;
+        }
+        
+        /*
+         This is a property assignment function like:
+            myObj.func1 = myObj.func2 = function()
+         */
+        while (statement != null && statement.getType() == Token.ASSIGN) {
+            statement = statement.getParent();
+        }
+        
+        if (statement != null && statement.getType() == Token.EXPR_RESULT &&
+            statement.getParent() != null && statement.getParent().getType() == Token.SCRIPT) {
+            return statement;
+        }
+        
+        return null;
+    }
+}
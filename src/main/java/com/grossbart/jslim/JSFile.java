@@ -17,14 +17,22 @@
  ******************************************************************************/
 package com.grossbart.jslim;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
 /**
  * This class represents a single source file for the compiler, either main source or 
- * library source.
+ * library source.  A file can hold its content or read it from disk each time it is needed
+ * so large libraries don't stay in memory between parses.
  */
 public class JSFile
 {
     private String m_name;
     private String m_content;
+    private File m_file;
+    private String m_charset;
     
     private boolean m_isLib;
     
@@ -43,6 +51,22 @@ public class JSFile
         m_isLib = isLib;
     }
     
+    /**
+     * Create a new JSFile which reads its content from disk each time it is needed.
+     * 
+     * @param name    the name of the file
+     * @param file    the file to read the content from
+     * @param charset the charset of the file
+     * @param isLib   true if this file is a library file and false otherwise
+     */
+    public JSFile(String name, File file, String charset, boolean isLib)
+    {
+        m_name = name;
+        m_file = file;
+        m_charset = charset;
+        m_isLib = isLib;
+    }
+    
     /**
      * Get the name of the file.
      * 
@@ -60,7 +84,30 @@ public class JSFile
      */
     public String getContent()
     {
-        return m_content;
+        if (m_file == null) {
+            return m_content;
+        }
+        
+        try {
+            return FileUtils.readFileToString(m_file, m_charset);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read " + m_file, e);
+        }
+    }
+    
+    /**
+     * Get the length of the content of the file without reading it.  For a file read from
+     * disk this is the number of bytes in the file.
+     * 
+     * @return the content length
+     */
+    public long getLength()
+    {
+        if (m_file == null) {
+            return m_content.length();
+        }
+        
+        return m_file.length();
     }
     
     /**
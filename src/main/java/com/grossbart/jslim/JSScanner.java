@@ -0,0 +1,372 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The scanner finds the names a JavaScript file refers to without parsing it.  It splits
+ * the source into tokens and keeps every identifier, every property name, and every string
+ * used as an index like obj["name"].  Comments, numbers, and regular expressions are
+ * skipped.  It can also find just the names of the functions a file defines.
+ * 
+ * The scanner doesn't know which names are calls so it finds more names than a full parse.
+ * That means a prune from scanned names can keep extra functions, but it never misses a 
+ * function the file calls by name.  Telling a regular expression from a division is only
+ * a guess based on the token before it.
+ */
+final class JSScanner
+{
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+        "break", "case", "catch", "continue", "debugger", "default", "delete", "do", "else",
+        "finally", "for", "function", "if", "in", "instanceof", "new", "return", "switch",
+        "throw", "try", "typeof", "var", "void", "while", "with", "this", "null", "true", "false"));
+    
+    /*
+     These keywords are values so a slash after them is a division
+     */
+    private static final Set<String> VALUES = new HashSet<String>(Arrays.asList(
+        "this", "null", "true", "false"));
+    
+    private JSScanner()
+    {
+    }
+    
+    /**
+     * Find the names the specified source refers to.  Names which are used more than once
+     * are in the list once for each use.
+     * 
+     * @param source the JavaScript source
+     * 
+     * @return the names in the order they appear in the source
+     */
+    static List<String> scan(String source)
+    {
+        return scan(source, false);
+    }
+    
+    /**
+     * Add the names the specified source refers to as calls.  Each use of a name counts
+     * as a call to it.
+     * 
+     * @param source the JavaScript source
+     * @param calls  the list of calls to add the calls to
+     */
+    static void addCalls(String source, CallList calls)
+    {
+        for (String name : scan(source)) {
+            calls.add(name, null);
+        }
+    }
+    
+    /**
+     * Determine if the specified source defines a function with any of the specified names.
+     * 
+     * @param source the JavaScript source
+     * @param names  the names to look for
+     * 
+     * @return true if the source defines one of the functions and false otherwise
+     */
+    static boolean definesAny(String source, Set<String> names)
+    {
+        for (String name : scanDefinitions(source)) {
+            if (names.contains(name)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Find the names of the functions the specified source defines.  These are declared 
+     * functions and functions assigned to a name or a property or defined in an object
+     * literal.
+     * 
+     * @param source the JavaScript source
+     * 
+     * @return the names in the order they appear in the source
+     */
+    static List<String> scanDefinitions(String source)
+    {
+        return scan(source, true);
+    }
+    
+    /**
+     * Find the names the specified source refers to or defines.
+     * 
+     * @param source      the JavaScript source
+     * @param definitions true to find just the function names and false to find every name
+     * 
+     * @return the names in the order they appear in the source
+     */
+    private static List<String> scan(String source, boolean definitions)
+    {
+        List<String> names = new ArrayList<String>();
+        int length = source.length();
+        boolean regexAllowed = true;
+        boolean afterBracket = false;
+        boolean afterFunction = false;
+        int i = 0;
+        
+        while (i < length) {
+            char c = source.charAt(i);
+            char next = i + 1 < length ? source.charAt(i + 1) : 0;
+            
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else if (c == '/' && next == '/') {
+                i = skipLine(source, i);
+                continue;
+            } else if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+                continue;
+            }
+            
+            boolean isIndex = afterBracket;
+            boolean isFunctionName = afterFunction;
+            afterBracket = false;
+            afterFunction = false;
+            
+            if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+                    i++;
+                }
+                
+                String word = source.substring(start, i);
+                if (KEYWORDS.contains(word)) {
+                    regexAllowed = !VALUES.contains(word);
+                    afterFunction = word.equals("function");
+                } else {
+                    if (!definitions || isFunctionName || isDefinition(source, i)) {
+                        names.add(word);
+                    }
+                    regexAllowed = false;
+                }
+            } else if (Character.isDigit(c) || (c == '.' && Character.isDigit(next))) {
+                i = skipNumber(source, i);
+                regexAllowed = false;
+            } else if (c == '"' || c == '\'') {
+                int end = skipString(source, i);
+                String value = source.substring(i + 1, Math.max(i + 1, end - 1));
+                if ((definitions ? isDefinition(source, end) : isIndex) && isName(value)) {
+                    names.add(value);
+                }
+                
+                i = end;
+                regexAllowed = false;
+            } else if (c == '/' && regexAllowed) {
+                i = skipRegex(source, i);
+                regexAllowed = false;
+            } else if ((c == '+' || c == '-') && next == c) {
+                /*
+                 An increment or decrement like i++ ends a value so a
+                 slash after it is a division
+                 */
+                i += 2;
+                regexAllowed = false;
+            } else {
+                afterBracket = c == '[';
+                regexAllowed = c != ')' && c != ']';
+                i++;
+            }
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Determine if the name which ends at the specified index is the name of a function.
+     * 
+     * @param source the JavaScript source
+     * @param end    the index after the name
+     * 
+     * @return true if the name comes before an assignment or a colon and a function and
+     *         false otherwise
+     */
+    private static boolean isDefinition(String source, int end)
+    {
+        int i = skipWhitespace(source, end);
+        if (i >= source.length() || (source.charAt(i) != ':' && source.charAt(i) != '=') ||
+            source.startsWith("==", i)) {
+            return false;
+        }
+        
+        i = skipWhitespace(source, i + 1);
+        return source.startsWith("function", i) &&
+               (i + 8 == source.length() || !Character.isJavaIdentifierPart(source.charAt(i + 8)));
+    }
+    
+    /**
+     * Skip the whitespace starting at the specified index.
+     * 
+     * @param source the JavaScript source
+     * @param start  the index to start from
+     * 
+     * @return the index of the next character which isn't whitespace
+     */
+    private static int skipWhitespace(String source, int start)
+    {
+        int i = start;
+        while (i < source.length() && Character.isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        
+        return i;
+    }
+    
+    /**
+     * Skip to the end of the line.
+     * 
+     * @param source the JavaScript source
+     * @param start  the index to start from
+     * 
+     * @return the index of the end of the line
+     */
+    private static int skipLine(String source, int start)
+    {
+        int i = start;
+        while (i < source.length() && source.charAt(i) != '\n' && source.charAt(i) != '\r') {
+            i++;
+        }
+        
+        return i;
+    }
+    
+    /**
+     * Skip a number literal including hex numbers and exponents.
+     * 
+     * @param source the JavaScript source
+     * @param start  the index of the first character of the number
+     * 
+     * @return the index after the number
+     */
+    private static int skipNumber(String source, int start)
+    {
+        boolean hex = source.startsWith("0x", start) || source.startsWith("0X", start);
+        int i = start;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            boolean exponent = !hex && i > start && (c == '+' || c == '-') &&
+                               Character.toLowerCase(source.charAt(i - 1)) == 'e';
+            if (Character.isLetterOrDigit(c) || c == '.' || exponent) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        
+        return i;
+    }
+    
+    /**
+     * Skip a string literal.  A string which isn't closed ends at the end of the line.
+     * 
+     * @param source the JavaScript source
+     * @param start  the index of the opening quote
+     * 
+     * @return the index after the closing quote
+     */
+    private static int skipString(String source, int start)
+    {
+        char quote = source.charAt(start);
+        int i = start + 1;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\n' || c == '\r') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        
+        return source.length();
+    }
+    
+    /**
+     * Skip a regular expression literal and its flags.  A slash in a character class
+     * doesn't end the regular expression.
+     * 
+     * @param source the JavaScript source
+     * @param start  the index of the opening slash
+     * 
+     * @return the index after the regular expression
+     */
+    private static int skipRegex(String source, int start)
+    {
+        boolean inClass = false;
+        int i = start + 1;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '\n' || c == '\r') {
+                return i;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                i++;
+                break;
+            }
+            
+            i++;
+        }
+        
+        while (i < source.length() && Character.isJavaIdentifierPart(source.charAt(i))) {
+            i++;
+        }
+        
+        return Math.min(i, source.length());
+    }
+    
+    /**
+     * Determine if the specified string is a valid name.
+     * 
+     * @param value  the string to check
+     * 
+     * @return true if the string is a name and false otherwise
+     */
+    private static boolean isName(String value)
+    {
+        if (value.length() == 0 || !Character.isJavaIdentifierStart(value.charAt(0))) {
+            return false;
+        }
+        
+        for (int i = 1; i < value.length(); i++) {
+            if (!Character.isJavaIdentifierPart(value.charAt(i))) {
+                return false;
+            }
+        }
+        
+        return !KEYWORDS.contains(value);
+    }
+}
@@ -21,12 +21,23 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.logging.ConsoleHandler;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -63,7 +74,7 @@ public class JSlim
          */
         PRINT_INPUT_DELIMITER;
         
-        private void applyToOptions(CompilerOptions options)
+        void applyToOptions(CompilerOptions options)
         {
             switch (this) {
             case PRETTY_PRINT:
@@ -82,8 +93,12 @@ public class JSlim
     private static final Logger LOGGER = Logger.getLogger(JSlim.class.getName());
     
     static {
-        LOGGER.setUseParentHandlers(false);
-        LOGGER.addHandler(new SlimConsoleHandler());
+        /*
+         The compiler logs through our handler too.  It is set up once for
+         the whole process since adding it for each compile would log every
+         message once per compile.
+         */
+        AsyncLogHandler.install(LOGGER, Logger.getLogger("com.google.javascript.jscomp"));
     }
     
     /**
@@ -106,9 +121,8 @@ public class JSlim
         return LOGGER;
     }
     
-    private List<Node> m_vars = new ArrayList<Node>();
-    private List<Call> m_calls = new ArrayList<Call>();
-    private List<Call> m_examinedCalls = new ArrayList<Call>();
+    private CallList m_calls = new CallList();
+    private CallList m_examinedCalls = new CallList();
     
     private List<Node> m_funcs = new ArrayList<Node>();
     private List<Node> m_libFuncs = new ArrayList<Node>();
@@ -116,12 +130,31 @@ public class JSlim
     private List<Node> m_keepers = new ArrayList<Node>();
     
     private List<JSFile> m_files = new ArrayList<JSFile>();
+    private Map<String, List<JSFile>> m_entries = new LinkedHashMap<String, List<JSFile>>();
     
     private ErrorManager m_errMgr;
     private int m_funcCount;
     
+    private Compiler m_libCompiler;
+    private LazyStubs m_lazyStubs;
+    private Receivers m_receivers;
+    private VarPruner m_varPruner;
+    private ClosureCache m_closureCache;
+    private String m_closureKey;
+    private List<Node> m_closureFuncs;
+    private CallGraph m_funcIndex;
+    private ClosureTable m_closureTable;
+    private StreamingPrune m_streamingPrune;
+    private long m_heapCeiling;
+    private ExternMatcher m_externMatcher = new ExternMatcher();
+    private Set<String> m_boundNames = new HashSet<String>();
+    private List<Call> m_mainCalls = new ArrayList<Call>();
+    
     private String m_charset = "UTF-8";
     private boolean m_printTree = false;
+    private boolean m_useProfile = false;
+    private boolean m_fastScan = false;
+    private boolean m_lazyWalk = false;
     private FormattingOption m_formattingOptions;
     
     /**
@@ -167,17 +200,407 @@ public class JSlim
      */
     public String prune(CompilationLevel compLevel)
     {
-        StringBuffer sb = new StringBuffer();
+        String result = null;
+        m_streamingPrune = null;
+        
+        if (shouldStream()) {
+            slimMainFiles(compLevel);
+            m_streamingPrune = new StreamingPrune(this, compLevel);
+            result = m_streamingPrune.prune(getLibFiles(), m_calls.getCalls());
+            m_funcCount = m_streamingPrune.getTotalFunctionCount();
+        } else {
+            Compiler compiler = pruneFiles(compLevel);
+            if (compiler != null) {
+                result = compiler.toSource();
+            }
+        }
+        
+        if (result == null) {
+            return "";
+        }
+        
+        if (m_lazyStubs != null) {
+            return m_lazyStubs.getHeader() + result;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Determine if the library files should be pruned one at a time because they are too
+     * big for the heap ceiling.
+     * 
+     * @return true if the prune should stream the library files and false otherwise
+     */
+    private boolean shouldStream()
+    {
+        if (m_heapCeiling <= 0 || StreamingPrune.estimateHeap(getLibFiles()) <= m_heapCeiling) {
+            return false;
+        }
+        
+        if (m_receivers != null || m_varPruner != null) {
+            LOGGER.log(Level.WARNING, "The library files are over the heap ceiling, but receiver aware " +
+                       "matching and variable pruning need all the library files in memory.");
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Prune all of the files which have been added to this compiler instance and return
+     * each library file separately.  The library files are still pruned together so a
+     * function called from one library keeps the function it calls in another.
+     *  
+     * @param compLevel the compilation level 
+     * 
+     * @return the pruned library files in the order they were added keyed by file name
+     */
+    public Map<String, String> pruneLibraries(CompilationLevel compLevel)
+    {
+        Map<String, String> libs = new LinkedHashMap<String, String>();
+        Compiler compiler = pruneFiles(compLevel);
+        
+        if (compiler == null) {
+            return libs;
+        }
+        
+        int index = 0;
+        for (Node script : compiler.getRoot().getLastChild().children()) {
+            Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
+            compiler.toSource(cb, index++, script);
+            libs.put(script.getSourceFileName(), cb.toString());
+        }
+        
+        return libs;
+    }
+    
+    /**
+     * Prune all of the files which have been added to this compiler instance. 
+     *  
+     * @param compLevel the compilation level 
+     * 
+     * @return the compiler holding the pruned library tree or null if there were parse errors
+     */
+    private Compiler pruneFiles(CompilationLevel compLevel)
+    {
+        slimMainFiles(compLevel);
+        return slim(getLibFiles(), true, compLevel);
+    }
+    
+    /**
+     * Slim the main files to find the calls they make into the library files.
+     *  
+     * @param compLevel the compilation level 
+     */
+    private void slimMainFiles(CompilationLevel compLevel)
+    {
+        /*
+         Printing the tree and following receivers or variables need
+         the parsed main files
+         */
+        boolean scan = m_fastScan && !m_printTree && m_receivers == null && m_varPruner == null;
         
+        for (JSFile file : m_files) {
+            if (!file.isLib() && !m_useProfile && scan) {
+                scanMainFile(file);
+            } else if (!file.isLib() && !m_useProfile) {
+                slim(file.getName(), file.getContent(), false, compLevel);
+            } else if (!file.isLib() && m_varPruner != null) {
+                /*
+                 The profile replaces the calls from the main files, but
+                 the main files can still use library variables.
+                 */
+                Compiler compiler = parse(Collections.singletonList(file), compLevel);
+                if (compiler != null) {
+                    m_varPruner.addReferences(compiler.getRoot());
+                }
+            }
+        }
+        
+        if (scan) {
+            findUnreferencedLibraries();
+        }
+    }
+    
+    /**
+     * Add the names a main file refers to as calls without parsing the file.  Every name
+     * counts as a call so this can keep more functions than parsing the file.
+     * 
+     * @param file   the main file
+     */
+    private void scanMainFile(JSFile file)
+    {
+        JSScanner.addCalls(file.getContent(), m_calls);
+    }
+    
+    /**
+     * Warn about library files which don't define any of the names the main files and the
+     * externs refer to.  Only calls from the libraries themselves can keep their functions
+     * so the page probably doesn't need them.  We still prune them normally since the code
+     * they run when they load might matter.
+     */
+    private void findUnreferencedLibraries()
+    {
+        Set<String> names = new HashSet<String>();
+        for (int id = 0; id < m_calls.size(); id++) {
+            names.add(m_calls.getName(id));
+        }
+        
+        for (JSFile lib : getLibFiles()) {
+            if (!JSScanner.definesAny(lib.getContent(), names)) {
+                LOGGER.log(Level.WARNING, "The main files and externs don't refer to anything defined in " + lib.getName());
+            }
+        }
+    }
+    
+    /**
+     * Instrument the library files so they record each interesting function the first 
+     * time it is called.  The result starts with the coverage header and nothing is 
+     * pruned.
+     *  
+     * @param compLevel the compilation level 
+     * 
+     * @return the instrumented library files or null if there were parse errors
+     */
+    public String instrument(CompilationLevel compLevel)
+    {
+        Compiler compiler = parse(getLibFiles(), compLevel);
+        if (compiler == null) {
+            return null;
+        }
+        
+        process(compiler.getRoot(), true);
+        
+        for (Node func : m_libFuncs) {
+            String name = FunctionNames.getName(func);
+            if (func.getType() == Token.FUNCTION && name != null) {
+                Coverage.instrument(func, name);
+            }
+        }
+        
+        return Coverage.HEADER + compiler.toSource();
+    }
+    
+    /**
+     * Get the library files which have been added to this compiler instance.
+     * 
+     * @return the library files
+     */
+    private List<JSFile> getLibFiles()
+    {
+        List<JSFile> libs = new ArrayList<JSFile>();
         for (JSFile file : m_files) {
             if (file.isLib()) {
-                sb.append(file.getContent() + "\n");
-            } else {
+                libs.add(file);
+            }
+        }
+        
+        return libs;
+    }
+    
+    /**
+     * Add a main source file to a named entry point.  Entry points are used when splitting
+     * the library files for a site with multiple pages.
+     * 
+     * @param entry  the name of the entry point
+     * @param file   the main file to add to this entry point
+     */
+    public void addEntryFile(String entry, JSFile file)
+    {
+        List<JSFile> files = m_entries.get(entry);
+        if (files == null) {
+            files = new ArrayList<JSFile>();
+            m_entries.put(entry, files);
+        }
+        
+        files.add(file);
+    }
+    
+    /**
+     * <p>
+     * Split the library files which have been added to this compiler across all of the
+     * entry points.
+     * </p>
+     * 
+     * <p>
+     * The library files are analyzed once and each entry point is checked against the same
+     * call graph.  Functions needed by at least minEntries entry points go in the shared
+     * chunk and the other functions needed by an entry go in the chunk for that entry.
+     * Functions defined inside a closure or an object literal can't be moved out of it so
+     * they always stay in the shared chunk.
+     * </p>
+     * 
+     * @param compLevel  the compilation level
+     * @param minEntries the number of entries which must need a function for it to go in the shared
+     *                   chunk or 0 if it must be needed by all entries
+     * 
+     * @return the split chunks or null if there was an error parsing the files
+     */
+    public ChunkSet split(CompilationLevel compLevel, int minEntries)
+    {
+        /*
+         First we gather the calls from the main files of each entry
+         separately.  The calls we have before that are the externs.
+         */
+        CallList externs = m_calls;
+        Map<String, CallList> entryCalls = new LinkedHashMap<String, CallList>();
+        for (Map.Entry<String, List<JSFile>> entry : m_entries.entrySet()) {
+            m_calls = new CallList();
+            for (JSFile file : entry.getValue()) {
                 slim(file.getName(), file.getContent(), false, compLevel);
             }
+            
+            entryCalls.put(entry.getKey(), m_calls);
+        }
+        
+        /*
+         Then we analyze the library once
+         */
+        m_calls = new CallList();
+        Compiler compiler = parse(getLibFiles(), compLevel);
+        if (compiler == null) {
+            m_calls = externs;
+            return null;
+        }
+        
+        Node root = compiler.getRoot();
+        FunctionNames.findBoundNames(root, m_boundNames);
+        process(root, true);
+        m_calls = externs;
+        findMatchedExterns(m_libFuncs, externs);
+        m_funcCount = m_libFuncs.size();
+        
+        CallGraph graph = buildCallGraph();
+        ClosureTable table = m_closureCache == null ? new ClosureTable(graph) :
+            getClosureTable(ClosureCache.getKey(getLibFiles(), compLevel, m_boundNames), graph);
+        CallList libCalls = new CallList();
+        findRootCalls(root, libCalls);
+        
+        /*
+         Now we can find the functions each entry needs and count
+         how many entries need each function.
+         */
+        int threshold = minEntries < 1 ? m_entries.size() : minEntries;
+        int counts[] = new int[graph.size()];
+        Map<String, BitSet> needed = new LinkedHashMap<String, BitSet>();
+        for (Map.Entry<String, CallList> entry : entryCalls.entrySet()) {
+            List<String> roots = new ArrayList<String>();
+            addNames(externs, roots);
+            addNames(libCalls, roots);
+            addNames(entry.getValue(), roots);
+            
+            BitSet reachable = table.getReachable(roots);
+            needed.put(entry.getKey(), reachable);
+            
+            for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+                counts[i]++;
+            }
+        }
+        
+        BitSet shared = new BitSet(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            if (counts[i] >= threshold ||
+                (counts[i] > 0 && FunctionRemover.findSplittableStatement(graph.getFunction(i)) == null)) {
+                shareFunction(graph, i, shared);
+            }
         }
         
-        return addLib("combined_lib.js", sb.toString(), compLevel);
+        /*
+         Each entry gets the top-level statements for the functions it
+         needs which aren't in the shared chunk.  We have to generate
+         the source for them before we remove them from the tree.
+         */
+        Map<String, String> entryChunks = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, BitSet> entry : needed.entrySet()) {
+            Set<Node> statements = new LinkedHashSet<Node>();
+            BitSet reachable = entry.getValue();
+            for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+                if (!shared.get(i)) {
+                    statements.add(FunctionRemover.findSplittableStatement(graph.getFunction(i)));
+                }
+            }
+            
+            StringBuffer chunk = new StringBuffer();
+            for (Node statement : statements) {
+                Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
+                compiler.toSource(cb, 0, statement);
+                chunk.append(cb.toString());
+            }
+            
+            entryChunks.put(entry.getKey(), chunk.toString());
+            System.out.println("Entry " + entry.getKey() + " needs " + reachable.cardinality() + " out of " + m_funcCount +
+                               " named functions and " + statements.size() + " statements outside the shared chunk.");
+        }
+        
+        m_keepers.clear();
+        for (int i = 0; i < graph.size(); i++) {
+            Node func = graph.getFunction(i);
+            if (shared.get(i)) {
+                m_keepers.add(func);
+            } else {
+                removeFunction(func);
+                m_libFuncs.remove(func);
+            }
+        }
+        
+        System.out.println("Shared chunk keeps " + m_keepers.size() + " out of " + m_funcCount + " named functions.");
+        
+        ChunkSet chunks = new ChunkSet(compiler.toSource());
+        for (Map.Entry<String, String> entry : entryChunks.entrySet()) {
+            chunks.addEntryChunk(entry.getKey(), entry.getValue());
+        }
+        
+        return chunks;
+    }
+    
+    /**
+     * Add a function to the shared set along with any interesting functions which contain
+     * it, since removing the parent function would remove this function as well.
+     * 
+     * @param graph  the call graph
+     * @param index  the index of the function to share
+     * @param shared the set of shared functions
+     */
+    private void shareFunction(CallGraph graph, int index, BitSet shared)
+    {
+        shared.set(index);
+        
+        Node parent = FunctionNames.findInterestingFunctionParent(graph.getFunction(index).getParent());
+        while (parent != null) {
+            int parentIndex = graph.indexOf(parent);
+            if (parentIndex > -1) {
+                shared.set(parentIndex);
+            }
+            
+            parent = FunctionNames.findInterestingFunctionParent(parent.getParent());
+        }
+    }
+    
+    /**
+     * Add the names of all the specified calls to a list of names.
+     * 
+     * @param calls  the calls to add
+     * @param names  the list of names to add them to
+     */
+    private static void addNames(List<Call> calls, List<String> names)
+    {
+        for (Call call : calls) {
+            names.add(call.getName());
+        }
+    }
+    
+    /**
+     * Add the names of all the specified calls to a list of names.
+     * 
+     * @param calls  the calls to add
+     * @param names  the list of names to add them to
+     */
+    private static void addNames(CallList calls, List<String> names)
+    {
+        for (int id = 0; id < calls.size(); id++) {
+            names.add(calls.getName(id));
+        }
     }
     
     /**
@@ -216,16 +639,15 @@ public class JSlim
     }
     
     /**
-     * Parse, compile, and slim the specified code
+     * Parse the specified files and set the error manager for this compiler.  Each file is
+     * a separate script in the tree so we can still tell the files apart after pruning.
      * 
-     * @param name      the name of the file to slim
-     * @param code      JavaScript source code to compile.
-     * @param isLib     true if this is a library file and false otherwise
+     * @param files     the files to parse
      * @param compLevel the compilation level
      * 
-     * @return The compiled version of the code.
+     * @return the compiler holding the parsed tree or null if there were parse errors
      */
-    private String slim(String name, String code, boolean isLib, CompilationLevel compLevel)
+    Compiler parse(List<JSFile> files, CompilationLevel compLevel)
     {
         Compiler compiler = new Compiler();
 
@@ -241,7 +663,21 @@ public class JSlim
 
         // The dummy input name "input.js" is used here so that any warnings or
         // errors will cite line numbers in terms of input.js.
-        JSSourceFile input[] = {JSSourceFile.fromCode(name, code)};
+        JSSourceFile input[] = new JSSourceFile[files.size()];
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < input.length; i++) {
+            /*
+             The compiler needs a unique name for each input so we add the
+             index to the name of any file we've already seen.
+             */
+            String name = files.get(i).getName();
+            if (!names.add(name)) {
+                name = i + "_" + name;
+                names.add(name);
+            }
+            
+            input[i] = JSSourceFile.fromCode(name, files.get(i).getContent());
+        }
         
         if (m_formattingOptions != null) {
             m_formattingOptions.applyToOptions(options);
@@ -253,12 +689,58 @@ public class JSlim
         m_errMgr = compiler.getErrorManager();
         
         if (m_errMgr.getErrorCount() > 0) {
+            return null;
+        }
+        
+        return compiler;
+    }
+    
+    /**
+     * Parse, compile, and slim the specified code
+     * 
+     * @param name      the name of the file to slim
+     * @param code      JavaScript source code to compile.
+     * @param isLib     true if this is a library file and false otherwise
+     * @param compLevel the compilation level
+     * 
+     * @return The compiled version of the code.
+     */
+    private String slim(String name, String code, boolean isLib, CompilationLevel compLevel)
+    {
+        List<JSFile> files = new ArrayList<JSFile>();
+        files.add(new JSFile(name, code, isLib));
+        
+        Compiler compiler = slim(files, isLib, compLevel);
+        
+        if (compiler == null) {
             /*
              Then there were errors parsing the file and we can't
              prune anything. 
              */
             return "";
         }
+        
+        // The compiler is responsible for generating the compiled code; it is not
+        // accessible via the Result.
+        return compiler.toSource();
+    }
+    
+    /**
+     * Parse and slim the specified files
+     * 
+     * @param files     the files to slim
+     * @param isLib     true if these are library files and false otherwise
+     * @param compLevel the compilation level
+     * 
+     * @return the compiler holding the slimmed tree or null if there were parse errors
+     */
+    private Compiler slim(List<JSFile> files, boolean isLib, CompilationLevel compLevel)
+    {
+        Compiler compiler = parse(files, compLevel);
+        
+        if (compiler == null) {
+            return null;
+        }
 
         Node node = compiler.getRoot();
         if (m_printTree) {
@@ -268,11 +750,47 @@ public class JSlim
         
         //System.out.println("node before change: " + compiler.toSource());
         
+        if (isLib) {
+            /*
+             The calls we know about before processing the library come 
+             from the main files and the externs
+             */
+            m_mainCalls = m_calls.getCalls();
+            m_libCompiler = compiler;
+            m_closureFuncs = null;
+        } else if (m_varPruner != null) {
+            m_varPruner.addReferences(node);
+        }
+        
         LOGGER.log(Level.INFO, "starting process...");
-        Node n = process(node, isLib);
+        if (isLib) {
+            FunctionNames.findBoundNames(node, m_boundNames);
+            if (m_closureCache != null) {
+                m_closureKey = ClosureCache.getKey(files, compLevel, m_boundNames);
+            }
+        }
+        
+        if (isLib && useLazyWalk()) {
+            /*
+             The lazy walk finds the functions while it follows the calls
+             */
+            LazyWalk walk = new LazyWalk(this);
+            walk.walk(node.getLastChild(), m_mainCalls);
+            m_libFuncs.addAll(walk.getFunctions());
+            m_keepers.addAll(walk.getKeepers());
+        } else {
+            process(node, isLib);
+            
+            if (isLib) {
+                CallList matched = new CallList();
+                findMatchedExterns(m_libFuncs, matched);
+                m_calls.addAll(matched);
+                m_mainCalls.addAll(matched.getCalls());
+            }
+        }
         
         LOGGER.log(Level.INFO, "Done processing...");
-        LOGGER.log(Level.FINE, "m_calls: " + m_calls);
+        LOGGER.log(Level.FINE, "m_calls: {0}", m_calls);
         
         m_funcCount = m_libFuncs.size();
         
@@ -282,6 +800,10 @@ public class JSlim
             
             LOGGER.log(Level.INFO, "Starting pruneTree phase 2.");
             pruneTree();
+            
+            if (m_varPruner != null) {
+                pruneVars();
+            }
         }
         
         if (m_funcCount > 0) {
@@ -293,9 +815,7 @@ public class JSlim
             System.out.println(node.toStringTree());
         }
         
-        // The compiler is responsible for generating the compiled code; it is not
-        // accessible via the Result.
-        return compiler.toSource();
+        return compiler;
     }
     
     /**
@@ -314,28 +834,19 @@ public class JSlim
         while (nodes.hasNext()) {
             Node n = nodes.next();
             
-            if (n.getType() == Token.VAR && n.getFirstChild().getType() == Token.NAME) {
-                m_vars.add(n);
-            } else if (n.getType() == Token.CALL || n.getType() == Token.NEW) {
+            if (m_receivers != null) {
+                m_receivers.addAlias(n);
+            }
+            
+            if (n.getType() == Token.CALL || n.getType() == Token.NEW) {
                 addCalls(n);
-            } else if (n.getType() == Token.ASSIGN ||
-                       n.getType() == Token.ASSIGN_BITOR  ||
-                       n.getType() == Token.ASSIGN_BITXOR ||
-                       n.getType() == Token.ASSIGN_BITAND ||
-                       n.getType() == Token.ASSIGN_LSH ||
-                       n.getType() == Token.ASSIGN_RSH ||
-                       n.getType() == Token.ASSIGN_URSH ||
-                       n.getType() == Token.ASSIGN_ADD ||
-                       n.getType() == Token.ASSIGN_SUB ||
-                       n.getType() == Token.ASSIGN_MUL ||
-                       n.getType() == Token.ASSIGN_DIV ||
-                       n.getType() == Token.ASSIGN_MOD) {
+            } else if (FunctionNames.isAssign(n)) {
                 /*
                  This is an assignment operator.  
                  */
                 addAssign(n);
             } else if (isLib && n.getType() == Token.FUNCTION &&
-                       isInterestingFunction(n)) {
+                       FunctionNames.isInterestingFunction(n)) {
                 if (isLib) {
                     m_libFuncs.add(n);
                 } else {
@@ -356,87 +867,45 @@ public class JSlim
                 }
             }
             
+            addReference(n, m_calls);
             process(n, isLib);
         }
         
         return node;
     }
     
-    private Node findInterestingFunctionParent(Node n) 
+    /**
+     * Add the names functions are bound to in a library tree.  The streaming prune adds the
+     * names from every library file before it looks for functions in any of them.
+     * 
+     * @param root   the root of the library tree
+     * 
+     * @return all of the bound names so far
+     */
+    Set<String> addBoundNames(Node root)
     {
-        if (n == null) {
-            return null;
-        } else if (isInterestingFunction(n)) {
-            return n;
-        } else {
-            return findInterestingFunctionParent(n.getParent());
-        }
+        FunctionNames.findBoundNames(root, m_boundNames);
+        return m_boundNames;
     }
     
     /**
-     * This method determines if the specified function is interesting.  In our case interesting
-     * means it is a potentatial candidate for removal.  There are many reasons the function
-     * might not be a good cadidate.  For example, anonymous functions are never removed since
-     * they are almost always used and there is no way to track if they are used or not.
+     * Find the interesting functions in a library tree without pruning it or keeping the
+     * tree in this compiler.
      * 
-     * @param n      the function to check
+     * @param root   the root of the library tree
      * 
-     * @return true if the function is interesting and false otherwise
+     * @return the interesting functions in the order process finds them
      */
-    private boolean isInterestingFunction(Node n)
+    List<Node> findLibFunctions(Node root)
     {
-        if (n.getType() != Token.FUNCTION) {
-            /*
-             If this node isn't a function then it definitely isn't an
-             interesting function
-             */
-            return false;
-        }
-        
-        if (n.getParent().getType() == Token.ASSIGN &&
-            n.getParent().getParent().getType() == Token.RETURN) {
-            /*
-             Then this is a function getting returned from another
-             function and that makes it really difficult to determine
-             if the function is being called because it is never
-             called directly by name
-             */
-            return false;
-        }
-        
-        /*
-         We need to check to make sure this is a named
-         function.  If it is an anonymous function then
-         it can't be called directly outside of scope and
-         it is probably being called locally so we can't remove it.
-         */
-        if (n.getParent().getType() == Token.STRING ||
-            (n.getFirstChild().getType() == Token.NAME &&
-             n.getFirstChild().getString() != null &&
-             n.getFirstChild().getString().length() > 0) ||
-            n.getParent().getType() == Token.ASSIGN) {
-            
-            /*
-             If the function doesn't have a name we can identify then it is anonymous and
-             we can't tell if anyone is calling it.
-             */
-            if (getFunctionName(n) != null) {
-                /*
-                 If this function has a direct parent which is another function instead of
-                 a block or a property then it is probably being created to get returned from
-                 the functions and therefore only has a name in he scope of that function.
-                 It might be possible to change the mapping to the parent function, but we
-                 can't understand that right now and there might me multiple functions within
-                 this one specific function.
-                 */
-                if (!(n.getParent().getType() == Token.BLOCK && n.getParent().getParent().getType() == Token.FUNCTION)) {
-                    return true;
-                }
-            }
-        }
-        
-        return false;
+        CallList calls = m_calls;
+        m_calls = new CallList();
+        process(root, true);
+        m_calls = calls;
         
+        List<Node> funcs = m_libFuncs;
+        m_libFuncs = new ArrayList<Node>();
+        return funcs;
     }
     
     /**
@@ -456,7 +925,7 @@ public class JSlim
      * @param assign the assignment node to add
      * @param calls  the list of calls to add this assignment to
      */
-    private void addAssign(Node assign, List<Call> calls)
+    private void addAssign(Node assign, CallList calls)
     {
         if (assign.getChildCount() < 2) {
             /*
@@ -493,7 +962,21 @@ public class JSlim
      * @param callNode the Node representing this call
      * @param calls    the list to add it to
      */
-    private void addCall(String call, Node callNode, List<Call> calls)
+    private void addCall(String call, Node callNode, CallList calls)
+    {
+        addCall(call, null, callNode, calls);
+    }
+    
+    /**
+     * Add a call to the specified list of calls or increment the call count if the call
+     * is already in the list.
+     * 
+     * @param call     the call to add
+     * @param receiver the receiver of the call or null if it isn't known
+     * @param callNode the Node representing this call
+     * @param calls    the list to add it to
+     */
+    private void addCall(String call, String receiver, Node callNode, CallList calls)
     {
         if (callMatchesParentfunction(call, callNode)) {
             /*
@@ -506,37 +989,27 @@ public class JSlim
             return;
         }
         
-        Call c = getCall(call, calls);
-        
-        if (c == null) {
-            c = new Call(call);
-            calls.add(c);
-        } else {
-            /*
-             If the call is already there then we just increment
-             the count
-             */
-            c.incCount();
-        }
+        /*
+         If the call is already there then this just increments
+         the count
+         */
+        calls.add(call, receiver);
     }
     
     /**
-     * Get the call object for the call with the specified name.
-     * 
-     * @param name   the call name to look for
-     * @param calls  the list of calls to look in
+     * Add a call for the specified node if it reads a variable which a function is 
+     * assigned to.  Those functions are often passed around by name, like 
+     * document.addEventListener("DOMContentLoaded", DOMContentLoaded), so we have to 
+     * keep them even though they aren't called directly.
      * 
-     * @return the call if it was in the list of null if it wasn't
+     * @param n      the node to check
+     * @param calls  the list to add the call to
      */
-    private static Call getCall(String name, List<Call> calls)
+    private void addReference(Node n, CallList calls)
     {
-        for (Call call : calls) {
-            if (call.getName().equals(name)) {
-                return call;
-            }
+        if (n.getType() == Token.NAME && m_boundNames.contains(n.getString()) && FunctionNames.isRead(n)) {
+            addCall(n.getString(), n, calls);
         }
-        
-        return null;
     }
     
     /**
@@ -545,10 +1018,15 @@ public class JSlim
      * @param getProp the node to add
      * @param calls   the list of calls to add it to
      */
-    private void addCallsProp(Node getProp, List<Call> calls)
+    private void addCallsProp(Node getProp, CallList calls)
     {
         if (getProp.getLastChild().getType() == Token.STRING) {
-            addCall(getProp.getLastChild().getString(), getProp, calls);
+            String receiver = null;
+            if (m_receivers != null) {
+                receiver = m_receivers.getReceiver(getProp);
+            }
+            
+            addCall(getProp.getLastChild().getString(), receiver, getProp, calls);
         }
         
         if (getProp.getFirstChild().getType() == Token.CALL) {
@@ -581,10 +1059,10 @@ public class JSlim
     
     private boolean callMatchesParentfunction(String call, Node callNode)
     {
-        Node f = findInterestingFunctionParent(callNode);
+        Node f = FunctionNames.findInterestingFunctionParent(callNode);
         
         if (f != null) {
-            if (getFunctionName(f).equals(call)) {
+            if (FunctionNames.getName(f).equals(call)) {
                 /*
                  Then the call name matches the direct parent name
                  */
@@ -617,7 +1095,7 @@ public class JSlim
      * @param call   the call to look in
      * @param calls  the list to add the call to
      */
-    private void addCalls(Node call, List<Call> calls)
+    private void addCalls(Node call, CallList calls)
     {
         if (call.getType() == Token.GETPROP) {
             addCallsProp(call, calls);
@@ -626,92 +1104,47 @@ public class JSlim
         } else if (call.getFirstChild().getType() == Token.NAME) {
             Node name = call.getFirstChild();
             addCall(name.getString(), name, calls);
-            LOGGER.log(Level.FINE, "name.getString(): " + name.getString());
+            LOGGER.log(Level.FINE, "name.getString(): {0}", name.getString());
         } else if (call.getFirstChild().getType() == Token.GETELEM) {
             /*
              This is a call using the array index to get the function
              property like this:
      
              obj['hello']();
+             
+             The index can have more than one value like obj[name]() inside
+             of jQuery.each(['a', 'b'], function(i, name) so we add a call
+             for each one.
              */
-            String c = getConcatenatedStringIndex(call.getFirstChild());
-            if (c != null) {
-                addCall(c, call, calls);
+            List<String> names = StringIndex.getStringIndexes(call.getFirstChild());
+            if (names != null) {
+                for (String name : names) {
+                    addCall(name, call, calls);
+                }
             }
         }
     }
     
-    private String getConcatenatedStringIndex(Node getElem)
+    /**
+     * Determine if the keepers come from counting the calls to each function instead of
+     * following the calls from the roots.
+     * 
+     * @return true if we count the calls and false otherwise
+     */
+    private boolean isCountingCalls()
     {
-        if (getElem.getFirstChild().getNext().getType() == Token.STRING) {
-            /*
-             Then this is a simple string reference like obj['hello']
-             and we can just return the string
-             */
-            return getElem.getFirstChild().getNext().getString();
-        } else if (getElem.getFirstChild().getNext().getType() == Token.ADD) {
-            /*
-             Then this is a concatenated string like obj['h' + 'el' + 'lo']
-             */
-            
-            StringBuffer sb = new StringBuffer();
-            Node current = getElem.getFirstChild().getNext();
-            while (current != null) {
-                if (current.getFirstChild().getType() == Token.ADD) {
-                    String s = getString(current.getFirstChild().getNext());
-                    if (s != null) {
-                        sb.insert(0, s);
-                    } else {
-                        return null;
-                    }
-                    current = current.getFirstChild();
-                } else if (current.getFirstChild().getType() == Token.STRING) {
-                    String s = getString(current.getFirstChild().getNext());
-                    if (s != null) {
-                        sb.insert(0, s);
-                    } else {
-                        return null;
-                    }
-                    
-                    s = getString(current.getFirstChild());
-                    if (s != null) {
-                        sb.insert(0, s);
-                    } else {
-                        return null;
-                    }
-                    current = null;
-                } else {
-                    current = null;
-                }
-            }
-            
-            return sb.toString();
-        } else {
-            /*
-             Then this was some more complex type of string like
-             obj[('h' + 'el' + 'lo').substring(2)].  We can't evaluate
-             that string with just static evaluation so the user
-             will have to declare an external for that.
-             */
-            return null;
-        }
+        return m_receivers == null && m_closureCache == null && !useLazyWalk();
     }
     
-    private String getString(Node n)
+    /**
+     * Determine if this prune uses the lazy walk.  Receivers, the closure table, and the 
+     * variable pruner need every function in the library.
+     * 
+     * @return true if we use the lazy walk and false otherwise
+     */
+    private boolean useLazyWalk()
     {
-        if (n.getType() == Token.STRING) {
-            return n.getString();
-        } else if (n.getType() == Token.NUMBER) {
-            double num = n.getDouble();
-            int inum = (int) num;
-            if (inum == num) {
-                return "" + inum;
-            } else {
-                return "" + num;
-            }
-        } else {
-            return null;
-        }
+        return m_lazyWalk && m_receivers == null && m_closureCache == null && m_varPruner == null;
     }
     
     /**
@@ -721,27 +1154,84 @@ public class JSlim
     {
         m_allFuncs.addAll(m_funcs);
         m_allFuncs.addAll(m_libFuncs);
+        m_funcIndex = null;
         
-        for (Call call : m_calls) {
-            findKeepers(call);
+        if (m_receivers != null) {
+            findReachableKeepers();
+        } else if (m_closureCache != null) {
+            findClosureKeepers();
+        } else if (!useLazyWalk() && m_examinedCalls.isEmpty() && m_libFuncs.size() >= CallGraph.PARALLEL_THRESHOLD) {
+            /*
+             Large libraries search the call graph on all the processors.
+             The root calls are examined after that so the next phase 
+             doesn't follow them again.
+             */
+            m_keepers.addAll(KeeperSearch.findKeepers(this, m_allFuncs, m_calls, ForkJoinPool.commonPool()));
+            m_examinedCalls.addAll(m_calls);
+        } else if (!useLazyWalk()) {
+            for (int id = 0; id < m_calls.size(); id++) {
+                findKeepers(m_calls.getName(id), m_calls.getReceiver(id));
+            }
         }
         
-        LOGGER.log(Level.FINE, "m_keepers: " + m_keepers);
+        LOGGER.log(Level.FINE, "m_keepers: {0}", m_keepers);
         
         for (int i = m_libFuncs.size() - 1; i > -1; i--) {
             Node func = m_libFuncs.get(i);
             
             if (!m_keepers.contains(func)) {
-                removeCalledKeepers(func);
+                if (isCountingCalls() && func.getType() == Token.FUNCTION) {
+                    /*
+                     Removing one link of an assignment chain leaves the 
+                     function so its calls still count
+                     */
+                    removeCalledKeepers(func);
+                }
                 removeFunction(func);
                 m_libFuncs.remove(func);
             }
         }
         
-        LOGGER.log(Level.INFO, "Keeping the following functions:");
-        for (Node f : m_libFuncs) {
-            LOGGER.log(Level.INFO, "func: " + getFunctionName(f));
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Keeping the following functions:");
+            for (Node f : m_libFuncs) {
+                LOGGER.log(Level.INFO, "func: {0}", FunctionNames.getName(f));
+            }
+        }
+    }
+    
+    /**
+     * Remove the unreferenced variables and property assignments from the library tree.
+     * The calls they made no longer count so we prune the functions again and keep going
+     * until there is nothing else to remove.
+     */
+    private void pruneVars()
+    {
+        int count = 0;
+        List<Node> removed = m_varPruner.prune(m_libCompiler.getRoot().getLastChild(), m_mainCalls);
+        while (!removed.isEmpty()) {
+            count += removed.size();
+            VarPruner.removeDetached(m_libFuncs, m_libCompiler.getRoot());
+            VarPruner.removeDetached(m_allFuncs, m_libCompiler.getRoot());
+            m_funcIndex = null;
+            
+            if (isCountingCalls()) {
+                for (Node n : removed) {
+                    removeCalledKeepers(n);
+                }
+            } else {
+                /*
+                 Then we follow the calls again from the pruned tree
+                 */
+                m_keepers.clear();
+                m_examinedCalls.clear();
+            }
+            
+            pruneTree();
+            removed = m_varPruner.prune(m_libCompiler.getRoot().getLastChild(), m_mainCalls);
         }
+        
+        System.out.println("Removed " + count + " unreferenced variables and property assignments.");
     }
     
     /**
@@ -753,13 +1243,20 @@ public class JSlim
      */
     private void removeCalledKeepers(Node func)
     {
-        Call calls[] = findCalls(func);
-        for (Call call : calls) {
-            Call orig = getCall(call.getName(), m_calls);
-            orig.decCount(call.getCount());
+        CallList calls = new CallList();
+        findCalls(func, calls);
+        for (int id = 0; id < calls.size(); id++) {
+            int orig = m_calls.indexOf(calls.getName(id), calls.getReceiver(id));
+            if (orig == -1) {
+                /*
+                 This call was added after we processed the tree, like the
+                 calls in the lazy stub of a nested function.
+                 */
+                continue;
+            }
             
-            if (orig.getCount() < 1) {
-                Node f = findFunction(orig.getName());
+            if (m_calls.addCount(orig, -calls.getCount(id)) < 1 && !m_calls.hasCount(calls.getName(id))) {
+                Node f = findFunction(calls.getName(id));
                 if (f != null) {
                     m_keepers.remove(f);
                 }
@@ -777,7 +1274,7 @@ public class JSlim
     private Node findFunction(String name)
     {
         for (Node f : m_libFuncs) {
-            if (getFunctionName(f).equals(name)) {
+            if (FunctionNames.getName(f).equals(name)) {
                 return f;
             }
         }
@@ -786,92 +1283,107 @@ public class JSlim
     }
     
     /**
-     * Remove all functions with the specified name from the tree.
+     * Remove the function at the specified node or replace it with its lazy stub.
      * 
-     * @param func   the function name to remove
+     * @param n      the node to remove
      */
-    private void removeFunction(String func)
+    private void removeFunction(Node n)
     {
-        for (Node f : m_libFuncs) {
-            if (getFunctionName(f).equals(func)) {
-                removeFunction(f);
+        FunctionRemover.remove(n, m_lazyStubs, m_libCompiler);
+    }
+    
+    /**
+     * Find the keepers by following the calls from the main files, the externs, and the
+     * calls made when the library is loaded.  This is used when calls are matched with
+     * their receivers since one name can have calls with many receivers so we can't
+     * count the calls by name.
+     */
+    private void findReachableKeepers()
+    {
+        CallList roots = new CallList();
+        findRootCalls(m_libCompiler.getRoot().getLastChild(), roots);
+        LinkedList<Call> calls = new LinkedList<Call>(m_mainCalls);
+        calls.addAll(roots.getCalls());
+        
+        while (!calls.isEmpty()) {
+            Call call = calls.removeFirst();
+            if (m_examinedCalls.contains(call.getName(), call.getReceiver())) {
+                continue;
+            }
+            
+            m_examinedCalls.add(call.getName(), call.getReceiver());
+            
+            for (Node func : findMatchingFunctions(call.getName())) {
+                if (!m_keepers.contains(func) && m_receivers.matches(call.getReceiver(), func)) {
+                    m_keepers.add(func);
+                    calls.addAll(Arrays.asList(findCalls(func)));
+                }
             }
         }
     }
     
     /**
-     * Remove the function at the specified node.
-     * 
-     * @param n      the node to remove
+     * Find the keepers in the closure table of the library.  The keepers are the union of
+     * the closures of the root calls so we only have to find the root calls again after 
+     * pruning the tree.  The table comes from the graph of the whole library and we only
+     * keep functions which are still in the tree.  We remember the functions in graph order
+     * so we never need the graph itself when the table comes from the cache.
      */
-    private void removeFunction(Node n)
+    private void findClosureKeepers()
     {
-        LOGGER.log(Level.INFO, "removeFunction(" + getFunctionName(n) + ")");
-        
-        if (n.getParent() == null || n.getParent().getParent() == null) {
-            /*
-             This means the function has already been removed
-             */
-            return;
+        if (m_closureFuncs == null) {
+            m_closureFuncs = new ArrayList<Node>(m_libFuncs);
+            m_closureTable = getClosureTable(m_closureKey, null);
         }
         
-        if (n.getParent().getType() == Token.STRING) {
-            /*
-             This is a closure style function like this:
-                 myFunc: function()
-             */
-            //System.out.println("Removing function: " + n.getParent().getString());
-            n.getParent().detachFromParent();
-        } else if (n.getParent().getType() == Token.ASSIGN || n.getParent().getType() == Token.EXPR_RESULT) {
-            /*
-             This is a property assignment function like:
-                myObj.func1 = function()
-             */
-            Node expr = findExprOrVar(n);
-            if (expr != null && expr.getType() == Token.EXPR_RESULT && expr.getParent() != null) {
-                LOGGER.log(Level.FINE, "expr: " + expr);
-                expr.detachFromParent();
+        CallList calls = new CallList();
+        calls.addAll(m_mainCalls);
+        findRootCalls(m_libCompiler.getRoot().getLastChild(), calls);
+        List<String> roots = new ArrayList<String>();
+        addNames(calls, roots);
+        
+        Set<Node> funcs = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        funcs.addAll(m_libFuncs);
+        
+        m_keepers.clear();
+        BitSet reachable = m_closureTable.getReachable(roots);
+        for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+            if (funcs.contains(m_closureFuncs.get(i))) {
+                m_keepers.add(m_closureFuncs.get(i));
             }
-        } else {
-            /*
-             This is a standard type of function like this:
-                function myFunc()
-             */
-            //println("n.toStringTree(): " + n.toStringTree());
-            //println("Removing function: " + n.getFirstChild().getString());
-            n.detachFromParent();
         }
     }
     
     /**
-     * Find the closest expression result or variable declaration token parent of the 
-     * specified node.
+     * Get the closure table of the library functions from the closure cache.  The call graph
+     * is only built when the cache doesn't have the table.
      * 
-     * @param n      the child node to look for
+     * @param key    the key of the library
+     * @param graph  the call graph of the library functions or null to build it if we need it
      * 
-     * @return the closest variable or expression result parent or null if there isn't one
+     * @return the closure table
      */
-    private Node findExprOrVar(Node n)
+    private ClosureTable getClosureTable(String key, CallGraph graph)
     {
-        if (n == null) {
-            return null;
-        } else if (n.getType() == Token.EXPR_RESULT ||
-                   n.getType() == Token.VAR) {
-            return n;
-        } else {
-            return findExprOrVar(n.getParent());
+        String functions[] = ClosureCache.getFunctionNames(m_libFuncs);
+        ClosureTable table = m_closureCache.findTable(key, functions);
+        if (table == null) {
+            table = m_closureCache.addTable(key, graph == null ? buildCallGraph() : graph, functions);
         }
+        
+        return table;
     }
     
     /**
      * This method recurses all the functions and finds all the calls to actual functions
      * and adds them to the list of keepers.
      * 
-     * @param call   the call to look for
+     * @param name     the name of the call to look for
+     * @param receiver the receiver of the call or null if it isn't known
      */
-    private void findKeepers(Call call)
+    private void findKeepers(String name, String receiver)
     {
-        if (getCall(call.getName(), m_examinedCalls) != null) {
+        if (m_examinedCalls.contains(name, receiver)) {
             /*
              Then we've already examined this call and we can skip it.
              */
@@ -880,19 +1392,30 @@ public class JSlim
         
         //call.incCount();
         
-        LOGGER.log(Level.FINE, "findKeepers(" + call + ")");
+        LOGGER.log(Level.FINE, "findKeepers({0})", name);
         
-        m_examinedCalls.add(call);
+        m_examinedCalls.add(name, receiver);
         
         
-        Node funcs[] = findMatchingFunctions(call.getName());
+        Node funcs[] = findMatchingFunctions(name);
             
         for (Node func : funcs) {
+            if (m_receivers != null && !m_receivers.matches(receiver, func)) {
+                /*
+                 The function has the same name, but it is on a different object
+                 */
+                continue;
+            }
+            
             m_keepers.add(func);
-            LOGGER.log(Level.FINE, "func: " + getFunctionName(func));
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "func: {0}", FunctionNames.getName(func));
+            }
             
-            for (Call c : findCalls(func)) {
-                findKeepers(c);
+            CallList calls = new CallList();
+            findCalls(func, calls);
+            for (int id = 0; id < calls.size(); id++) {
+                findKeepers(calls.getName(id), calls.getReceiver(id));
             }
         }
     }
@@ -904,11 +1427,11 @@ public class JSlim
      * 
      * @return the list of calls
      */
-    private Call[] findCalls(Node func)
+    Call[] findCalls(Node func)
     {
-        ArrayList<Call> calls = new ArrayList<Call>();
+        CallList calls = new CallList();
         findCalls(func, calls);
-        return calls.toArray(new Call[calls.size()]);
+        return calls.toArray();
     }
     
     /**
@@ -917,7 +1440,7 @@ public class JSlim
      * @param node   the node to look in
      * @param calls  the list of calls to add the function to
      */
-    private void findCalls(Node node, List<Call> calls)
+    private void findCalls(Node node, CallList calls)
     {
         Iterator<Node> nodes = node.children().iterator();
         
@@ -925,206 +1448,140 @@ public class JSlim
             Node n = nodes.next();
             if (n.getType() == Token.CALL || n.getType() == Token.NEW) {
                 addCalls(n, calls);
-            } else if (n.getType() == Token.ASSIGN ||
-                       n.getType() == Token.ASSIGN_BITOR  ||
-                       n.getType() == Token.ASSIGN_BITXOR ||
-                       n.getType() == Token.ASSIGN_BITAND ||
-                       n.getType() == Token.ASSIGN_LSH ||
-                       n.getType() == Token.ASSIGN_RSH ||
-                       n.getType() == Token.ASSIGN_URSH ||
-                       n.getType() == Token.ASSIGN_ADD ||
-                       n.getType() == Token.ASSIGN_SUB ||
-                       n.getType() == Token.ASSIGN_MUL ||
-                       n.getType() == Token.ASSIGN_DIV ||
-                       n.getType() == Token.ASSIGN_MOD) {
+            } else if (FunctionNames.isAssign(n)) {
                 /*
                  This is an assignment operator.  
                  */
                 addAssign(n, calls);
             } 
             
+            addReference(n, calls);
             findCalls(n, calls);
         }
     }
     
     /**
-     * Find all of the function nodes which are children, direct or otherwise, of the 
-     * specified node.
+     * Find all of the functions with the specified name.
      * 
-     * @param parent the node to look for functions under
+     * @param name   the name of the function to find
      * 
-     * @return the array of functions found under this node (this array is never null)
+     * @return the functions with this matching name
      */
-    private Node[] findFunctions(Node parent)
+    private Node[] findMatchingFunctions(String name)
     {
-        ArrayList<Node> funcs = new ArrayList<Node>();
-        findFunctions(parent, funcs);
+        if (m_funcIndex == null) {
+            /*
+             We only look up functions by name here so the index
+             doesn't need their calls
+             */
+            m_funcIndex = new CallGraph();
+            for (Node n : m_allFuncs) {
+                m_funcIndex.addFunction(n, new ArrayList<String>(new LinkedHashSet<String>(FunctionNames.getNames(n))), 
+                                        new Call[0]);
+            }
+        }
+        
+        int id = m_funcIndex.getSymbols().getId(name);
+        if (id == -1) {
+            return new Node[0];
+        }
         
-        return funcs.toArray(new Node[funcs.size()]);
+        int start = m_funcIndex.getNameStart(id);
+        Node matches[] = new Node[m_funcIndex.getNameEnd(id) - start];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = m_funcIndex.getFunction(m_funcIndex.getNameFunction(start + i));
+        }
         
+        return matches;
     }
     
     /**
-     * Find all of the function node which are children, direct or otherwise, of the
-     * specified node and add them to the specified list.
+     * Build the call graph for all of the library functions we know about.
      * 
-     * @param node   the node to for functions under
-     * @param funcs  the list of functions to add the references to
-     * 
-     * @return the array of functions found under this node (this array is never null)
+     * @return the call graph
      */
-    private Node findFunctions(Node node, List<Node> funcs)
+    private CallGraph buildCallGraph()
     {
-        Iterator<Node> nodes = node.children().iterator();
-        
-        while (nodes.hasNext()) {
-            Node n = nodes.next();
-            if (n.getType() == Token.FUNCTION && 
-                isInterestingFunction(n)) {
-                funcs.add(n);
-            }
-            
-            findFunctions(n, funcs);
+        CallGraph graph = new CallGraph();
+        for (Node func : m_libFuncs) {
+            graph.addFunction(func, FunctionNames.getNames(func), findCalls(func));
         }
         
-        return node;
+        return graph;
     }
     
     /**
-     * Get a list of the names of all of the functions under this specific node.  This method
-     * does not recurse into all children, but is used for unravelling function changes.
+     * Create a report of the size of each function kept by the last prune and the shortest
+     * chain of calls from a root call which keeps it.  Root calls are the calls from the
+     * main files and the externs and then the calls made when the library is loaded.
      * 
-     * @param n      the node to look under
+     * @param threads the number of threads to use when computing the sizes
      * 
-     * @return the list of function names in this chaing
+     * @return the size report
      */
-    private List<String> getFunctionNames(Node n)
+    public SizeReport createSizeReport(int threads)
     {
-        /*
-         EXPR_RESULT 561 [source_file: input.js]
-            ASSIGN 561 [source_file: input.js]
-                GETPROP 561 [source_file: input.js]
-                    NAME _ 561 [source_file: input.js]
-                    STRING functions 561 [source_file: input.js]
-                ASSIGN 561 [source_file: input.js]
-                    GETPROP 561 [source_file: input.js]
-                        NAME _ 561 [source_file: input.js]
-                        STRING methods 561 [source_file: input.js]
-                    FUNCTION  561 [source_file: input.js]
-         */
-        ArrayList<String> names = new ArrayList<String>();
-        if (n.getType() == Token.FUNCTION) {
-            names.add(getFunctionName(n));
+        SizeReport report = new SizeReport(m_charset);
+        if (m_libCompiler == null) {
+            return report;
         }
         
-        if (n.getType() == Token.ASSIGN) {
-            if (n.getFirstChild().getType() == Token.GETELEM) {
-                String c = getConcatenatedStringIndex(n.getFirstChild());
-                if (c != null) {
-                    names.add(c);
-                }
-            } else if (n.getFirstChild().getLastChild() != null) {
-                names.add(n.getFirstChild().getLastChild().getString());
-            }
-        }
+        CallList libCalls = new CallList();
+        findRootCalls(m_libCompiler.getRoot().getLastChild(), libCalls);
         
-        if (n.getParent().getType() == Token.ASSIGN) {
-            names.addAll(getFunctionNames(n.getParent()));
-        }
+        List<String> mainCalls = new ArrayList<String>();
+        addNames(m_mainCalls, mainCalls);
         
-        return names;
-    }
-    
-    /**
-     * Get the name of the function at the specified node if this node represents an
-     * interesting function.
-     * 
-     * @param n      the node to look under
-     * 
-     * @return the name of this function
-     */
-    private String getFunctionName(Node n)
-    {
-        try {
-            if (n.getParent().getType() == Token.ASSIGN) {
-                if (n.getParent().getFirstChild().getChildCount() == 0) {
-                    /*
-                     This is a variable assignment of a function to a
-                     variable in the globabl scope.  These functions are
-                     just too big in scope so we ignore them.  Example:
-                        myVar = function()
-                     */
-                    return null;
-                } else if (n.getParent().getFirstChild().getType() == Token.GETELEM) {
-                    /*
-                     This is a property assignment function with an array
-                     index like this: 
-                        jQuery.fn[ "inner" + name ] = function()
-     
-                     These functions are tricky to remove since we can't
-                     depend on just the name when removing them.  We're
-                     just leaving them for now.
-                     */
-                    String c = getConcatenatedStringIndex(n.getParent().getFirstChild());
-                    if (c != null) {
-                        return c;
-                    } else {
-                        return null;
-                    }
-                } else {
-                    /*
-                     This is a property assignment function like:
-                        myObj.func1 = function()
-                     */
-                    return n.getParent().getFirstChild().getLastChild().getString();
-                }
+        List<String> roots = new ArrayList<String>(mainCalls);
+        addNames(libCalls, roots);
+        
+        /*
+         A kept function can be nested in a function we removed so we 
+         only look at the functions which are still part of the tree
+         */
+        Node root = m_libCompiler.getRoot();
+        CallGraph graph = new CallGraph();
+        for (Node func : m_libFuncs) {
+            Node n = func;
+            while (n.getParent() != null) {
+                n = n.getParent();
             }
             
-            if (n.getParent().getType() == Token.STRING) {
-                /*
-                 This is a closure style function like this:
-                     myFunc: function()
-                 */
-                return n.getParent().getString();
-            } else {
-                if (n.getFirstChild().getType() == Token.GETPROP) {
-                    /*
-                     This is a chain function assignment
-                     */
-                    return n.getFirstChild().getFirstChild().getNext().getString();
-                } else {
-                    /*
-                     This is a standard type of function like this:
-                        function myFunc()
-                     */
-                    return n.getFirstChild().getString();
-                }
+            if (n == root) {
+                graph.addFunction(func, FunctionNames.getNames(func), findCalls(func));
             }
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "npe: " + n.toStringTree());
-            e.printStackTrace();
-            throw new RuntimeException("stop here...");
         }
+        
+        report.addFunctions(graph, roots, mainCalls, m_libCompiler);
+        report.computeSizes(threads);
+        return report;
     }
     
     /**
-     * Find all of the functions with the specified name.
-     * 
-     * @param name   the name of the function to find
+     * Find all of the calls under the specified node which aren't part of an interesting
+     * function.  These are calls made when the library is loaded, like calls in the top
+     * level of the library closure, and they are always made.
      * 
-     * @return the functions with this matching name
+     * @param node   the node to look in
+     * @param calls  the list of calls to add the calls to
      */
-    private Node[] findMatchingFunctions(String name)
+    void findRootCalls(Node node, CallList calls)
     {
-        ArrayList<Node> matches = new ArrayList<Node>();
+        Iterator<Node> nodes = node.children().iterator();
         
-        for (Node n : m_allFuncs) {
-            if (getFunctionNames(n).contains(name)) {
-                matches.add(n);
+        while (nodes.hasNext()) {
+            Node n = nodes.next();
+            if (n.getType() == Token.FUNCTION && FunctionNames.isInterestingFunction(n)) {
+                continue;
+            } else if (n.getType() == Token.CALL || n.getType() == Token.NEW) {
+                addCalls(n, calls);
+            } else if (FunctionNames.isAssign(n)) {
+                addAssign(n, calls);
             }
+            
+            addReference(n, calls);
+            findRootCalls(n, calls);
         }
-        
-        return matches.toArray(new Node[matches.size()]);
     }
     
     /**
@@ -1139,13 +1596,75 @@ public class JSlim
      * this processor doesn't handle object associations.
      * </p>
      * 
+     * <p>
+     * The reference can also be a pattern which keeps every function with a matching name.
+     * A glob like on* uses * for any characters and ? for a single character, a regular
+     * expression goes between slashes like /^_on[A-Z]/, and either one can be limited to
+     * a single library by putting the library file name and a colon in front of it.
+     * </p>
+     * 
      * @param extern the external reference to add
+     * 
+     * @exception IllegalArgumentException if the reference has an invalid regular expression
      */
     public void addExtern(String extern)
     {
         if (extern != null && extern.trim().length() > 0) {
-            m_calls.add(new Call(extern));
+            if (ExternMatcher.isPattern(extern.trim())) {
+                m_externMatcher.add(extern.trim());
+            } else {
+                m_calls.add(extern, null);
+            }
+        }
+    }
+    
+    /**
+     * Determine if the specified name of a library function matches one of the extern 
+     * patterns.
+     * 
+     * @param name   the function name
+     * @param func   the function node
+     * 
+     * @return true if the name matches and false otherwise
+     */
+    boolean matchesExtern(String name, Node func)
+    {
+        return m_externMatcher.matches(name, func.getSourceFileName());
+    }
+    
+    /**
+     * Add a call to each name of the specified functions which matches an extern pattern.
+     * 
+     * @param funcs  the library functions
+     * @param calls  the list of calls to add the calls to
+     */
+    void findMatchedExterns(List<Node> funcs, CallList calls)
+    {
+        if (m_externMatcher.isEmpty()) {
+            return;
         }
+        
+        Set<String> matched = new HashSet<String>();
+        for (Node func : funcs) {
+            for (String name : FunctionNames.getNames(func)) {
+                if (matchesExtern(name, func) && matched.add(name)) {
+                    calls.add(name, null);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Add the name of a function which was called at runtime according to a coverage
+     * profile.  Once a profile is added the profiled calls and the externs are the roots
+     * of the prune and the calls in the main files are ignored.
+     * 
+     * @param call   the name of the called function
+     */
+    public void addProfiledCall(String call)
+    {
+        m_useProfile = true;
+        addExtern(call);
     }
     
     /**
@@ -1161,38 +1680,9 @@ public class JSlim
      */
     public static String plainCompile(String name, String code, CompilationLevel level, FormattingOption formattingOptions)
     {
-        Compiler compiler = new Compiler();
-        
-        compiler.setLoggingLevel(LOGGER.getLevel());
-        
-        Logger.getLogger("com.google.javascript.jscomp").setUseParentHandlers(false);
-        Logger.getLogger("com.google.javascript.jscomp").addHandler(new SlimConsoleHandler());
-        
-        CompilerOptions options = new CompilerOptions();
-        // Advanced mode is used here, but additional options could be set, too.
-        level.setOptionsForCompilationLevel(options);
-        
-        if (formattingOptions != null) {
-            formattingOptions.applyToOptions(options);
-        }
-        
-        // To get the complete set of externs, the logic in
-        // CompilerRunner.getDefaultExterns() should be used here.
-        JSSourceFile extern = JSSourceFile.fromCode("externs.js", "");
-        
-        // The dummy input name "input.js" is used here so that any warnings or
-        // errors will cite line numbers in terms of input.js.
-        if (name == null) {
-            name = "System.out.js";
-        }
-        JSSourceFile input = JSSourceFile.fromCode(name, code);
-    
-        // compile() returns a Result, but it is not needed here.
-        compiler.compile(extern, input, options);
-    
         // The compiler is responsible for generating the compiled code; it is not
         // accessible via the Result.
-        return compiler.toSource();
+        return CompileVariant.runCompiler(name, code, level, formattingOptions, true).toSource();
     }
     
     /**
@@ -1202,9 +1692,13 @@ public class JSlim
      */
     public String[] getKeptFunctions()
     {
+        if (m_streamingPrune != null) {
+            return m_streamingPrune.getKeptFunctions();
+        }
+        
         ArrayList<String> funcs = new ArrayList<String>();
         for (Node n : m_keepers) {
-            funcs.add(getFunctionName(n));
+            funcs.add(FunctionNames.getName(n));
         }
         
         return funcs.toArray(new String[funcs.size()]);
@@ -1262,6 +1756,167 @@ public class JSlim
         m_printTree = printTree;
     }
     
+    /**
+     * Determine if this compiler matches calls to functions using the object they are
+     * called on as well as their name.
+     * 
+     * @return true if calls are matched with their receivers and false otherwise
+     */
+    public boolean isReceiverAware()
+    {
+        return m_receivers != null;
+    }
+    
+    /**
+     * Set if this compiler should match calls to functions using the object they are
+     * called on as well as their name.  This must be set before pruning.
+     * 
+     * @param receiverAware true if calls should be matched with their receivers and false otherwise
+     */
+    public void setReceiverAware(boolean receiverAware)
+    {
+        m_receivers = receiverAware ? new Receivers() : null;
+    }
+    
+    /**
+     * Determine if this compiler removes variables and property assignments which nothing
+     * refers to as well as functions.
+     * 
+     * @return true if unreferenced variables are removed and false otherwise
+     */
+    public boolean isPruneVars()
+    {
+        return m_varPruner != null;
+    }
+    
+    /**
+     * Set if this compiler should remove variables and property assignments which nothing
+     * refers to as well as functions.  This must be set before pruning.
+     * 
+     * @param pruneVars true if unreferenced variables should be removed and false otherwise
+     */
+    public void setPruneVars(boolean pruneVars)
+    {
+        m_varPruner = pruneVars ? new VarPruner() : null;
+    }
+    
+    /**
+     * Determine if the main files are scanned instead of parsed.
+     * 
+     * @return true if the main files are scanned and false otherwise
+     */
+    public boolean isFastScan()
+    {
+        return m_fastScan;
+    }
+    
+    /**
+     * Set if the main files should be scanned for the names they use instead of parsed.  
+     * Scanning is much faster, but every name in a main file counts as a call so the prune
+     * can keep more functions.  JSlim still parses the main files when it prints the tree,
+     * matches receivers, or prunes variables.  Scanning also warns about library files the
+     * main files don't use.
+     * 
+     * @param fastScan true to scan the main files and false to parse them
+     */
+    public void setFastScan(boolean fastScan)
+    {
+        m_fastScan = fastScan;
+    }
+    
+    /**
+     * Determine if the library is walked lazily.
+     * 
+     * @return true if only the reachable function bodies are walked and false otherwise
+     */
+    public boolean isLazyWalk()
+    {
+        return m_lazyWalk;
+    }
+    
+    /**
+     * Set if the library should be walked lazily.  The lazy walk keeps exactly the functions
+     * reachable from the main files, the externs, and the code the library runs when it 
+     * loads.  It only walks the body of a function once something calls it.  Receiver aware
+     * matching, the closure cache, and variable pruning walk the whole library instead.
+     * 
+     * @param lazyWalk true to walk the library lazily and false otherwise
+     */
+    public void setLazyWalk(boolean lazyWalk)
+    {
+        m_lazyWalk = lazyWalk;
+    }
+    
+    /**
+     * Get the lazy stubs used by the prune.
+     * 
+     * @return the lazy stubs or null if removed functions are removed instead of stubbed
+     */
+    public LazyStubs getLazyStubs()
+    {
+        return m_lazyStubs;
+    }
+    
+    /**
+     * Set the lazy stubs used by the prune.  With lazy stubs each removed function is 
+     * replaced by a stub which loads the function from the remainder chunk the first time
+     * it is called.  Lazy stubs are only used when pruning into a single output.
+     * 
+     * @param lazyStubs the lazy stubs or null to remove functions instead of stubbing them
+     */
+    public void setLazyStubs(LazyStubs lazyStubs)
+    {
+        m_lazyStubs = lazyStubs;
+    }
+    
+    /**
+     * Get the closure cache used by the prune.
+     * 
+     * @return the closure cache or null if functions are kept by counting their calls
+     */
+    public ClosureCache getClosureCache()
+    {
+        return m_closureCache;
+    }
+    
+    /**
+     * Set the closure cache used by the prune.  With a closure cache the prune keeps 
+     * exactly the functions reachable from the root calls and finds them in the closure
+     * table of the library instead of following the calls.  Tables are reused for every
+     * prune using the same cache and library.  Matching calls with their receivers 
+     * follows the calls instead.
+     * 
+     * @param closureCache the closure cache or null to keep functions by counting their calls
+     */
+    public void setClosureCache(ClosureCache closureCache)
+    {
+        m_closureCache = closureCache;
+    }
+    
+    /**
+     * Get the heap ceiling for pruning.
+     * 
+     * @return the heap ceiling in bytes or 0 if there isn't one
+     */
+    public long getHeapCeiling()
+    {
+        return m_heapCeiling;
+    }
+    
+    /**
+     * Set the heap ceiling for pruning.  When the library files are too big to prune in 
+     * this much heap the prune parses and prunes them one at a time so only one library tree
+     * is in memory at once.  This keeps the functions reachable from the main files and the
+     * externs the same way the closure cache does.  The streaming prune doesn't support 
+     * receiver aware matching or variable pruning.
+     * 
+     * @param heapCeiling the heap ceiling in bytes or 0 to always prune the library files together
+     */
+    public void setHeapCeiling(long heapCeiling)
+    {
+        m_heapCeiling = heapCeiling;
+    }
+    
     /**
      * Get the error manager for this compilation.  The error manager is never null, but it
      * can return a zero error count.
@@ -1292,6 +1947,12 @@ public class JSlim
             OutputStreamWriter out2 = new OutputStreamWriter(new BufferedOutputStream(zipOut), charset);
     
             IOUtils.write(contents, out2);
+            
+            /*
+             Closing the writer flushes the buffer and writes the end of
+             the GZIP stream
+             */
+            out2.close();
         } finally {
             if (out != null) {
                 out.close();
@@ -1299,50 +1960,32 @@ public class JSlim
         }
     }
     
-    /*public static void main(String[] args)
+    /**
+     * Get a hash of the specified contents.  The hash changes whenever the contents change
+     * so it can be used to name files which browsers can cache forever.
+     * 
+     * @param contents the contents to hash
+     * @param charset  the charset to use when reading the bytes of the contents
+     * 
+     * @return the SHA-1 hash of the contents as a hex string
+     * @exception IOException if the charset isn't supported
+     */
+    public static String getContentHash(String contents, String charset)
+        throws IOException
     {
         try {
-            JSlim slim = new JSlim();
-
-            File in = new File("main.js");
-
-            String mainJS = FileUtils.readFileToString(in, "UTF-8");
-            //String mainJS = FileUtils.readFileToString(new File("libs/easing/easing.js"), "UTF-8");
-            //slim.slim(mainJS, false);
-
-            //String libJS = FileUtils.readFileToString(new File("libs/jquery-ui-1.8.14.custom.min.js"), "UTF-8");
-            //String libJS = FileUtils.readFileToString(new File("libs/jquery.min.js"), "UTF-8");
-            //String libJS = FileUtils.readFileToString(new File("lib.js"), "UTF-8");
-            //String libJS = FileUtils.readFileToString(new File("libs/jquery-1.6.2.js"), "UTF-8");
-            //String libJS = FileUtils.readFileToString(new File("libs/easing/raphael.js"), "UTF-8");
-            //String libJS = FileUtils.readFileToString(new File("libs/chart/raphael.js"), "UTF-8");
-            //println("compiled code: " + slim.addLib(libJS));
-
-            slim.addSourceFile(new JSFile("main.js", mainJS, false));
-
-            slim.addSourceFile(new JSFile("jquery-1.6.2.js", FileUtils.readFileToString(new File("libs/jquery-1.6.2.js"), "UTF-8"), true));
-            slim.addSourceFile(new JSFile("underscore.js", FileUtils.readFileToString(new File("libs/underscore.js"), "UTF-8"), true));
-
-            //slim.addSourceFile(new JSFile("modernizr-2.0.6.js", FileUtils.readFileToString(new File("libs/modernizr/modernizr-2.0.6.js"), "UTF-8"), true));
-
-            File out = new File("out.js");
-            JSlim.writeGzip(plainCompile("out.js", slim.prune(), CompilationLevel.SIMPLE_OPTIMIZATIONS), out, "UTF-8");
-            //FileUtils.writeStringToFile(new File("out.js"), plainCompile(libJS));
-        } catch (Exception e) {
-            e.printStackTrace();
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte hash[] = digest.digest(contents.getBytes(charset));
+            
+            StringBuffer sb = new StringBuffer();
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
-    }*/
-}
-
-
-/**
- * This little console handler makes it possible to send Java logging to System.out 
- * instead of System.err.
- */
-class SlimConsoleHandler extends ConsoleHandler
-{
-    protected void setOutputStream(OutputStream out) throws SecurityException
-    {
-        super.setOutputStream(System.out);
     }
 }
@@ -0,0 +1,395 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * <p>
+ * The engine holds a JSlim configuration which can be shared by many prunes.  A JSlim 
+ * instance keeps the state of its prune so it can only be used once and only by one 
+ * thread.  The engine is immutable and each session it creates gets its own JSlim, so
+ * one engine can run any number of sessions at the same time on different threads.
+ * </p>
+ * 
+ * <p>
+ * Create an engine with the builder:
+ * </p>
+ * 
+ * <pre>
+ * JSlimEngine engine = new JSlimEngine.Builder()
+ *     .setCompilationLevel(CompilationLevel.SIMPLE_OPTIMIZATIONS)
+ *     .addExtern("sync")
+ *     .setClosureCache(new ClosureCache())
+ *     .build();
+ * </pre>
+ * 
+ * <p>
+ * The closure cache and the fragment cache are shared by all of the sessions so a library 
+ * is only analyzed once and code which doesn't change is only compiled once.
+ * The logging level is still set for the whole process with JSlim.setLoggingLevel.
+ * </p>
+ */
+public final class JSlimEngine
+{
+    private final CompilationLevel m_compLevel;
+    private final JSlim.FormattingOption m_formattingOptions;
+    private final String m_charset;
+    private final List<String> m_externs;
+    private final ClosureCache m_closureCache;
+    private final FragmentCache m_fragmentCache;
+    private final CompileCache m_compileCache;
+    private final String m_lazyStubsUrl;
+    private final boolean m_receiverAware;
+    private final boolean m_pruneVars;
+    private final boolean m_fastScan;
+    private final boolean m_lazyWalk;
+    private final long m_heapCeiling;
+    
+    private JSlimEngine(Builder builder)
+    {
+        m_compLevel = builder.m_compLevel;
+        m_formattingOptions = builder.m_formattingOptions;
+        m_charset = builder.m_charset;
+        m_externs = Collections.unmodifiableList(new ArrayList<String>(builder.m_externs));
+        m_closureCache = builder.m_closureCache;
+        m_fragmentCache = builder.m_fragmentCache;
+        m_compileCache = builder.m_compileCache;
+        m_lazyStubsUrl = builder.m_lazyStubsUrl;
+        m_receiverAware = builder.m_receiverAware;
+        m_pruneVars = builder.m_pruneVars;
+        m_fastScan = builder.m_fastScan;
+        m_lazyWalk = builder.m_lazyWalk;
+        m_heapCeiling = builder.m_heapCeiling;
+    }
+    
+    /**
+     * Start a new session with this engine's configuration.
+     * 
+     * @return the new session
+     */
+    public JSlimSession newSession()
+    {
+        JSlim slim = new JSlim();
+        slim.setFormattingOptions(m_formattingOptions);
+        slim.setCharset(m_charset);
+        slim.setClosureCache(m_closureCache);
+        slim.setReceiverAware(m_receiverAware);
+        slim.setPruneVars(m_pruneVars);
+        slim.setFastScan(m_fastScan);
+        slim.setLazyWalk(m_lazyWalk);
+        slim.setHeapCeiling(m_heapCeiling);
+        
+        if (m_lazyStubsUrl != null) {
+            slim.setLazyStubs(new LazyStubs(m_lazyStubsUrl));
+        }
+        
+        for (String extern : m_externs) {
+            slim.addExtern(extern);
+        }
+        
+        return new JSlimSession(this, slim);
+    }
+    
+    /**
+     * Get the compilation level for sessions of this engine.
+     * 
+     * @return the compilation level or null for no compilation
+     */
+    public CompilationLevel getCompilationLevel()
+    {
+        return m_compLevel;
+    }
+    
+    /**
+     * Get the formatting options for sessions of this engine.
+     * 
+     * @return the formatting options or null for none
+     */
+    public JSlim.FormattingOption getFormattingOptions()
+    {
+        return m_formattingOptions;
+    }
+    
+    /**
+     * Get the character set for sessions of this engine.
+     * 
+     * @return the character set
+     */
+    public String getCharset()
+    {
+        return m_charset;
+    }
+    
+    /**
+     * Get the externs every session of this engine starts with.
+     * 
+     * @return the externs in the order they were added
+     */
+    public List<String> getExterns()
+    {
+        return m_externs;
+    }
+    
+    /**
+     * Get the closure cache shared by the sessions of this engine.
+     * 
+     * @return the closure cache or null if there isn't one
+     */
+    public ClosureCache getClosureCache()
+    {
+        return m_closureCache;
+    }
+    
+    /**
+     * Get the fragment cache shared by the sessions of this engine.
+     * 
+     * @return the fragment cache or null if there isn't one
+     */
+    public FragmentCache getFragmentCache()
+    {
+        return m_fragmentCache;
+    }
+    
+    /**
+     * Get the compile cache shared by the sessions of this engine.
+     * 
+     * @return the compile cache or null if there isn't one
+     */
+    public CompileCache getCompileCache()
+    {
+        return m_compileCache;
+    }
+    
+    /**
+     * The builder collects the configuration of an engine.  A builder isn't thread safe,
+     * but the engines it builds are.
+     */
+    public static final class Builder
+    {
+        private CompilationLevel m_compLevel;
+        private JSlim.FormattingOption m_formattingOptions;
+        private String m_charset = "UTF-8";
+        private List<String> m_externs = new ArrayList<String>();
+        private ClosureCache m_closureCache;
+        private FragmentCache m_fragmentCache;
+        private CompileCache m_compileCache;
+        private String m_lazyStubsUrl;
+        private boolean m_receiverAware;
+        private boolean m_pruneVars;
+        private boolean m_fastScan;
+        private boolean m_lazyWalk;
+        private long m_heapCeiling;
+        
+        /**
+         * Set the compilation level.
+         * 
+         * @param compLevel the compilation level or null for no compilation
+         * 
+         * @return this builder
+         */
+        public Builder setCompilationLevel(CompilationLevel compLevel)
+        {
+            m_compLevel = compLevel;
+            return this;
+        }
+        
+        /**
+         * Set the formatting options.
+         * 
+         * @param options the formatting options or null for none
+         * 
+         * @return this builder
+         */
+        public Builder setFormattingOptions(JSlim.FormattingOption options)
+        {
+            m_formattingOptions = options;
+            return this;
+        }
+        
+        /**
+         * Set the character set of the files.  The default is UTF-8.
+         * 
+         * @param charset the character set
+         * 
+         * @return this builder
+         */
+        public Builder setCharset(String charset)
+        {
+            m_charset = charset;
+            return this;
+        }
+        
+        /**
+         * Add an extern every session starts with.
+         * 
+         * @param extern the external reference or pattern
+         * 
+         * @return this builder
+         * @see JSlim#addExtern(String)
+         */
+        public Builder addExtern(String extern)
+        {
+            m_externs.add(extern);
+            return this;
+        }
+        
+        /**
+         * Set the closure cache shared by all of the sessions.
+         * 
+         * @param closureCache the closure cache or null to not use one
+         * 
+         * @return this builder
+         * @see JSlim#setClosureCache(ClosureCache)
+         */
+        public Builder setClosureCache(ClosureCache closureCache)
+        {
+            m_closureCache = closureCache;
+            return this;
+        }
+        
+        /**
+         * Set the fragment cache shared by all of the sessions.  Sessions compile with it
+         * so code which didn't change since an earlier session isn't compiled again.
+         * 
+         * @param fragmentCache the fragment cache or null to not use one
+         * 
+         * @return this builder
+         * @see FragmentCache
+         */
+        public Builder setFragmentCache(FragmentCache fragmentCache)
+        {
+            m_fragmentCache = fragmentCache;
+            return this;
+        }
+        
+        /**
+         * Set the compile cache shared by all of the sessions.  A session which prunes to 
+         * the same code as an earlier session reads the compiled result from it.
+         * 
+         * @param compileCache the compile cache or null to not use one
+         * 
+         * @return this builder
+         * @see CompileCache
+         */
+        public Builder setCompileCache(CompileCache compileCache)
+        {
+            m_compileCache = compileCache;
+            return this;
+        }
+        
+        /**
+         * Replace removed functions with lazy stubs.  Each session gets its own stubs.
+         * 
+         * @param url    the URL of the remainder file or null to remove functions
+         * 
+         * @return this builder
+         * @see LazyStubs
+         */
+        public Builder setLazyStubsUrl(String url)
+        {
+            m_lazyStubsUrl = url;
+            return this;
+        }
+        
+        /**
+         * Set if calls are matched with the objects they are made on.
+         * 
+         * @param receiverAware true to match calls with their objects and false otherwise
+         * 
+         * @return this builder
+         * @see JSlim#setReceiverAware(boolean)
+         */
+        public Builder setReceiverAware(boolean receiverAware)
+        {
+            m_receiverAware = receiverAware;
+            return this;
+        }
+        
+        /**
+         * Set if unused variables and properties are removed.
+         * 
+         * @param pruneVars true to remove unused variables and false otherwise
+         * 
+         * @return this builder
+         * @see JSlim#setPruneVars(boolean)
+         */
+        public Builder setPruneVars(boolean pruneVars)
+        {
+            m_pruneVars = pruneVars;
+            return this;
+        }
+        
+        /**
+         * Set if the main files are scanned instead of parsed.
+         * 
+         * @param fastScan true to scan the main files and false otherwise
+         * 
+         * @return this builder
+         * @see JSlim#setFastScan(boolean)
+         */
+        public Builder setFastScan(boolean fastScan)
+        {
+            m_fastScan = fastScan;
+            return this;
+        }
+        
+        /**
+         * Set if function bodies are only walked once they are reachable.
+         * 
+         * @param lazyWalk true to use the lazy walk and false otherwise
+         * 
+         * @return this builder
+         * @see JSlim#setLazyWalk(boolean)
+         */
+        public Builder setLazyWalk(boolean lazyWalk)
+        {
+            m_lazyWalk = lazyWalk;
+            return this;
+        }
+        
+        /**
+         * Set the heap ceiling for the library files.
+         * 
+         * @param heapCeiling the ceiling in bytes or 0 for no ceiling
+         * 
+         * @return this builder
+         * @see JSlim#setHeapCeiling(long)
+         */
+        public Builder setHeapCeiling(long heapCeiling)
+        {
+            m_heapCeiling = heapCeiling;
+            return this;
+        }
+        
+        /**
+         * Build an engine with the current configuration.  Changing the builder later
+         * doesn't change the engine.
+         * 
+         * @return the new engine
+         */
+        public JSlimEngine build()
+        {
+            return new JSlimEngine(this);
+        }
+    }
+}
@@ -20,13 +20,15 @@ package com.grossbart.jslim;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
 
 import com.google.common.collect.Lists;
 import com.google.javascript.jscomp.CompilationLevel;
-import com.google.javascript.jscomp.ErrorManager;
 
 import org.apache.commons.io.FileUtils;
 import org.kohsuke.args4j.CmdLineException;
@@ -206,7 +208,13 @@ public class JSlimRunner
         handler = BooleanOptionHandler.class,
         usage = "Pass this argument to skip the pre-parse file validation step.  This is faster, but won't " +
                 "provide good error messages if the input files are invalid JavaScript.")
-    private boolean m_preparse = true;
+    private boolean m_skipValidate = false;
+    
+    @Option(name = "--fast_scan",
+        handler = BooleanOptionHandler.class,
+        usage = "Pass this argument with --no_validate to scan the main files for the names they use instead of " +
+            "parsing them.  This is much faster, but every name counts as a call so it can keep more functions.")
+    private boolean m_fastScan = false;
     
     @Option(name = "--separate_files",
         handler = BooleanOptionHandler.class,
@@ -214,6 +222,103 @@ public class JSlimRunner
             "By default they are combined into a single file.")
     private boolean m_separate = false;
     
+    @Option(name = "--entry",
+        usage = "A named entry point in the form name:file.js.  Specify this more than once to add files to an " +
+            "entry or to add more entries.  With entries the library is written as a shared chunk in the output " +
+            "file and one more chunk per entry, named after the entry, in the same directory.")
+    private List<String> m_entries = Lists.newArrayList();
+    
+    @Option(name = "--min_shared_entries",
+        usage = "The number of entries which must use a library function for it to go in the shared chunk. " +
+            "By default a function must be used by all entries.")
+    private int m_minSharedEntries = 0;
+    
+    @Option(name = "--vendor_chunks",
+        handler = BooleanOptionHandler.class,
+        usage = "Pass this argument to write each pruned library file separately, with a hash of its contents in " +
+            "the file name, next to the output file.  The output file gets the main files and a manifest lists " +
+            "all the files in load order.  ADVANCED_OPTIMIZATIONS renames functions across files so don't use it " +
+            "with this argument.")
+    private boolean m_vendorChunks = false;
+    
+    @Option(name = "--size_report",
+        usage = "A file to write a report of the size of each kept library function to.  The report also shows " +
+            "the shortest chain of calls from the main files or externs which keeps each function.")
+    private String m_sizeReport = null;
+    
+    @Option(name = "--instrument",
+        handler = BooleanOptionHandler.class,
+        usage = "Pass this argument to write the library files with coverage instrumentation instead of pruning " +
+            "them.  Load the page, use it, and save the result of __jslimCoverageProfile() as a coverage profile.  " +
+            "This only works with the WHITESPACE_ONLY and NONE compilation levels.")
+    private boolean m_instrument = false;
+    
+    @Option(name = "--coverage_profile",
+        usage = "A coverage profile with the name of a called function on each line.  The profiled functions " +
+            "and the externs replace the calls in the main files when deciding what to keep. You may specify multiple")
+    private List<String> m_profiles = Lists.newArrayList();
+    
+    @Option(name = "--lazy_stubs",
+        handler = BooleanOptionHandler.class,
+        usage = "Pass this argument to replace each removed function with a stub which loads the real function " +
+            "the first time it is called.  The removed functions are written to a .lazy.js file next to the output " +
+            "file.  This only works with the WHITESPACE_ONLY and NONE compilation levels.")
+    private boolean m_lazyStubs = false;
+    
+    @Option(name = "--lazy_url",
+        usage = "The URL the lazy stubs load the removed functions from.  By default this is the name of the " +
+            ".lazy.js file so it must be in the same directory as the page.")
+    private String m_lazyUrl = null;
+    
+    @Option(name = "--receiver_aware",
+        handler = BooleanOptionHandler.class,
+        usage = "Pass this argument to match calls like $.each to functions on the same object instead of every " +
+            "function named each.  Calls JSlim can't resolve still match every function with the same name.")
+    private boolean m_receiverAware = false;
+    
+    @Option(name = "--prune_vars",
+        handler = BooleanOptionHandler.class,
+        usage = "Pass this argument to also remove library variables and property assignments which nothing refers " +
+            "to.  Global variables used only from HTML or other scripts must be declared as externs.")
+    private boolean m_pruneVars = false;
+    
+    @Option(name = "--closure_cache",
+        usage = "A directory to cache the closure table of each library in.  With this argument JSlim keeps exactly " +
+            "the functions reachable from the main files and the externs and finds them in the closure table.")
+    private String m_closureCache = null;
+    
+    @Option(name = "--heap_ceiling",
+        usage = "The heap in megabytes the prune should fit in.  When the library files are too big for it JSlim " +
+            "prunes them one at a time and keeps the functions reachable from the main files and the externs.")
+    private int m_heapCeiling = 0;
+    
+    @Option(name = "--lazy_walk",
+        handler = BooleanOptionHandler.class,
+        usage = "Pass this argument to keep exactly the functions reachable from the main files and the externs and " +
+            "only walk the bodies of those functions.  This is faster for pages which use a small part of a library.")
+    private boolean m_lazyWalk = false;
+    
+    @Option(name = "--fragment_cache",
+        usage = "A directory to cache the compiled output of each top level statement in.  With WHITESPACE_ONLY " +
+            "and SIMPLE_OPTIMIZATIONS only the statements which changed since an earlier run are compiled again.")
+    private String m_fragmentCache = null;
+    
+    @Option(name = "--compile_cache",
+        usage = "A directory to cache the compiled output in.  When the pruned code and the options match an " +
+            "earlier run the output is read from the cache instead of compiled again.")
+    private String m_compileCache = null;
+    
+    @Option(name = "--compile_cache_size",
+        usage = "The most megabytes the compile cache directory can hold.  The outputs used least recently are " +
+            "deleted first.  The default is 64.")
+    private int m_compileCacheSize = 64;
+    
+    @Option(name = "--variant",
+        usage = "Another output from the same prune in the form LEVEL[,FORMATTING]:file.js, like " +
+            "WHITESPACE_ONLY,PRETTY_PRINT:app.debug.js.  LEVEL can be NONE.  The output file and the variants " +
+            "are compiled at the same time.  You may specify multiple")
+    private List<String> m_variants = Lists.newArrayList();
+    
     @Option(name = "--flagfile",
         usage = "A file containing additional command-line options.")
     private String m_flagFile = "";
@@ -281,6 +386,29 @@ public class JSlimRunner
         }
     }
     
+    /**
+     * Read in the coverage profiles if any were supplied and add the profiled calls to
+     * the compiler.
+     * 
+     * @param slim   the compiler
+     * 
+     * @exception IOException
+     *                   if there's an error reading the profile
+     */
+    private void readProfiles(JSlim slim)
+        throws IOException
+    {
+        for (String f : m_profiles) {
+            List<String> calls = FileUtils.readLines(new File(f), m_charset);
+            
+            for (String call : calls) {
+                if (call.trim().length() > 0) {
+                    slim.addProfiledCall(call.trim());
+                }
+            }
+        }
+    }
+    
     /**
      * Get the compilation level for the closure compilation.
      * 
@@ -299,6 +427,31 @@ public class JSlimRunner
         }
     }
     
+    /**
+     * Get the variants to compile from a single prune.  The first variant is the output file
+     * with the compilation level and formatting options of this run.
+     * 
+     * @param level  the compilation level or null to skip the closure compile
+     * 
+     * @return the variants or null if one of the variants was invalid
+     */
+    private List<CompileVariant> getVariants(CompilationLevel level)
+    {
+        List<CompileVariant> variants = new ArrayList<CompileVariant>();
+        variants.add(new CompileVariant(level, m_formatting, m_output));
+        
+        for (String variant : m_variants) {
+            try {
+                variants.add(CompileVariant.parse(variant));
+            } catch (IllegalArgumentException e) {
+                JSlim.getLogger().log(Level.SEVERE, e.getMessage());
+                return null;
+            }
+        }
+        
+        return variants;
+    }
+    
     /**
      * Call the prune process.
      * 
@@ -315,29 +468,112 @@ public class JSlimRunner
         JSlim.getLogger().log(Level.INFO, "Compiling with character set " + m_charset);
         slim.setCharset(m_charset);
         slim.setPrintTree(m_printTree);
+        slim.setReceiverAware(m_receiverAware);
+        slim.setPruneVars(m_pruneVars);
+        slim.setLazyWalk(m_lazyWalk);
+        
+        if (m_fastScan && !m_skipValidate) {
+            /*
+             Validating the main files parses them anyway
+             */
+            JSlim.getLogger().log(Level.INFO, "The main files are parsed because validation is on");
+        }
+        slim.setFastScan(m_fastScan && m_skipValidate);
+        
+        if (m_closureCache != null) {
+            slim.setClosureCache(new ClosureCache(new File(m_closureCache)));
+        }
+        
+        slim.setHeapCeiling(m_heapCeiling * 1024L * 1024L);
         
         CompilationLevel level = getCompilationLevel();
         
+        List<CompileVariant> variants = getVariants(level);
+        if (variants == null) {
+            return;
+        }
+        
         /*
          First we add the externs
          */
         readExterns(slim);
+        readProfiles(slim);
         
         /*
          Then we add the source files
          */
-        if (!addFiles(slim, m_js, false)) {
+        if (!addFiles(slim, m_js, m_libJs)) {
+            return;
+        }
+        
+        if (variants.size() > 1 && (!m_entries.isEmpty() || m_instrument || m_vendorChunks)) {
+            JSlim.getLogger().log(Level.WARNING, "Variants are only written for a single prune so they are ignored");
+        }
+        
+        if (!m_entries.isEmpty()) {
+            /*
+             With entries we split the library across them instead of 
+             doing a single prune
+             */
+            split(slim, level);
+            return;
+        }
+        
+        if (m_instrument) {
+            /*
+             Instrumenting the library replaces the prune.  The closure
+             optimizations would inline and rename the coverage calls.
+             */
+            if (level == CompilationLevel.SIMPLE_OPTIMIZATIONS || level == CompilationLevel.ADVANCED_OPTIMIZATIONS) {
+                JSlim.getLogger().log(Level.SEVERE, "Instrumenting only works with the WHITESPACE_ONLY and NONE compilation levels");
+                return;
+            }
+            
+            String result = slim.instrument(level);
+            if (result == null) {
+                slim.getErrorManager().generateReport();
+                return;
+            }
+            
+            if (!m_separate) {
+                result = result + "\n" + m_mainFiles;
+            }
+            
+            writeResult(compile(result, m_output, level), m_output);
             return;
         }
         
-        if (!addFiles(slim, m_libJs, true)) {
+        if (m_vendorChunks) {
+            writeLibraries(slim, level);
+            writeSizeReport(slim);
             return;
         }
         
+        File lazyFile = null;
+        if (m_lazyStubs) {
+            if (m_output == null) {
+                JSlim.getLogger().log(Level.SEVERE, "You must specify an output file when using lazy stubs");
+                return;
+            }
+            
+            for (CompileVariant variant : variants) {
+                if (variant.getLevel() == CompilationLevel.SIMPLE_OPTIMIZATIONS || 
+                    variant.getLevel() == CompilationLevel.ADVANCED_OPTIMIZATIONS) {
+                    JSlim.getLogger().log(Level.SEVERE, "Lazy stubs only work with the WHITESPACE_ONLY and NONE compilation levels");
+                    return;
+                }
+            }
+            
+            File out = new File(m_output).getAbsoluteFile();
+            lazyFile = new File(out.getParentFile(), getBaseName(out.getName()) + ".lazy.js");
+            slim.setLazyStubs(new LazyStubs(m_lazyUrl == null ? lazyFile.getName() : m_lazyUrl));
+        }
+        
         /*
          Then we can call the prune process
          */
         String result = slim.prune(level);
+        writeSizeReport(slim);
         
         if (!m_separate) {
             /*
@@ -351,27 +587,75 @@ public class JSlimRunner
             slim.setFormattingOptions(m_formatting);
         }
         
-        if (level != null) {
-            /*
-             Then we run the results through the normal compilation process
-             to make them even smaller
-             */
-            JSlim.getLogger().log(Level.INFO, "Starting closure compile with compile level " + level);
-            result = JSlim.plainCompile(m_output, result, level, m_formatting);
-        }
-        
         /*
-         Then we can write out the results
+         Then we run the results through the normal compilation process
+         to make them even smaller and write them out.  Each variant is
+         compiled from the same pruned result.
          */
-        if (m_output == null) {
+        FragmentCache cache = m_fragmentCache == null ? null : new FragmentCache(new File(m_fragmentCache));
+        CompileCache compiled = m_compileCache == null ? null : 
+            new CompileCache(new File(m_compileCache), CompileCache.DEFAULT_MAX_ENTRIES, m_compileCacheSize * 1024L * 1024L);
+        List<String> results = CompileVariant.compileAll(result, variants, Runtime.getRuntime().availableProcessors(), 
+                                                         cache, compiled);
+        if (cache != null) {
+            JSlim.getLogger().log(Level.INFO, cache.toString());
+        }
+        if (compiled != null) {
+            JSlim.getLogger().log(Level.INFO, compiled.toString());
+        }
+        for (int i = 0; i < variants.size(); i++) {
+            if (!writeResult(results.get(i), variants.get(i).getOutput())) {
+                return;
+            }
+        }
+        
+        if (lazyFile != null) {
+            writeResult(slim.getLazyStubs().getRemainder(), lazyFile.getPath());
+        }
+    }
+    
+    /**
+     * Write the size report for the last prune if one was requested.
+     * 
+     * @param slim   the compiler which ran the prune
+     * 
+     * @exception IOException
+     *                   if there's an error writing the report
+     */
+    private void writeSizeReport(JSlim slim)
+        throws IOException
+    {
+        if (m_sizeReport == null) {
+            return;
+        }
+        
+        JSlim.getLogger().log(Level.INFO, "Writing size report " + m_sizeReport);
+        SizeReport report = slim.createSizeReport(Runtime.getRuntime().availableProcessors());
+        FileUtils.writeStringToFile(new File(m_sizeReport), report.getReport(), m_charset);
+    }
+    
+    /**
+     * Write out the results of a compile.
+     * 
+     * @param result the contents to write
+     * @param output the file to write to or null to write to System.out
+     * 
+     * @return true if the results were written and false otherwise
+     * @exception IOException
+     *                   if there's an error writing the file
+     */
+    private boolean writeResult(String result, String output)
+        throws IOException
+    {
+        if (output == null) {
             System.out.println(result);
         } else {
-            File out = new File(m_output).getAbsoluteFile();
+            File out = new File(output).getAbsoluteFile();
             JSlim.getLogger().log(Level.INFO, "Writing to file " + out);
             if (!out.getParentFile().exists()) {
                 JSlim.getLogger().log(Level.SEVERE, 
                                       "The specified output directory " + out.getParent() + " does not exist");
-                return;
+                return false;
             }
             
             FileUtils.writeStringToFile(out, result);
@@ -382,51 +666,288 @@ public class JSlimRunner
             }
         }
         
+        return true;
+    }
+    
+    /**
+     * Split the library files across the entry points and write out the shared chunk and
+     * the chunk for each entry.
+     * 
+     * @param slim   the compiler with the externs and library files added
+     * @param level  the compilation level or null to skip the closure compile
+     * 
+     * @exception IOException
+     *                   if there's an error reading or writing the files
+     */
+    private void split(JSlim slim, CompilationLevel level)
+        throws IOException
+    {
+        if (m_output == null) {
+            JSlim.getLogger().log(Level.SEVERE, "You must specify an output file when using entries");
+            return;
+        }
+        
+        Map<String, StringBuffer> mainFiles = new LinkedHashMap<String, StringBuffer>();
+        for (String entry : m_entries) {
+            int index = entry.indexOf(':');
+            if (index < 1) {
+                JSlim.getLogger().log(Level.SEVERE, "The entry " + entry + " must be in the form name:file.js");
+                return;
+            }
+            
+            String name = entry.substring(0, index);
+            JSFile file = readFile(entry.substring(index + 1), false);
+            if (file == null) {
+                return;
+            }
+            
+            slim.addEntryFile(name, file);
+            
+            if (!mainFiles.containsKey(name)) {
+                mainFiles.put(name, new StringBuffer());
+            }
+            mainFiles.get(name).append(file.getContent() + "\n");
+        }
+        
+        ChunkSet chunks = slim.split(level, m_minSharedEntries);
+        if (chunks == null) {
+            slim.getErrorManager().generateReport();
+            return;
+        }
+        
+        File dir = new File(m_output).getAbsoluteFile().getParentFile();
         
+        if (!writeResult(compile(chunks.getSharedChunk(), m_output, level), m_output)) {
+            return;
+        }
+        
+        for (String entry : chunks.getEntryNames()) {
+            String result = chunks.getEntryChunk(entry);
+            if (!m_separate) {
+                result = result + "\n" + mainFiles.get(entry);
+            }
+            
+            String output = new File(dir, entry + ".js").getPath();
+            if (!writeResult(compile(result, output, level), output)) {
+                return;
+            }
+        }
     }
     
     /**
-     * Add files for compilation.
+     * Prune the library files and write each one out to a separate file along with a
+     * manifest of all the files in the order they should be loaded.
      * 
-     * @param slim   the compiler instance
-     * @param files  the files to add
-     * @param isLib  if these files are library files
+     * @param slim   the compiler with the externs and source files added
+     * @param level  the compilation level or null to skip the closure compile
      * 
-     * @return true if the files were properly validated or false otherwise
      * @exception IOException
-     *                   if there is an error reading the files
+     *                   if there's an error reading or writing the files
      */
-    private boolean addFiles(JSlim slim, List<String> files, boolean isLib)
+    private void writeLibraries(JSlim slim, CompilationLevel level)
         throws IOException
     {
-        for (String file : files) {
-            File f = new File(file);
-            String contents = FileUtils.readFileToString(f, m_charset);
+        if (m_output == null) {
+            JSlim.getLogger().log(Level.SEVERE, "You must specify an output file when using vendor chunks");
+            return;
+        }
+        
+        File out = new File(m_output).getAbsoluteFile();
+        List<String> manifest = Lists.newArrayList();
+        
+        Map<String, String> libs = slim.pruneLibraries(level);
+        for (Map.Entry<String, String> lib : libs.entrySet()) {
+            String result = compile(lib.getValue(), lib.getKey(), level);
             
-            if (m_preparse) {
-                ErrorManager mgr = slim.validate(f.getAbsolutePath(), contents, m_formatting);
-                if (mgr.getErrorCount() != 0) {
-                    mgr.generateReport();
-                    return false;
-                }
+            /*
+             The hash in the file name means the file name only changes
+             when the pruned library does so browsers can keep caching
+             libraries which didn't change.
+             */
+            String name = getBaseName(lib.getKey()) + "." + 
+                JSlim.getContentHash(result, m_charset).substring(0, 8) + ".js";
+            if (!writeResult(result, new File(out.getParentFile(), name).getPath())) {
+                return;
             }
             
-            if (!m_separate && !isLib) {
-                m_mainFiles.append(contents + "\n");
+            manifest.add(name);
+        }
+        
+        if (!m_separate) {
+            if (!writeResult(compile(m_mainFiles.toString(), m_output, level), m_output)) {
+                return;
             }
             
-            if (isLib) {
-                JSlim.getLogger().log(Level.INFO, "Adding library file: " + f.getAbsoluteFile());
-            } else {
-                JSlim.getLogger().log(Level.INFO, "Adding main file: " + f.getAbsoluteFile());
+            manifest.add(out.getName());
+        }
+        
+        StringBuffer sb = new StringBuffer();
+        sb.append("[\n");
+        for (int i = 0; i < manifest.size(); i++) {
+            sb.append("    \"" + manifest.get(i).replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+            sb.append(i < manifest.size() - 1 ? ",\n" : "\n");
+        }
+        sb.append("]\n");
+        
+        File manifestFile = new File(out.getParentFile(), getBaseName(out.getName()) + ".manifest.json");
+        JSlim.getLogger().log(Level.INFO, "Writing manifest " + manifestFile);
+        FileUtils.writeStringToFile(manifestFile, sb.toString(), m_charset);
+    }
+    
+    /**
+     * Get the name of the file without the extension.
+     * 
+     * @param name   the file name
+     * 
+     * @return the name without the extension
+     */
+    private static String getBaseName(String name)
+    {
+        int index = name.lastIndexOf('.');
+        if (index > 0) {
+            return name.substring(0, index);
+        } else {
+            return name;
+        }
+    }
+    
+    /**
+     * Run the results through the closure compiler if there is a compilation level.
+     * 
+     * @param result the code to compile
+     * @param output the name of the output file
+     * @param level  the compilation level or null to skip the closure compile
+     * 
+     * @return the compiled code
+     */
+    private String compile(String result, String output, CompilationLevel level)
+    {
+        if (level == null) {
+            return result;
+        }
+        
+        JSlim.getLogger().log(Level.INFO, "Starting closure compile of " + output + " with compile level " + level);
+        return JSlim.plainCompile(output, result, level, m_formatting);
+    }
+    
+    /**
+     * Add files for compilation.  All of the files are read and validated at the same time
+     * and then added in order with the main files first.
+     * 
+     * @param slim      the compiler instance
+     * @param mainFiles the main files to add
+     * @param libFiles  the library files to add
+     * 
+     * @return true if the files were properly validated or false otherwise
+     * @exception IOException
+     *                   if there is an error reading the files
+     */
+    private boolean addFiles(JSlim slim, List<String> mainFiles, List<String> libFiles)
+        throws IOException
+    {
+        List<String> files = new ArrayList<String>(mainFiles);
+        files.addAll(libFiles);
+        
+        /*
+         With a heap ceiling the library files are read from disk again
+         each time they're parsed so there is no reason to keep them
+         */
+        int kept = m_heapCeiling > 0 ? mainFiles.size() : files.size();
+        List<SourceReader.Source> sources = getSourceReader().readAll(files, kept);
+        
+        /*
+         We report the errors from every file in the order of the
+         files so the report is the same no matter which file was
+         read first
+         */
+        boolean valid = true;
+        for (SourceReader.Source source : sources) {
+            if (source.hasErrors()) {
+                source.report();
+                valid = false;
+            }
+        }
+        
+        if (!valid) {
+            return false;
+        }
+        
+        for (int i = 0; i < sources.size(); i++) {
+            boolean isLib = i >= mainFiles.size();
+            JSFile f = createFile(sources.get(i), isLib);
+            
+            if (!m_separate && !isLib) {
+                m_mainFiles.append(f.getContent() + "\n");
             }
             
-            slim.addSourceFile(new JSFile(f.getName(), contents, isLib));
+            slim.addSourceFile(f);
         }
         
         return true;
     }
     
+    /**
+     * Read and validate a single file.
+     * 
+     * @param file   the file to read
+     * @param isLib  if this file is a library file
+     * 
+     * @return the file or null if the file wasn't valid
+     * @exception IOException
+     *                   if there is an error reading the file
+     */
+    private JSFile readFile(String file, boolean isLib)
+        throws IOException
+    {
+        SourceReader.Source source = getSourceReader().read(file);
+        if (source.hasErrors()) {
+            source.report();
+            return null;
+        }
+        
+        return createFile(source, isLib);
+    }
+    
+    /**
+     * Get a reader for the source files with the charset and formatting of this run.
+     * 
+     * @return the source reader
+     */
+    private SourceReader getSourceReader()
+    {
+        return new SourceReader(m_charset, !m_skipValidate, m_formatting);
+    }
+    
+    /**
+     * Create the compiler file for a source which was read and validated.
+     * 
+     * @param source the source
+     * @param isLib  if this file is a library file
+     * 
+     * @return the file
+     */
+    private JSFile createFile(SourceReader.Source source, boolean isLib)
+    {
+        File f = source.getFile();
+        String contents = source.getContents();
+        
+        if (isLib) {
+            JSlim.getLogger().log(Level.INFO, "Adding library file: " + f.getAbsoluteFile());
+        } else {
+            JSlim.getLogger().log(Level.INFO, "Adding main file: " + f.getAbsoluteFile());
+        }
+        
+        if (isLib && m_heapCeiling > 0) {
+            /*
+             With a heap ceiling we read the library again each time
+             we parse it instead of keeping it in memory
+             */
+            return new JSFile(f.getName(), f, m_charset, isLib);
+        }
+        
+        return new JSFile(f.getName(), contents, isLib);
+    }
+    
     /**
      * Print the usage of this class.
      * 
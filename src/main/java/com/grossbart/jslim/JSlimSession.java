@@ -0,0 +1,181 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.Closeable;
+
+import com.google.javascript.jscomp.ErrorManager;
+
+/**
+ * A session runs one prune with the configuration of its engine.  Sessions from the same
+ * engine don't share any state except the closure cache, so they can run at the same 
+ * time on different threads.  A single session should only be used by one thread.
+ * 
+ * Closing the session drops the JSlim instance and with it every reference to the parsed 
+ * trees, so a long running process doesn't keep them after the session is done.
+ */
+public final class JSlimSession implements Closeable
+{
+    private JSlimEngine m_engine;
+    private JSlim m_slim;
+    private boolean m_pruned;
+    
+    /**
+     * Create a new JSlimSession.
+     * 
+     * @param engine the engine which created this session
+     * @param slim   the compiler configured by the engine
+     */
+    JSlimSession(JSlimEngine engine, JSlim slim)
+    {
+        m_engine = engine;
+        m_slim = slim;
+    }
+    
+    /**
+     * Add a source file to this session.
+     * 
+     * @param file   the file to add
+     * 
+     * @exception IllegalStateException if the session has already pruned or is closed
+     */
+    public void addSourceFile(JSFile file)
+    {
+        checkNotPruned();
+        m_slim.addSourceFile(file);
+    }
+    
+    /**
+     * Add an external reference for this session only.
+     * 
+     * @param extern the external reference or pattern
+     * 
+     * @exception IllegalStateException if the session has already pruned or is closed
+     * @see JSlim#addExtern(String)
+     */
+    public void addExtern(String extern)
+    {
+        checkNotPruned();
+        m_slim.addExtern(extern);
+    }
+    
+    /**
+     * Prune the library files in this session.  A session can only prune once.
+     * 
+     * @return the pruned library files
+     * 
+     * @exception IllegalStateException if the session has already pruned or is closed
+     */
+    public String prune()
+    {
+        checkNotPruned();
+        m_pruned = true;
+        return m_slim.prune(m_engine.getCompilationLevel());
+    }
+    
+    /**
+     * Prune the library files in this session and compile the result with the compilation
+     * level, formatting options, and fragment cache of the engine.
+     * 
+     * @param name   the name of the compiled file
+     * 
+     * @return the compiled result
+     * 
+     * @exception IllegalStateException if the session has already pruned or is closed
+     */
+    public String compile(String name)
+    {
+        String result = prune();
+        return new CompileVariant(m_engine.getCompilationLevel(), m_engine.getFormattingOptions(), name)
+            .compile(result, m_engine.getFragmentCache(), m_engine.getCompileCache());
+    }
+    
+    /**
+     * Get the names of the library functions the prune kept.
+     * 
+     * @return the kept function names
+     * 
+     * @exception IllegalStateException if the session is closed
+     */
+    public String[] getKeptFunctions()
+    {
+        return getSlim().getKeptFunctions();
+    }
+    
+    /**
+     * Get the number of named functions in the library files before the prune.
+     * 
+     * @return the function count
+     * 
+     * @exception IllegalStateException if the session is closed
+     */
+    public int getTotalFunctionCount()
+    {
+        return getSlim().getTotalFunctionCount();
+    }
+    
+    /**
+     * Get the lazy stubs of this session.
+     * 
+     * @return the lazy stubs or null if the engine doesn't use them
+     * 
+     * @exception IllegalStateException if the session is closed
+     */
+    public LazyStubs getLazyStubs()
+    {
+        return getSlim().getLazyStubs();
+    }
+    
+    /**
+     * Get the error manager with the errors from parsing the files.
+     * 
+     * @return the error manager
+     * 
+     * @exception IllegalStateException if the session is closed
+     */
+    public ErrorManager getErrorManager()
+    {
+        return getSlim().getErrorManager();
+    }
+    
+    /**
+     * Close this session and release the parsed trees.  Closing a session more than once
+     * does nothing.
+     */
+    @Override
+    public void close()
+    {
+        m_slim = null;
+    }
+    
+    private JSlim getSlim()
+    {
+        if (m_slim == null) {
+            throw new IllegalStateException("This session is closed");
+        }
+        
+        return m_slim;
+    }
+    
+    private void checkNotPruned()
+    {
+        if (getSlim() != null && m_pruned) {
+            throw new IllegalStateException("This session has already pruned");
+        }
+    }
+}
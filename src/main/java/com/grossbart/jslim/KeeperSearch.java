@@ -0,0 +1,194 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.javascript.rhino.Node;
+
+/**
+ * The keeper search finds the keepers of a large library with a search of its call graph
+ * instead of following each call recursively.  It doesn't look up each call in the list
+ * of examined calls so it scales with the size of the library.  Finding the calls of each
+ * function and the graph search both run on the threads of a fork join pool.  Adding the
+ * functions to the graph and collecting the keepers stay on one thread, so the speedup 
+ * from more processors is limited by that part.  ScalingBenchmark cores measures it.
+ */
+final class KeeperSearch
+{
+    /*
+     The number of functions one task finds the calls of before it
+     splits.  Finding the calls of a function walks its whole body so
+     this is much smaller than the size of a graph search task.
+     */
+    private static final int TASK_SIZE = 256;
+    
+    private KeeperSearch()
+    {
+    }
+    
+    /**
+     * Find the keepers for the specified root calls.  This returns the same list of 
+     * functions as following each call with JSlim.findKeepers.  That adds a function once
+     * for each call with a different receiver which matches it and removing the calls 
+     * of a function later only removes one of them, so we keep the same count here.  
+     * Only the order of the functions is different.
+     * 
+     * @param slim   the JSlim instance to find the calls of each function with
+     * @param funcs  all of the functions calls can match
+     * @param calls  the root calls
+     * @param pool   the pool to search with or null to search on this thread
+     * 
+     * @return the keepers
+     */
+    static List<Node> findKeepers(JSlim slim, List<Node> funcs, CallList calls, ForkJoinPool pool)
+    {
+        /*
+         Finding the calls only reads the tree so each function can be
+         done on a different thread.  The graph isn't thread safe so we
+         add the functions to it afterward in order.
+         */
+        Call funcCalls[][] = new Call[funcs.size()][];
+        String names[][] = new String[funcs.size()][];
+        FindCalls task = new FindCalls(slim, funcs, funcCalls, names, 0, funcs.size());
+        if (pool == null || pool.getParallelism() < 2 || funcs.size() < CallGraph.PARALLEL_THRESHOLD) {
+            task.findCalls();
+        } else {
+            pool.invoke(task);
+        }
+        
+        CallGraph graph = new CallGraph();
+        for (int i = 0; i < funcCalls.length; i++) {
+            graph.addFunction(funcs.get(i), Arrays.asList(names[i]), funcCalls[i]);
+        }
+        
+        List<String> roots = new ArrayList<String>();
+        for (int id = 0; id < calls.size(); id++) {
+            roots.add(calls.getName(id));
+        }
+        
+        /*
+         The examined calls are the root calls and the calls made by 
+         every function we reached
+         */
+        BitSet reachable = graph.findReachable(roots, pool);
+        CallList examined = new CallList();
+        examined.addAll(calls);
+        for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+            for (Call call : funcCalls[i]) {
+                examined.add(call.getName(), call.getReceiver());
+            }
+        }
+        
+        /*
+         The examined list only has distinct calls so the count of each
+         name is the number of different receivers it was called with
+         */
+        CallList receivers = new CallList();
+        for (int id = 0; id < examined.size(); id++) {
+            receivers.add(examined.getName(id), null);
+        }
+        
+        List<Node> keepers = new ArrayList<Node>();
+        for (int id = 0; id < receivers.size(); id++) {
+            int nameId = graph.getSymbols().getId(receivers.getName(id));
+            if (nameId == -1) {
+                continue;
+            }
+            
+            for (int pos = graph.getNameStart(nameId); pos < graph.getNameEnd(nameId); pos++) {
+                for (int i = 0; i < receivers.getCount(id); i++) {
+                    keepers.add(graph.getFunction(graph.getNameFunction(pos)));
+                }
+            }
+        }
+        
+        return keepers;
+    }
+    
+    /**
+     * This task finds the calls and the distinct names of part of the functions.
+     */
+    private static final class FindCalls extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final JSlim m_slim;
+        private final List<Node> m_funcs;
+        private final Call m_calls[][];
+        private final String m_names[][];
+        private final int m_start;
+        private final int m_end;
+        
+        /**
+         * Create a new FindCalls task.
+         * 
+         * @param slim   the JSlim instance to find the calls with
+         * @param funcs  all of the functions
+         * @param calls  the array to set the calls of each function in
+         * @param names  the array to set the names of each function in
+         * @param start  the index of the first function of this task
+         * @param end    the index after the last function of this task
+         */
+        private FindCalls(JSlim slim, List<Node> funcs, Call calls[][], String names[][], int start, int end)
+        {
+            m_slim = slim;
+            m_funcs = funcs;
+            m_calls = calls;
+            m_names = names;
+            m_start = start;
+            m_end = end;
+        }
+        
+        /**
+         * Find the calls of this task's functions or split them with another task.
+         */
+        @Override
+        protected void compute()
+        {
+            if (m_end - m_start > TASK_SIZE) {
+                int mid = (m_start + m_end) >>> 1;
+                invokeAll(new FindCalls(m_slim, m_funcs, m_calls, m_names, m_start, mid),
+                          new FindCalls(m_slim, m_funcs, m_calls, m_names, mid, m_end));
+            } else {
+                findCalls();
+            }
+        }
+        
+        /**
+         * Find the calls of this task's functions on this thread.
+         */
+        private void findCalls()
+        {
+            for (int i = m_start; i < m_end; i++) {
+                Node func = m_funcs.get(i);
+                m_calls[i] = m_slim.findCalls(func);
+                
+                Set<String> names = new LinkedHashSet<String>(FunctionNames.getNames(func));
+                m_names[i] = names.toArray(new String[names.size()]);
+            }
+        }
+    }
+}
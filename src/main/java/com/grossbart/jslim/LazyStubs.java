@@ -0,0 +1,185 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * Lazy stubs replace the body of each removed function with a small stub instead of 
+ * removing the function.  The first time any stub is called it loads the remainder chunk
+ * with a synchronous request.  The remainder chunk has the source of every removed 
+ * function and the stub evaluates the real function in its own scope so the real
+ * function can still use the variables of the closure it was defined in.
+ * 
+ * The stubs count how often each one is called in __jslimLazy.fired so you can tell
+ * when the prune missed a function.  The real function is evaluated every time the stub
+ * is called so stubs are much slower than the functions they replace.
+ * 
+ * Local variable names must stay the same for the stubs to work so the output can't be
+ * compiled with SIMPLE_OPTIMIZATIONS or ADVANCED_OPTIMIZATIONS.
+ */
+public class LazyStubs
+{
+    private static final String LAZY = "__jslimLazy";
+    
+    private String m_url;
+    private List<String> m_sources = new ArrayList<String>();
+    
+    /**
+     * Create a new LazyStubs.
+     * 
+     * @param url    the URL the stubs load the remainder chunk from
+     */
+    public LazyStubs(String url)
+    {
+        m_url = url;
+    }
+    
+    /**
+     * Replace the body of the specified function with a stub.
+     * 
+     * @param func   the function to replace
+     * @param name   the name of the function
+     * @param source the source of the function
+     */
+    public void stub(Node func, String name, String source)
+    {
+        source = source.trim();
+        if (source.endsWith(";")) {
+            source = source.substring(0, source.length() - 1);
+        }
+        
+        int id = m_sources.size();
+        m_sources.add(source);
+        
+        /*
+         The stub looks like this:
+            return eval(__jslimLazy.load(id, "name")).apply(this, arguments);
+         */
+        Node eval = Node.newString(Token.NAME, "eval");
+        eval.putBooleanProp(Node.DIRECT_EVAL, true);
+        
+        Node load = new Node(Token.CALL, 
+                             new Node(Token.GETPROP, Node.newString(Token.NAME, LAZY), Node.newString("load")),
+                             Node.newNumber(id), Node.newString(name));
+        
+        Node apply = new Node(Token.CALL, 
+                              new Node(Token.GETPROP, new Node(Token.CALL, eval, load), Node.newString("apply")),
+                              new Node(Token.THIS), Node.newString(Token.NAME, "arguments"));
+        
+        func.replaceChild(func.getLastChild(), new Node(Token.BLOCK, new Node(Token.RETURN, apply)));
+    }
+    
+    /**
+     * Get the number of stubs which have been added.
+     * 
+     * @return the number of stubs
+     */
+    public int size()
+    {
+        return m_sources.size();
+    }
+    
+    /**
+     * Get the JavaScript which loads the remainder chunk for the stubs.  It must be loaded
+     * before the stubbed code.
+     * 
+     * @return the stub header
+     */
+    public String getHeader()
+    {
+        return "var " + LAZY + " = {\n" +
+            "    url: " + quote(m_url) + ",\n" +
+            "    sources: null,\n" +
+            "    fired: {},\n" +
+            "    count: 0,\n" +
+            "    load: function(id, name) {\n" +
+            "        " + LAZY + ".count++;\n" +
+            "        " + LAZY + ".fired[name] = (" + LAZY + ".fired[name] || 0) + 1;\n" +
+            "        if (!" + LAZY + ".sources) {\n" +
+            "            var xhr = window.XMLHttpRequest ? new XMLHttpRequest() : new ActiveXObject(\"Microsoft.XMLHTTP\");\n" +
+            "            xhr.open(\"GET\", " + LAZY + ".url, false);\n" +
+            "            xhr.send(null);\n" +
+            "            " + LAZY + ".sources = eval(\"(\" + xhr.responseText + \")\");\n" +
+            "        }\n" +
+            "        return \"(\" + " + LAZY + ".sources[id] + \")\";\n" +
+            "    }\n" +
+            "};\n";
+    }
+    
+    /**
+     * Get the remainder chunk with the source of every stubbed function.  The chunk is a 
+     * JSON array indexed by the stub ID.
+     * 
+     * @return the remainder chunk
+     */
+    public String getRemainder()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append("[");
+        for (int i = 0; i < m_sources.size(); i++) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            sb.append(quote(m_sources.get(i)));
+        }
+        sb.append("]\n");
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Quote the specified string as a JavaScript string literal.
+     * 
+     * @param s      the string to quote
+     * 
+     * @return the quoted string
+     */
+    private static String quote(String s)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+        
+        return sb.toString();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "LazyStubs: " + m_sources.size() + " stubs";
+    }
+}
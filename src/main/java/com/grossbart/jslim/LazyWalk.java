@@ -0,0 +1,218 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * The lazy walk finds the keepers without walking the whole library tree.  It starts by 
+ * indexing the interesting functions which aren't inside other interesting functions and
+ * finding the calls the library makes when it loads.  Then it follows the calls from the 
+ * roots and only walks the body of a function once something calls it.  That finds the
+ * calls the function makes and the interesting functions nested in it.
+ * 
+ * Functions nested in a function nothing calls are never indexed.  They go away when we 
+ * remove the function around them so their calls don't keep anything.
+ */
+final class LazyWalk
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    private JSlim m_slim;
+    
+    private List<Node> m_funcs = new ArrayList<Node>();
+    private Set<Node> m_indexed = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+    private Set<Node> m_keepers = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+    private List<Node> m_keeperList = new ArrayList<Node>();
+    private Map<String, List<Node>> m_names = new HashMap<String, List<Node>>();
+    
+    private Set<String> m_examined = new HashSet<String>();
+    private LinkedList<String> m_calls = new LinkedList<String>();
+    
+    private int m_walked;
+    
+    /**
+     * Create a new LazyWalk.
+     * 
+     * @param slim   the compiler to find the calls with
+     */
+    LazyWalk(JSlim slim)
+    {
+        m_slim = slim;
+    }
+    
+    /**
+     * Find the interesting functions reachable from the root calls.
+     * 
+     * @param root      the root of the library tree
+     * @param mainCalls the calls from the main files and the externs
+     */
+    void walk(Node root, List<Call> mainCalls)
+    {
+        CallList roots = new CallList();
+        roots.addAll(mainCalls);
+        m_slim.findRootCalls(root, roots);
+        for (int id = 0; id < roots.size(); id++) {
+            m_calls.add(roots.getName(id));
+        }
+        
+        index(root);
+        
+        while (!m_calls.isEmpty()) {
+            String name = m_calls.removeFirst();
+            if (!m_examined.add(name) || !m_names.containsKey(name)) {
+                continue;
+            }
+            
+            for (Node func : new ArrayList<Node>(m_names.get(name))) {
+                reach(func);
+            }
+        }
+        
+        LOGGER.log(Level.INFO, "Walked " + m_walked + " out of " + m_funcs.size() + " indexed functions");
+    }
+    
+    /**
+     * Index the interesting functions under the specified node without walking into them.
+     * 
+     * @param node   the node to look under
+     */
+    private void index(Node node)
+    {
+        for (Node n : node.children()) {
+            if (n.getType() == Token.FUNCTION && FunctionNames.isInterestingFunction(n)) {
+                addFunction(n);
+            } else {
+                index(n);
+            }
+        }
+    }
+    
+    /**
+     * Add an interesting function to the index.  Like process, an assignment chain in
+     * front of the function is a separate entry if it assigns another assignment.
+     * 
+     * @param func   the function
+     */
+    private void addFunction(Node func)
+    {
+        List<Node> entries = new ArrayList<Node>();
+        entries.add(func);
+        
+        Node parent = func.getParent();
+        while (parent != null && parent.getType() == Token.ASSIGN) {
+            if (parent.getFirstChild().getNext().getType() != Token.FUNCTION) {
+                entries.add(parent);
+            }
+            
+            parent = parent.getParent();
+        }
+        
+        for (Node entry : entries) {
+            if (!m_indexed.add(entry)) {
+                continue;
+            }
+            
+            m_funcs.add(entry);
+            
+            boolean reached = false;
+            for (String name : new LinkedHashSet<String>(FunctionNames.getNames(entry))) {
+                List<Node> funcs = m_names.get(name);
+                if (funcs == null) {
+                    funcs = new ArrayList<Node>();
+                    m_names.put(name, funcs);
+                }
+                
+                funcs.add(entry);
+                reached = reached || m_examined.contains(name) || m_slim.matchesExtern(name, entry);
+            }
+            
+            if (reached) {
+                /*
+                 We already followed a call to this name before we found
+                 this function
+                 */
+                reach(entry);
+            }
+        }
+    }
+    
+    /**
+     * Keep the specified function and walk its body for calls and nested functions.
+     * 
+     * @param func   the function
+     */
+    private void reach(Node func)
+    {
+        if (!m_keepers.add(func)) {
+            return;
+        }
+        
+        m_keeperList.add(func);
+        m_walked++;
+        
+        for (Call call : m_slim.findCalls(func)) {
+            if (!m_examined.contains(call.getName())) {
+                m_calls.add(call.getName());
+            }
+        }
+        
+        index(func);
+    }
+    
+    /**
+     * Get the interesting functions this walk found.  Functions nested in a function which 
+     * isn't reachable aren't part of this list.
+     * 
+     * @return the functions in the order they were found
+     */
+    List<Node> getFunctions()
+    {
+        return m_funcs;
+    }
+    
+    /**
+     * Get the reachable functions.
+     * 
+     * @return the reachable functions in the order they were reached
+     */
+    List<Node> getKeepers()
+    {
+        return m_keeperList;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "LazyWalk: " + m_keeperList.size() + " out of " + m_funcs.size();
+    }
+}
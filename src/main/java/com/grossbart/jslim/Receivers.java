@@ -0,0 +1,476 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * Receivers track the object each library function is defined on and the object each
+ * call is made on so a call like $.each doesn't keep underscore's _.each.  Objects are
+ * identified by the name of the variable which holds them.  Local variables are qualified
+ * with the function which declares them so the jQuery variable in one closure isn't the
+ * same as the jQuery variable in another.  Assignments like window.$ = jQuery make
+ * the names aliases of each other.
+ * 
+ * This is a best effort analysis.  A function only stops matching a call when both the
+ * function and the call resolve to global objects which hold a known value, like an 
+ * object literal or a function, and those objects aren't aliases.  A variable which holds
+ * the result of a call like var jq = jQuery.noConflict() could be any object.  In every 
+ * other case the call matches the function by name just like it always has.
+ */
+public class Receivers
+{
+    /**
+     * These names refer to the global object so properties on them are just globals.
+     */
+    private static final List<String> GLOBAL_OBJECTS = Arrays.asList("window", "self", "top", "global", "root");
+    
+    private Map<String, String> m_aliases = new HashMap<String, String>();
+    private Set<String> m_globals = new HashSet<String>();
+    private Set<String> m_bound = new HashSet<String>();
+    private Set<String> m_unknown = new HashSet<String>();
+    private Map<Node, Set<String>> m_declared = new IdentityHashMap<Node, Set<String>>();
+    private Map<Node, Integer> m_scopes = new IdentityHashMap<Node, Integer>();
+    private Map<Node, String> m_owners = new IdentityHashMap<Node, String>();
+    private Map<Node, String> m_receivers = new IdentityHashMap<Node, String>();
+    
+    /**
+     * Record any alias or value created by the specified node.  Variable declarations like
+     * var $ = jQuery and assignments like window.$ = jQuery create aliases.  Variable 
+     * declarations, assignments, and function declarations also bind names to values.
+     * 
+     * @param n      the node to look at
+     */
+    public void addAlias(Node n)
+    {
+        if (n.getType() == Token.NAME && n.getParent() != null &&
+            n.getParent().getType() == Token.VAR && n.getFirstChild() != null) {
+            bind(resolve(n.getString(), n), n.getFirstChild());
+        } else if (n.getType() == Token.ASSIGN) {
+            bind(getTargetName(n.getFirstChild()), n.getLastChild());
+        } else if (n.getType() == Token.FUNCTION && n.getFirstChild().getString().length() > 0 &&
+                   (n.getParent().getType() == Token.SCRIPT || n.getParent().getType() == Token.BLOCK)) {
+            /*
+             This is a function declaration like:
+                function myFunc()
+             */
+            bind(resolve(n.getFirstChild().getString(), n), n);
+        }
+    }
+    
+    /**
+     * Bind a variable to the value assigned to it.  Another variable makes the two names
+     * aliases.  An object literal or a function is a known value.  Any other value, like 
+     * the result of a call, means we can't tell which object the variable holds.
+     * 
+     * @param name   the variable name or null if the target isn't a variable
+     * @param value  the value assigned to the variable
+     */
+    private void bind(String name, Node value)
+    {
+        if (name == null) {
+            return;
+        }
+        
+        String alias = getValueName(value);
+        if (alias != null) {
+            union(name, alias);
+        } else if (isKnownValue(value)) {
+            m_bound.add(find(name));
+        } else {
+            m_unknown.add(find(name));
+        }
+    }
+    
+    /**
+     * Determine if the specified value is an object we can identify by the variables 
+     * which hold it.
+     * 
+     * @param value  the value
+     * 
+     * @return true if the value is an object literal or a function and false otherwise
+     */
+    private static boolean isKnownValue(Node value)
+    {
+        if (value.getType() == Token.ASSIGN) {
+            /*
+             This is an assignment chain like a = b.c = {}
+             */
+            return isKnownValue(value.getLastChild());
+        }
+        
+        return value.getType() == Token.OBJECTLIT || value.getType() == Token.FUNCTION;
+    }
+    
+    /**
+     * Get the receiver of a call to the specified property.  We only resolve calls made
+     * directly on a variable like $.each.  Calls on a longer chain like a.b.each or on the
+     * result of another call return null.  The receiver is resolved the first time and
+     * stays the same after functions around it are removed from the tree.
+     * 
+     * @param getProp the property node which is called
+     * 
+     * @return the receiver or null if we can't resolve it
+     */
+    public String getReceiver(Node getProp)
+    {
+        if (m_receivers.containsKey(getProp)) {
+            return m_receivers.get(getProp);
+        }
+        
+        String receiver = null;
+        Node obj = getProp.getFirstChild();
+        if (obj.getType() == Token.NAME && !GLOBAL_OBJECTS.contains(obj.getString())) {
+            receiver = resolve(obj.getString(), obj);
+        }
+        
+        m_receivers.put(getProp, receiver);
+        return receiver;
+    }
+    
+    /**
+     * Determine if a call with the specified receiver can call the specified function.
+     * 
+     * @param receiver the receiver of the call or null if it isn't known
+     * @param func     the function or function assignment node
+     * 
+     * @return false if the call and the function are on different known global objects 
+     *         and true otherwise
+     */
+    public boolean matches(String receiver, Node func)
+    {
+        String owner = getOwner(func);
+        if (receiver == null || owner == null) {
+            return true;
+        }
+        
+        String r = find(receiver);
+        String o = find(owner);
+        
+        return r.equals(o) || !isKnown(r) || !isKnown(o);
+    }
+    
+    /**
+     * Determine if the specified name is a global object which only holds known values.
+     * 
+     * @param root   the name which represents all of its aliases
+     * 
+     * @return true if the object is known and false otherwise
+     */
+    private boolean isKnown(String root)
+    {
+        return m_globals.contains(root) && m_bound.contains(root) && !m_unknown.contains(root);
+    }
+    
+    /**
+     * Get the name of the object the specified function is defined on.
+     * 
+     * @param func   the function or function assignment node
+     * 
+     * @return the owner or null if we can't resolve it
+     */
+    public String getOwner(Node func)
+    {
+        if (m_owners.containsKey(func)) {
+            return m_owners.get(func);
+        }
+        
+        String owner = null;
+        Node parent = func.getParent();
+        if (func.getType() == Token.ASSIGN) {
+            /*
+             This is a function assignment like:
+                myObj.func1 = function()
+             */
+            owner = getPropertyOwner(func.getFirstChild());
+        } else if (parent.getType() == Token.ASSIGN) {
+            owner = getPropertyOwner(parent.getFirstChild());
+        } else if (parent.getType() == Token.STRING && parent.getParent().getType() == Token.OBJECTLIT) {
+            /*
+             This is a closure style function like:
+                myObj = { func1: function() }
+             */
+            owner = getObjectLitOwner(parent.getParent());
+        }
+        
+        m_owners.put(func, owner);
+        return owner;
+    }
+    
+    /**
+     * Get the owner of a property like myObj.func1.
+     * 
+     * @param getProp the property node
+     * 
+     * @return the owner or null if we can't resolve it
+     */
+    private String getPropertyOwner(Node getProp)
+    {
+        if (getProp.getType() == Token.GETPROP) {
+            return getReceiver(getProp);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Get the owner of the functions in an object literal.
+     * 
+     * @param objLit the object literal node
+     * 
+     * @return the owner or null if we can't resolve it
+     */
+    private String getObjectLitOwner(Node objLit)
+    {
+        Node parent = objLit.getParent();
+        if (parent.getType() == Token.NAME && parent.getParent().getType() == Token.VAR) {
+            /*
+             var myObj = { ... }
+             */
+            return resolve(parent.getString(), parent);
+        } else if (parent.getType() == Token.ASSIGN && parent.getLastChild() == objLit) {
+            /*
+             myObj = { ... } or window.myObj = { ... }
+             */
+            return getTargetName(parent.getFirstChild());
+        } else if (parent.getType() == Token.CALL && parent.getChildCount() == 2 &&
+                   parent.getFirstChild().getType() == Token.GETPROP &&
+                   "extend".equals(parent.getFirstChild().getLastChild().getString())) {
+            /*
+             This is jQuery style extension of an object with a single
+             argument like jQuery.extend({ ... }) or jQuery.fn.extend({ ... })
+             */
+            Node obj = parent.getFirstChild().getFirstChild();
+            if (obj.getType() == Token.GETPROP && "fn".equals(obj.getLastChild().getString())) {
+                obj = obj.getFirstChild();
+            }
+            
+            if (obj.getType() == Token.NAME && !GLOBAL_OBJECTS.contains(obj.getString())) {
+                return resolve(obj.getString(), obj);
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Get the name of the variable an assignment target refers to.
+     * 
+     * @param target the target of the assignment
+     * 
+     * @return the variable name or null if it isn't a variable
+     */
+    private String getTargetName(Node target)
+    {
+        if (target.getType() == Token.NAME) {
+            return resolve(target.getString(), target);
+        } else if (target.getType() == Token.GETPROP &&
+                   (target.getFirstChild().getType() == Token.THIS ||
+                    (target.getFirstChild().getType() == Token.NAME &&
+                     GLOBAL_OBJECTS.contains(target.getFirstChild().getString())))) {
+            /*
+             This is a global variable like window.$ or this.$
+             */
+            return target.getLastChild().getString();
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Get the name of the variable an assigned value comes from.
+     * 
+     * @param value  the value of the assignment
+     * 
+     * @return the variable name or null if it isn't a variable
+     */
+    private String getValueName(Node value)
+    {
+        if (value.getType() == Token.NAME) {
+            return resolve(value.getString(), value);
+        } else if (value.getType() == Token.GETPROP && value.getFirstChild().getType() == Token.NAME &&
+                   GLOBAL_OBJECTS.contains(value.getFirstChild().getString())) {
+            /*
+             This is a global variable like window._
+             */
+            return value.getLastChild().getString();
+        } else if (value.getType() == Token.ASSIGN) {
+            /*
+             This is an assignment chain like window.jQuery = window.$ = jQuery
+             */
+            return getValueName(value.getLastChild());
+        } else if (value.getType() == Token.CALL && value.getFirstChild().getType() == Token.FUNCTION) {
+            /*
+             This is a closure which returns a variable like:
+                var jQuery = (function() { var jQuery = ...; return jQuery; })();
+             */
+            for (Node n : value.getFirstChild().getLastChild().children()) {
+                if (n.getType() == Token.RETURN && n.getFirstChild() != null &&
+                    n.getFirstChild().getType() == Token.NAME) {
+                    return resolve(n.getFirstChild().getString(), n.getFirstChild());
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Resolve a variable name to the scope which declares it.  Global variables are just
+     * the name and local variables are qualified with the ID of the declaring function.
+     * 
+     * @param name   the variable name
+     * @param n      the node where the name is used
+     * 
+     * @return the qualified name
+     */
+    private String resolve(String name, Node n)
+    {
+        for (Node p = n.getParent(); p != null; p = p.getParent()) {
+            if (p.getType() == Token.FUNCTION && getDeclared(p).contains(name)) {
+                Integer id = m_scopes.get(p);
+                if (id == null) {
+                    id = m_scopes.size();
+                    m_scopes.put(p, id);
+                }
+                
+                return name + "#" + id;
+            }
+        }
+        
+        return name;
+    }
+    
+    /**
+     * Get the names of the parameters, variables, and functions declared directly in the
+     * specified function.
+     * 
+     * @param func   the function
+     * 
+     * @return the declared names
+     */
+    private Set<String> getDeclared(Node func)
+    {
+        Set<String> names = m_declared.get(func);
+        if (names == null) {
+            names = new HashSet<String>();
+            for (Node param : func.getFirstChild().getNext().children()) {
+                names.add(param.getString());
+            }
+            
+            addDeclared(func.getLastChild(), names);
+            m_declared.put(func, names);
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Add the variables and functions declared under the specified node without looking
+     * into nested functions.
+     * 
+     * @param node   the node to look under
+     * @param names  the set to add the names to
+     */
+    private void addDeclared(Node node, Set<String> names)
+    {
+        for (Node n : node.children()) {
+            if (n.getType() == Token.FUNCTION) {
+                if (n.getParent().getType() == Token.BLOCK && n.getFirstChild().getString().length() > 0) {
+                    names.add(n.getFirstChild().getString());
+                }
+            } else {
+                if (n.getType() == Token.VAR) {
+                    for (Node var : n.children()) {
+                        names.add(var.getString());
+                    }
+                }
+                
+                addDeclared(n, names);
+            }
+        }
+    }
+    
+    /**
+     * Make two names aliases of each other.
+     * 
+     * @param name1  the first name or null
+     * @param name2  the second name or null
+     */
+    private void union(String name1, String name2)
+    {
+        if (name1 == null || name2 == null) {
+            return;
+        }
+        
+        String root1 = find(name1);
+        String root2 = find(name2);
+        if (!root1.equals(root2)) {
+            m_aliases.put(root2, root1);
+            if (m_globals.contains(root2)) {
+                m_globals.add(root1);
+            }
+            if (m_bound.contains(root2)) {
+                m_bound.add(root1);
+            }
+            if (m_unknown.contains(root2)) {
+                m_unknown.add(root1);
+            }
+        }
+    }
+    
+    /**
+     * Find the name which represents all of the aliases of the specified name.
+     * 
+     * @param name   the name
+     * 
+     * @return the representative name
+     */
+    private String find(String name)
+    {
+        String parent = m_aliases.get(name);
+        if (parent == null) {
+            m_aliases.put(name, name);
+            if (name.indexOf('#') == -1) {
+                m_globals.add(name);
+            }
+            return name;
+        } else if (parent.equals(name)) {
+            return name;
+        }
+        
+        String root = find(parent);
+        m_aliases.put(name, root);
+        return root;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "Receivers: " + m_aliases;
+    }
+}
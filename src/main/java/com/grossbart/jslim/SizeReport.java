@@ -0,0 +1,480 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * The size report shows how much each kept library function adds to the pruned output
+ * and the shortest chain of calls from a root call which keeps it.  Each function has
+ * three sizes:  the bytes it takes in the pruned output, the bytes it takes after a simple
+ * optimizations compile, and the bytes it takes when that minified code is GZIPed.
+ * 
+ * Functions are GZIPed on their own so the GZIP size is larger than what the function
+ * really adds to the GZIPed output.  It is an estimate for comparing functions with each
+ * other.  The size of a function includes the size of any functions nested in it.
+ */
+public class SizeReport
+{
+    private static final String WRAPPER = "var jslim_size=";
+    
+    /**
+     * The size of a single kept function.
+     */
+    public static final class FunctionSize
+    {
+        private String m_name;
+        private List<String> m_chain;
+        private boolean m_isLibRoot;
+        private String m_source;
+        private int m_bytes;
+        private int m_minified;
+        private int m_gzip;
+        
+        private FunctionSize(String name, String source, List<String> chain, boolean isLibRoot)
+        {
+            m_name = name;
+            m_source = source;
+            m_chain = chain;
+            m_isLibRoot = isLibRoot;
+        }
+        
+        /**
+         * Get the name of this function.
+         * 
+         * @return the function name
+         */
+        public String getName()
+        {
+            return m_name;
+        }
+        
+        /**
+         * Get the shortest chain of calls which keeps this function.  The first call is the
+         * root call and the last call is the call to this function.
+         * 
+         * @return the call chain or an empty list if this function isn't reached from a root
+         */
+        public List<String> getChain()
+        {
+            return m_chain;
+        }
+        
+        /**
+         * Get the root call which keeps this function.
+         * 
+         * @return the root call or null if this function isn't reached from a root
+         */
+        public String getRoot()
+        {
+            if (m_chain.isEmpty()) {
+                return null;
+            }
+            
+            return m_chain.get(0);
+        }
+        
+        /**
+         * Determine if the root call for this function is made when the library is loaded
+         * instead of coming from a main file or an extern.
+         * 
+         * @return true if the root call comes from the library and false otherwise
+         */
+        public boolean isLibRoot()
+        {
+            return m_isLibRoot;
+        }
+        
+        /**
+         * Get the number of bytes this function takes in the pruned output.
+         * 
+         * @return the number of bytes
+         */
+        public int getBytes()
+        {
+            return m_bytes;
+        }
+        
+        /**
+         * Get the number of bytes this function takes after a simple optimizations compile.
+         * 
+         * @return the number of minified bytes
+         */
+        public int getMinifiedBytes()
+        {
+            return m_minified;
+        }
+        
+        /**
+         * Get the number of bytes this function takes when the minified code is GZIPed.
+         * 
+         * @return the estimated number of GZIPed bytes
+         */
+        public int getGzipBytes()
+        {
+            return m_gzip;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return m_name + ": " + m_bytes + "/" + m_minified + "/" + m_gzip;
+        }
+    }
+    
+    private List<FunctionSize> m_funcs = new ArrayList<FunctionSize>();
+    private String m_charset;
+    
+    /**
+     * Create a new SizeReport.
+     * 
+     * @param charset the charset used to count the bytes of each function
+     */
+    SizeReport(String charset)
+    {
+        m_charset = charset;
+    }
+    
+    /**
+     * Add a kept function to this report.  The sizes of the function aren't available
+     * until computeSizes is called.
+     * 
+     * @param name      the name of the function
+     * @param source    the source of the function in the pruned output
+     * @param chain     the shortest chain of calls from a root call to this function
+     * @param isLibRoot true if the root call is made when the library is loaded
+     */
+    void addFunction(String name, String source, List<String> chain, boolean isLibRoot)
+    {
+        m_funcs.add(new FunctionSize(name, source, chain, isLibRoot));
+    }
+    
+    /**
+     * Add the functions in the specified graph to this report with the shortest chain of
+     * calls from the roots which keeps each one.
+     * 
+     * @param graph     the graph of the kept functions
+     * @param roots     the root calls
+     * @param mainCalls the root calls from the main files and the externs
+     * @param compiler  the compiler holding the pruned library tree
+     */
+    void addFunctions(CallGraph graph, List<String> roots, List<String> mainCalls, Compiler compiler)
+    {
+        int parents[] = new int[graph.size()];
+        String via[] = new String[graph.size()];
+        graph.findReachable(roots, parents, via);
+        
+        for (int i = 0; i < graph.size(); i++) {
+            Node func = graph.getFunction(i);
+            if (func.getType() != Token.FUNCTION) {
+                /*
+                 The assignments around a function are part of the graph,
+                 but we only report the function itself
+                 */
+                continue;
+            }
+            
+            LinkedList<String> chain = new LinkedList<String>();
+            for (int f = i; f > -1 && via[f] != null; f = parents[f]) {
+                chain.addFirst(via[f]);
+            }
+            
+            Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
+            compiler.toSource(cb, 0, func);
+            addFunction(FunctionNames.getName(func), cb.toString(), chain, 
+                        !chain.isEmpty() && !mainCalls.contains(chain.getFirst()));
+        }
+    }
+    
+    /**
+     * Compute the sizes of all the functions in this report.  Each function is compiled
+     * and GZIPed separately so they are spread across multiple threads.
+     * 
+     * @param threads the number of threads to use
+     */
+    void computeSizes(int threads)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        
+        try {
+            List<Future<FunctionSize>> futures = new ArrayList<Future<FunctionSize>>();
+            for (final FunctionSize func : m_funcs) {
+                futures.add(executor.submit(new Callable<FunctionSize>() {
+                    public FunctionSize call()
+                        throws IOException
+                    {
+                        computeSize(func);
+                        return func;
+                    }
+                }));
+            }
+            
+            for (Future<FunctionSize> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        
+        Collections.sort(m_funcs, new Comparator<FunctionSize>() {
+            public int compare(FunctionSize f1, FunctionSize f2)
+            {
+                if (f1.m_gzip != f2.m_gzip) {
+                    return f2.m_gzip - f1.m_gzip;
+                }
+                
+                return f1.m_name.compareTo(f2.m_name);
+            }
+        });
+    }
+    
+    /**
+     * Compute the sizes of a single function.
+     * 
+     * @param func   the function
+     * 
+     * @exception IOException
+     *                   if the charset isn't supported
+     */
+    private void computeSize(FunctionSize func)
+        throws IOException
+    {
+        String source = func.m_source.trim();
+        if (source.endsWith(";")) {
+            source = source.substring(0, source.length() - 1);
+        }
+        
+        String minified = minify(source);
+        
+        func.m_bytes = source.getBytes(m_charset).length;
+        func.m_minified = minified.getBytes(m_charset).length;
+        func.m_gzip = getGzipSize(minified);
+        func.m_source = null;
+    }
+    
+    /**
+     * Run a single function through a simple optimizations compile.  The function is
+     * assigned to a variable so the compiler won't remove it.
+     * 
+     * @param source the source of the function
+     * 
+     * @return the minified function or the original source if it couldn't be compiled
+     */
+    private static String minify(String source)
+    {
+        Compiler compiler = new Compiler(new PrintStream(new NullOutputStream()));
+        
+        CompilerOptions options = new CompilerOptions();
+        CompilationLevel.SIMPLE_OPTIMIZATIONS.setOptionsForCompilationLevel(options);
+        
+        compiler.compile(JSSourceFile.fromCode("externs.js", ""),
+                         JSSourceFile.fromCode("size.js", WRAPPER + source + ";"), options);
+        
+        String result = compiler.toSource().trim();
+        if (compiler.getErrorCount() > 0 || !result.startsWith(WRAPPER)) {
+            return source;
+        }
+        
+        result = result.substring(WRAPPER.length());
+        if (result.endsWith(";")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Get the number of bytes in the specified contents after they are GZIPed.
+     * 
+     * @param contents the contents to GZIP
+     * 
+     * @return the GZIPed size
+     * @exception IOException
+     *                   if the charset isn't supported
+     */
+    private int getGzipSize(String contents)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream zipOut = new GZIPOutputStream(out);
+        zipOut.write(contents.getBytes(m_charset));
+        zipOut.close();
+        
+        return out.size();
+    }
+    
+    /**
+     * Get the sizes of all the functions in this report sorted from the largest GZIP
+     * size to the smallest.
+     * 
+     * @return the function sizes
+     */
+    public List<FunctionSize> getFunctions()
+    {
+        return m_funcs;
+    }
+    
+    /**
+     * Get the total sizes of the functions kept by each root call.  Each function counts
+     * towards the root of its shortest call chain.
+     * 
+     * @return the bytes, minified bytes, and GZIP bytes for each root call sorted from
+     *         the largest GZIP size to the smallest
+     */
+    public Map<String, int[]> getRootSizes()
+    {
+        final Map<String, int[]> sizes = new LinkedHashMap<String, int[]>();
+        for (FunctionSize func : m_funcs) {
+            String root = getRootLabel(func);
+            int size[] = sizes.get(root);
+            if (size == null) {
+                size = new int[3];
+                sizes.put(root, size);
+            }
+            
+            size[0] += func.m_bytes;
+            size[1] += func.m_minified;
+            size[2] += func.m_gzip;
+        }
+        
+        List<String> roots = new ArrayList<String>(sizes.keySet());
+        Collections.sort(roots, new Comparator<String>() {
+            public int compare(String r1, String r2)
+            {
+                if (sizes.get(r1)[2] != sizes.get(r2)[2]) {
+                    return sizes.get(r2)[2] - sizes.get(r1)[2];
+                }
+                
+                return r1.compareTo(r2);
+            }
+        });
+        
+        Map<String, int[]> sorted = new LinkedHashMap<String, int[]>();
+        for (String root : roots) {
+            sorted.put(root, sizes.get(root));
+        }
+        
+        return sorted;
+    }
+    
+    /**
+     * Get the label for the root of this function in the report.
+     * 
+     * @param func   the function
+     * 
+     * @return the root label
+     */
+    private static String getRootLabel(FunctionSize func)
+    {
+        if (func.getRoot() == null) {
+            return "(unknown)";
+        } else if (func.m_isLibRoot) {
+            return func.getRoot() + " (library)";
+        } else {
+            return func.getRoot();
+        }
+    }
+    
+    /**
+     * Get the text of this report.
+     * 
+     * @return the report text
+     */
+    public String getReport()
+    {
+        int total[] = new int[3];
+        for (FunctionSize func : m_funcs) {
+            total[0] += func.m_bytes;
+            total[1] += func.m_minified;
+            total[2] += func.m_gzip;
+        }
+        
+        StringBuffer sb = new StringBuffer();
+        sb.append("Kept " + m_funcs.size() + " named functions: " + total[0] + " bytes, " +
+                  total[1] + " minified, " + total[2] + " gzipped\n");
+        sb.append("Each function is gzipped on its own so the gzipped sizes are estimates.\n");
+        
+        sb.append("\nSize by root call\n");
+        sb.append(String.format("%8s %8s %8s  %s\n", "gzip", "minified", "bytes", "root"));
+        for (Map.Entry<String, int[]> root : getRootSizes().entrySet()) {
+            int size[] = root.getValue();
+            sb.append(String.format("%8d %8d %8d  %s\n", size[2], size[1], size[0], root.getKey()));
+        }
+        
+        sb.append("\nSize by function\n");
+        sb.append(String.format("%8s %8s %8s  %s\n", "gzip", "minified", "bytes", "function <- call chain"));
+        for (FunctionSize func : m_funcs) {
+            sb.append(String.format("%8d %8d %8d  %s", func.m_gzip, func.m_minified, func.m_bytes, func.m_name));
+            
+            if (func.m_chain.isEmpty()) {
+                sb.append(" <- (unknown)");
+            } else {
+                sb.append(" <- ");
+                for (int i = 0; i < func.m_chain.size(); i++) {
+                    if (i > 0) {
+                        sb.append(" -> ");
+                    }
+                    sb.append(func.m_chain.get(i));
+                }
+                
+                if (func.m_isLibRoot) {
+                    sb.append(" (library)");
+                }
+            }
+            
+            sb.append("\n");
+        }
+        
+        return sb.toString();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "SizeReport: " + m_funcs;
+    }
+}
@@ -0,0 +1,33 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.OutputStream;
+import java.util.logging.ConsoleHandler;
+
+/**
+ * This little console handler makes it possible to send Java logging to System.out 
+ * instead of System.err.
+ */
+class SlimConsoleHandler extends ConsoleHandler
+{
+    protected void setOutputStream(OutputStream out) throws SecurityException
+    {
+        super.setOutputStream(System.out);
+    }
+}
@@ -0,0 +1,261 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.javascript.jscomp.ErrorManager;
+
+/**
+ * The source reader reads and validates the input files.  Reading a file mostly waits on
+ * the disk and validating it mostly uses the CPU so we read the files on several threads 
+ * and validate each one on the same thread as soon as it is read.  The results come back
+ * in the same order as the files no matter which one finished first.
+ * 
+ * Validating a file parses it and the error manager closure returns holds on to the parsed
+ * tree, so a source only keeps the error manager of a file which failed.  Every source is
+ * kept until all of the files are read and this keeps the trees of the valid files from
+ * piling up while the others are read.
+ */
+final class SourceReader
+{
+    /**
+     * The most files we read at the same time.
+     */
+    static final int MAX_THREADS = 8;
+    
+    private final String m_charset;
+    private final boolean m_validate;
+    private final JSlim.FormattingOption m_formatting;
+    
+    /**
+     * Create a new SourceReader.
+     * 
+     * @param charset    the charset of the files
+     * @param validate   true to validate the files after reading them and false otherwise
+     * @param formatting the formatting options to validate with or null for none
+     */
+    SourceReader(String charset, boolean validate, JSlim.FormattingOption formatting)
+    {
+        m_charset = charset;
+        m_validate = validate;
+        m_formatting = formatting;
+    }
+    
+    /**
+     * Read and validate the specified files.
+     * 
+     * @param files  the names of the files to read
+     * 
+     * @return the files in the same order as the names
+     * @exception IOException
+     *                   if there is an error reading one of the files
+     */
+    List<Source> readAll(List<String> files)
+        throws IOException
+    {
+        return readAll(files, files.size());
+    }
+    
+    /**
+     * Read and validate the specified files and keep the contents of the first ones.  The
+     * contents of the rest are dropped as soon as they are validated, which saves memory
+     * for files that are read from disk again each time they're used.
+     * 
+     * @param files  the names of the files to read
+     * @param kept   the number of files at the start of the list to keep the contents of
+     * 
+     * @return the files in the same order as the names
+     * @exception IOException
+     *                   if there is an error reading one of the files
+     */
+    List<Source> readAll(List<String> files, final int kept)
+        throws IOException
+    {
+        if (files.size() < 2) {
+            List<Source> sources = new ArrayList<Source>();
+            for (int i = 0; i < files.size(); i++) {
+                sources.add(read(files.get(i), i < kept));
+            }
+            return sources;
+        }
+        
+        /*
+         Validating uses the CPU so more threads than processors only
+         fight over it.  One extra thread keeps a read going while the
+         others validate.
+         */
+        int threads = Math.min(Runtime.getRuntime().availableProcessors() + 1, MAX_THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(files.size(), threads));
+        
+        try {
+            List<Future<Source>> futures = new ArrayList<Future<Source>>();
+            for (int i = 0; i < files.size(); i++) {
+                final String file = files.get(i);
+                final boolean keep = i < kept;
+                futures.add(executor.submit(new Callable<Source>() {
+                    public Source call()
+                        throws IOException
+                    {
+                        return read(file, keep);
+                    }
+                }));
+            }
+            
+            List<Source> sources = new ArrayList<Source>();
+            for (Future<Source> future : futures) {
+                sources.add(future.get());
+            }
+            
+            return sources;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Read and validate a single file.
+     * 
+     * @param file   the name of the file to read
+     * 
+     * @return the file
+     * @exception IOException
+     *                   if there is an error reading the file
+     */
+    Source read(String file)
+        throws IOException
+    {
+        return read(file, true);
+    }
+    
+    /**
+     * Read and validate a single file.
+     * 
+     * @param file   the name of the file to read
+     * @param keep   true to keep the contents of the file and false to drop them once the
+     *               file is validated
+     * 
+     * @return the file
+     * @exception IOException
+     *                   if there is an error reading the file
+     */
+    Source read(String file, boolean keep)
+        throws IOException
+    {
+        File f = new File(file);
+        String contents = FileUtils.readFileToString(f, m_charset);
+        
+        ErrorManager errors = null;
+        if (m_validate) {
+            errors = JSlim.validate(f.getAbsolutePath(), contents, m_formatting);
+            if (errors.getErrorCount() == 0) {
+                /*
+                 The error manager reaches the whole parsed tree through
+                 its compiler and there is nothing to report for a
+                 valid file
+                 */
+                errors = null;
+            }
+        }
+        
+        return new Source(f, keep ? contents : null, errors);
+    }
+    
+    /**
+     * A source is one file after it was read and validated.
+     */
+    static final class Source
+    {
+        private final File m_file;
+        private final String m_contents;
+        private final ErrorManager m_errors;
+        
+        /**
+         * Create a new Source.
+         * 
+         * @param file     the file
+         * @param contents the contents of the file or null if they weren't kept
+         * @param errors   the errors from validating the file or null if it is valid or
+         *                 wasn't validated
+         */
+        private Source(File file, String contents, ErrorManager errors)
+        {
+            m_file = file;
+            m_contents = contents;
+            m_errors = errors;
+        }
+        
+        /**
+         * Get the file this source was read from.
+         * 
+         * @return the file
+         */
+        File getFile()
+        {
+            return m_file;
+        }
+        
+        /**
+         * Get the contents of the file.
+         * 
+         * @return the contents or null if they weren't kept
+         */
+        String getContents()
+        {
+            return m_contents;
+        }
+        
+        /**
+         * Indicate if validating this file found errors.
+         * 
+         * @return true if there were errors and false otherwise
+         */
+        boolean hasErrors()
+        {
+            return m_errors != null;
+        }
+        
+        /**
+         * Report the errors and warnings from validating this file.
+         */
+        void report()
+        {
+            if (m_errors != null) {
+                m_errors.generateReport();
+            }
+        }
+    }
+}
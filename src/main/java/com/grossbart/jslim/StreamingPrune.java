@@ -0,0 +1,279 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.rhino.Node;
+
+/**
+ * The streaming prune looks at the library files one at a time so only one library tree 
+ * is in memory at once.  The first pass summarizes each library as the names and calls of
+ * its interesting functions in a call graph and drops the tree.  The keepers are the 
+ * functions reachable from the root calls in the closure table of that graph.  The second
+ * pass parses each library again, removes the functions we aren't keeping, and writes it
+ * out before moving on to the next library.
+ * 
+ * Peak memory depends on the largest library file instead of all of them together.  Each
+ * library is parsed three times so this is slower than a normal prune and JSlim only uses
+ * it when the libraries are too big for the heap ceiling.  When the closure cache has the
+ * table for these libraries the summary pass only finds the functions and root calls.
+ */
+final class StreamingPrune
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    /*
+     The approximate number of bytes of heap a parsed and processed
+     library takes for each character of source.  The parse tree alone
+     of jQuery and Raphael takes about 10 bytes a character.
+     */
+    private static final int BYTES_PER_CHAR = 16;
+    
+    private JSlim m_slim;
+    private CompilationLevel m_compLevel;
+    private List<String> m_keepers = new ArrayList<String>();
+    private int m_funcCount;
+    
+    /**
+     * Create a new StreamingPrune.
+     * 
+     * @param slim      the compiler to find the functions and calls with
+     * @param compLevel the compilation level
+     */
+    StreamingPrune(JSlim slim, CompilationLevel compLevel)
+    {
+        m_slim = slim;
+        m_compLevel = compLevel;
+    }
+    
+    /**
+     * Estimate the heap needed to prune the specified files together.
+     * 
+     * @param files  the files to prune
+     * 
+     * @return the estimated number of bytes
+     */
+    static long estimateHeap(List<JSFile> files)
+    {
+        long length = 0;
+        for (JSFile file : files) {
+            length += file.getLength();
+        }
+        
+        return length * BYTES_PER_CHAR;
+    }
+    
+    /**
+     * Prune the specified library files.
+     * 
+     * @param libs      the library files
+     * @param mainCalls the calls from the main files and the externs
+     * 
+     * @return the pruned library files or null if there were parse errors
+     */
+    String prune(List<JSFile> libs, List<Call> mainCalls)
+    {
+        /*
+         First we find the names functions are bound to since a function
+         in one library can be bound in another
+         */
+        Set<String> boundNames = Collections.emptySet();
+        for (JSFile lib : libs) {
+            Compiler compiler = parse(lib);
+            if (compiler == null) {
+                return null;
+            }
+            
+            boundNames = m_slim.addBoundNames(compiler.getRoot());
+        }
+        
+        /*
+         Then we summarize each library and drop its tree.  We only need
+         the calls each function makes when the cache doesn't have the
+         closure table of these libraries.
+         */
+        ClosureCache cache = m_slim.getClosureCache();
+        String key = cache == null ? null : ClosureCache.getKey(libs, m_compLevel, boundNames);
+        CallGraph graph = cache != null && cache.hasTable(key) ? null : new CallGraph();
+        List<String> functions = new ArrayList<String>();
+        CallList roots = new CallList();
+        roots.addAll(mainCalls);
+        int counts[] = new int[libs.size()];
+        for (int i = 0; i < counts.length; i++) {
+            Compiler compiler = parse(libs.get(i));
+            if (compiler == null) {
+                return null;
+            }
+            
+            List<Node> funcs = m_slim.findLibFunctions(compiler.getRoot());
+            if (graph != null) {
+                for (Node func : funcs) {
+                    graph.addFunction(null, FunctionNames.getNames(func), m_slim.findCalls(func));
+                }
+            }
+            
+            functions.addAll(Arrays.asList(ClosureCache.getFunctionNames(funcs)));
+            m_slim.findMatchedExterns(funcs, roots);
+            m_slim.findRootCalls(compiler.getRoot().getLastChild(), roots);
+            counts[i] = funcs.size();
+            LOGGER.log(Level.INFO, "Summarized " + counts[i] + " functions in " + libs.get(i).getName());
+        }
+        
+        ClosureTable table = getTable(libs, key, graph, functions.toArray(new String[functions.size()]));
+        if (table == null) {
+            return null;
+        }
+        
+        List<String> names = new ArrayList<String>();
+        for (int id = 0; id < roots.size(); id++) {
+            names.add(roots.getName(id));
+        }
+        BitSet keepers = table.getReachable(names);
+        
+        /*
+         Then we parse each library again and prune it.  The functions come
+         out of the tree in the same order so the function indexes in the
+         graph still match.
+         */
+        Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
+        m_funcCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            Compiler compiler = parse(libs.get(i));
+            if (compiler == null) {
+                return null;
+            }
+            
+            List<Node> funcs = m_slim.findLibFunctions(compiler.getRoot());
+            if (funcs.size() != counts[i]) {
+                throw new IllegalStateException("The library " + libs.get(i).getName() + " changed during the prune");
+            }
+            
+            for (int j = 0; j < funcs.size(); j++) {
+                if (keepers.get(m_funcCount + j)) {
+                    m_keepers.add(FunctionNames.getName(funcs.get(j)));
+                }
+            }
+            
+            for (int j = funcs.size() - 1; j > -1; j--) {
+                if (!keepers.get(m_funcCount + j)) {
+                    FunctionRemover.remove(funcs.get(j), m_slim.getLazyStubs(), compiler);
+                }
+            }
+            
+            compiler.toSource(cb, i, compiler.getRoot().getLastChild().getFirstChild());
+            m_funcCount += funcs.size();
+        }
+        
+        if (m_funcCount > 0) {
+            System.out.println("Removed " + (m_funcCount - m_keepers.size()) + " out of " + m_funcCount + " named functions.");
+        }
+        
+        return cb.toString();
+    }
+    
+    /**
+     * Get the closure table of the libraries.
+     * 
+     * @param libs      the library files
+     * @param key       the key of the libraries in the closure cache
+     * @param graph     the call graph of the libraries or null if the cache had a table for this key
+     * @param functions the names of the library functions in graph order
+     * 
+     * @return the closure table or null if there were parse errors
+     */
+    private ClosureTable getTable(List<JSFile> libs, String key, CallGraph graph, String functions[])
+    {
+        ClosureCache cache = m_slim.getClosureCache();
+        if (cache == null) {
+            return new ClosureTable(graph);
+        }
+        
+        ClosureTable table = cache.findTable(key, functions);
+        if (table != null) {
+            return table;
+        }
+        
+        if (graph == null) {
+            /*
+             Then the cache had a table for this key which was built from
+             different functions so we need the graph after all
+             */
+            graph = new CallGraph();
+            for (JSFile lib : libs) {
+                Compiler compiler = parse(lib);
+                if (compiler == null) {
+                    return null;
+                }
+                
+                for (Node func : m_slim.findLibFunctions(compiler.getRoot())) {
+                    graph.addFunction(null, FunctionNames.getNames(func), m_slim.findCalls(func));
+                }
+            }
+        }
+        
+        return cache.addTable(key, graph, functions);
+    }
+    
+    /**
+     * Parse a single library file.
+     * 
+     * @param lib    the library file
+     * 
+     * @return the compiler holding the parsed tree or null if there were parse errors
+     */
+    private Compiler parse(JSFile lib)
+    {
+        return m_slim.parse(Collections.singletonList(lib), m_compLevel);
+    }
+    
+    /**
+     * Get the names of the functions kept by the prune.
+     * 
+     * @return the kept function names
+     */
+    String[] getKeptFunctions()
+    {
+        return m_keepers.toArray(new String[m_keepers.size()]);
+    }
+    
+    /**
+     * Get the number of interesting functions in all of the library files.
+     * 
+     * @return the total number of functions
+     */
+    int getTotalFunctionCount()
+    {
+        return m_funcCount;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "StreamingPrune: " + m_keepers.size() + " out of " + m_funcCount;
+    }
+}
@@ -0,0 +1,572 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * Evaluates the string used in an element reference like obj['hello'] or 
+ * obj['h' + 'el' + 'lo'] so calls made that way can be matched with functions.
+ * 
+ * The index can also use local variables and the parameters of iteration callbacks.
+ * This is a small constant propagation which resolves each variable to the set of
+ * values it can hold, so jQuery.fn['inner' + name] inside of 
+ * jQuery.each(['Height', 'Width'], function(i, name) has the two values innerHeight and
+ * innerWidth.  Global variables aren't resolved since any other file can change them.
+ */
+final class StringIndex
+{
+    /*
+     The most values a single index can have before we give up on it.
+     */
+    private static final int MAX_VALUES = 64;
+    
+    /*
+     The deepest chain of variables we'll follow.  This also stops
+     circular assignments like a = b; b = a;
+     */
+    private static final int MAX_DEPTH = 8;
+    
+    /*
+     Resolving a variable walks the whole function it is declared in so
+     we cache the values for each element reference.
+     */
+    private static final Map<Node, List<String>> CACHE = 
+        Collections.synchronizedMap(new WeakHashMap<Node, List<String>>());
+    
+    private StringIndex()
+    {
+    }
+    
+    /**
+     * Get the string used in the specified element reference.  If the index can have 
+     * more than one value then this returns the first one.
+     * 
+     * @param getElem the element reference
+     * 
+     * @return the string or null if it can't be evaluated without running the code
+     */
+    static String getConcatenatedStringIndex(Node getElem)
+    {
+        List<String> values = getStringIndexes(getElem);
+        if (values == null) {
+            return null;
+        }
+        
+        return values.get(0);
+    }
+    
+    /**
+     * Get all the strings the specified element reference can use.
+     * 
+     * @param getElem the element reference
+     * 
+     * @return the strings or null if they can't be evaluated without running the code
+     */
+    static List<String> getStringIndexes(Node getElem)
+    {
+        if (CACHE.containsKey(getElem)) {
+            return CACHE.get(getElem);
+        }
+        
+        List<String> strings = null;
+        List<Object> values = evaluate(getElem.getFirstChild().getNext(), 0);
+        if (values != null) {
+            /*
+             Then this was a string like obj['hello'], obj['h' + 'el' + 'lo'], 
+             or obj['inner' + name] with a name we could resolve.  Anything 
+             else like obj[('h' + 'el' + 'lo').substring(2)] can't be evaluated
+             with just static evaluation so the user will have to declare an
+             external for that.
+             */
+            Set<String> set = new LinkedHashSet<String>();
+            for (Object value : values) {
+                set.add(getString(value));
+            }
+            strings = Collections.unmodifiableList(new ArrayList<String>(set));
+        }
+        
+        CACHE.put(getElem, strings);
+        return strings;
+    }
+    
+    /**
+     * Evaluate an expression to the set of constant values it can have.  Strings are
+     * returned as String and numbers as Double so we can tell 1 + 2 from '1' + 2.
+     * 
+     * @param n      the expression
+     * @param depth  the number of variables we followed to get here
+     * 
+     * @return the values or null if the expression isn't constant
+     */
+    private static List<Object> evaluate(Node n, int depth)
+    {
+        if (n.getType() == Token.STRING) {
+            return Collections.<Object>singletonList(n.getString());
+        } else if (n.getType() == Token.NUMBER) {
+            return Collections.<Object>singletonList(n.getDouble());
+        } else if (n.getType() == Token.ADD) {
+            List<Object> left = evaluate(n.getFirstChild(), depth);
+            if (left == null) {
+                return null;
+            }
+            
+            List<Object> right = evaluate(n.getLastChild(), depth);
+            if (right == null || left.size() * right.size() > MAX_VALUES) {
+                return null;
+            }
+            
+            Set<Object> values = new LinkedHashSet<Object>();
+            for (Object l : left) {
+                for (Object r : right) {
+                    values.add(add(l, r));
+                }
+            }
+            return new ArrayList<Object>(values);
+        } else if (n.getType() == Token.NAME && depth < MAX_DEPTH) {
+            return resolveName(n, depth + 1);
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * Add two constant values the way JavaScript does.
+     * 
+     * @param l      the left value
+     * @param r      the right value
+     * 
+     * @return the sum if they are both numbers or the concatenated string
+     */
+    private static Object add(Object l, Object r)
+    {
+        if (l instanceof Double && r instanceof Double) {
+            return (Double) l + (Double) r;
+        }
+        
+        StringBuffer sb = new StringBuffer();
+        sb.append(getString(l));
+        sb.append(getString(r));
+        return sb.toString();
+    }
+    
+    /**
+     * Resolve a variable to the values it can have.  The variable must be declared in a
+     * function or be a parameter of an iteration callback.
+     * 
+     * @param name   the name node
+     * @param depth  the number of variables we followed to get here
+     * 
+     * @return the values or null if the variable can't be resolved
+     */
+    private static List<Object> resolveName(Node name, int depth)
+    {
+        String var = name.getString();
+        for (Node scope = getScope(name); scope != null; scope = getScope(scope)) {
+            if (var.equals(scope.getFirstChild().getString())) {
+                /*
+                 This is the name of the function itself
+                 */
+                return null;
+            }
+            
+            int index = 0;
+            for (Node param : scope.getFirstChild().getNext().children()) {
+                if (var.equals(param.getString())) {
+                    return resolveParam(scope, index, var, depth);
+                }
+                index++;
+            }
+            
+            if (isDeclared(scope.getLastChild(), var)) {
+                List<Node> values = new ArrayList<Node>();
+                if (!findAssignments(scope.getLastChild(), var, values) || values.isEmpty()) {
+                    return null;
+                }
+                
+                return evaluateAll(values, depth);
+            }
+        }
+        
+        /*
+         Then this is a global variable or a variable we couldn't find
+         */
+        return null;
+    }
+    
+    /**
+     * Resolve a parameter of a function passed to an iteration function.  We handle 
+     * jQuery.each(collection, function(key, value)), _.each(collection, function(value, key)), 
+     * and collection.forEach(function(value, key)) where the collection is an array literal,
+     * an object literal, or a literal string split into an array like 'a b'.split(' ').
+     * Any other each function could pass its arguments in either order so we don't 
+     * resolve its parameters.
+     * 
+     * @param func   the function with the parameter
+     * @param index  the index of the parameter
+     * @param var    the name of the parameter
+     * @param depth  the number of variables we followed to get here
+     * 
+     * @return the values or null if the parameter can't be resolved
+     */
+    private static List<Object> resolveParam(Node func, int index, String var, int depth)
+    {
+        List<Node> assignments = new ArrayList<Node>();
+        if (!findAssignments(func.getLastChild(), var, assignments) || !assignments.isEmpty()) {
+            /*
+             The function changes the parameter so it isn't just the
+             values from the collection.
+             */
+            return null;
+        }
+        
+        Node call = func.getParent();
+        if (call == null || call.getType() != Token.CALL || call.getFirstChild().getType() != Token.GETPROP) {
+            return null;
+        }
+        
+        Node callee = call.getFirstChild();
+        String method = callee.getLastChild().getString();
+        
+        Node collection;
+        int keyIndex;
+        if ("forEach".equals(method) && callee.getNext() == func) {
+            collection = callee.getFirstChild();
+            keyIndex = 1;
+        } else if (("each".equals(method) || "forEach".equals(method)) && 
+                   callee.getNext() != null && callee.getNext().getNext() == func) {
+            collection = callee.getNext();
+            keyIndex = getKeyIndex(callee.getFirstChild(), method);
+            if (keyIndex == -1) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        
+        if (index == keyIndex) {
+            return getKeys(collection, depth);
+        } else if (index == 1 - keyIndex) {
+            return getValues(collection, depth);
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * Get the index of the key parameter in the callback of a library iteration function.
+     * The owner must be the library object itself, like jQuery or window.jQuery, since an 
+     * alias like var jq = jQuery.noConflict() could hold any object with an each function.
+     * 
+     * @param owner  the object the iteration function is called on
+     * @param method the name of the iteration function
+     * 
+     * @return 0 for jQuery.each, 1 for _.each, or -1 if we don't know the function
+     */
+    private static int getKeyIndex(Node owner, String method)
+    {
+        if (owner.getType() == Token.GETPROP && owner.getFirstChild().getType() == Token.NAME &&
+            "window".equals(owner.getFirstChild().getString())) {
+            owner = owner.getLastChild();
+        } else if (owner.getType() != Token.NAME) {
+            return -1;
+        }
+        
+        String name = owner.getString();
+        if ("each".equals(method) && ("jQuery".equals(name) || "$".equals(name))) {
+            return 0;
+        } else if ("_".equals(name)) {
+            return 1;
+        } else {
+            return -1;
+        }
+    }
+    
+    /**
+     * Get the keys of a literal collection.
+     * 
+     * @param collection the collection
+     * @param depth      the number of variables we followed to get here
+     * 
+     * @return the keys or null if this isn't a literal collection
+     */
+    private static List<Object> getKeys(Node collection, int depth)
+    {
+        if (collection.getType() == Token.OBJECTLIT) {
+            List<Object> keys = new ArrayList<Object>();
+            for (Node key : collection.children()) {
+                if (key.getType() != Token.STRING) {
+                    return null;
+                }
+                keys.add(key.getString());
+            }
+            return keys;
+        }
+        
+        int length;
+        if (collection.getType() == Token.ARRAYLIT) {
+            length = collection.getChildCount();
+        } else {
+            List<String> items = split(collection, depth);
+            if (items == null) {
+                return null;
+            }
+            length = items.size();
+        }
+        
+        List<Object> keys = new ArrayList<Object>();
+        for (int i = 0; i < length; i++) {
+            keys.add((double) i);
+        }
+        return keys;
+    }
+    
+    /**
+     * Get the values of a literal collection.
+     * 
+     * @param collection the collection
+     * @param depth      the number of variables we followed to get here
+     * 
+     * @return the values or null if this isn't a literal collection or the values aren't constant
+     */
+    private static List<Object> getValues(Node collection, int depth)
+    {
+        if (collection.getType() == Token.ARRAYLIT) {
+            List<Node> values = new ArrayList<Node>();
+            for (Node value : collection.children()) {
+                values.add(value);
+            }
+            return evaluateAll(values, depth);
+        } else if (collection.getType() == Token.OBJECTLIT) {
+            List<Node> values = new ArrayList<Node>();
+            for (Node key : collection.children()) {
+                if (key.getType() != Token.STRING) {
+                    return null;
+                }
+                values.add(key.getFirstChild());
+            }
+            return evaluateAll(values, depth);
+        } else {
+            List<String> items = split(collection, depth);
+            if (items == null) {
+                return null;
+            }
+            return new ArrayList<Object>(items);
+        }
+    }
+    
+    /**
+     * Evaluate a call like 'a b c'.split(' ') which splits a constant string.
+     * 
+     * @param call   the call
+     * @param depth  the number of variables we followed to get here
+     * 
+     * @return the split strings or null if this isn't a split of a constant string
+     */
+    private static List<String> split(Node call, int depth)
+    {
+        if (call.getType() != Token.CALL || call.getChildCount() != 2 ||
+            call.getFirstChild().getType() != Token.GETPROP ||
+            !"split".equals(call.getFirstChild().getLastChild().getString()) ||
+            call.getLastChild().getType() != Token.STRING) {
+            return null;
+        }
+        
+        String separator = call.getLastChild().getString();
+        List<Object> values = evaluate(call.getFirstChild().getFirstChild(), depth);
+        if (separator.length() == 0 || values == null || values.size() != 1 || 
+            !(values.get(0) instanceof String)) {
+            return null;
+        }
+        
+        String s = (String) values.get(0);
+        List<String> items = new ArrayList<String>();
+        int start = 0;
+        for (int end = s.indexOf(separator); end > -1; end = s.indexOf(separator, start)) {
+            items.add(s.substring(start, end));
+            start = end + separator.length();
+        }
+        items.add(s.substring(start));
+        
+        return items;
+    }
+    
+    /**
+     * Evaluate a list of expressions and combine all of their values.
+     * 
+     * @param nodes  the expressions
+     * @param depth  the number of variables we followed to get here
+     * 
+     * @return the values or null if any of the expressions isn't constant
+     */
+    private static List<Object> evaluateAll(List<Node> nodes, int depth)
+    {
+        Set<Object> values = new LinkedHashSet<Object>();
+        for (Node n : nodes) {
+            List<Object> v = evaluate(n, depth);
+            if (v == null) {
+                return null;
+            }
+            values.addAll(v);
+            
+            if (values.size() > MAX_VALUES) {
+                return null;
+            }
+        }
+        
+        return new ArrayList<Object>(values);
+    }
+    
+    /**
+     * Get the function which the specified node is in.
+     * 
+     * @param n      the node
+     * 
+     * @return the function or null if this node is in the global scope
+     */
+    private static Node getScope(Node n)
+    {
+        for (Node parent = n.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent.getType() == Token.FUNCTION) {
+                return parent;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Determine if a variable is declared with var in the specified function body.  This
+     * doesn't look in the functions nested in the body since they have their own scope.
+     * 
+     * @param node   the node to look under
+     * @param var    the variable name
+     * 
+     * @return true if the variable is declared here and false otherwise
+     */
+    private static boolean isDeclared(Node node, String var)
+    {
+        for (Node n : node.children()) {
+            if (n.getType() == Token.VAR) {
+                for (Node name : n.children()) {
+                    if (var.equals(name.getString())) {
+                        return true;
+                    }
+                }
+            } else if (n.getType() != Token.FUNCTION && isDeclared(n, var)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Find all the values assigned to a variable.  This looks in the nested functions 
+     * too since they can change the variable.
+     * 
+     * @param node   the node to look under
+     * @param var    the variable name
+     * @param values the list to add the assigned values to
+     * 
+     * @return false if the variable is changed in a way we can't follow like var++ or 
+     *         for (var in obj) and true otherwise
+     */
+    private static boolean findAssignments(Node node, String var, List<Node> values)
+    {
+        for (Node n : node.children()) {
+            int type = n.getType();
+            if (type == Token.VAR) {
+                for (Node name : n.children()) {
+                    if (var.equals(name.getString()) && name.getFirstChild() != null) {
+                        values.add(name.getFirstChild());
+                    }
+                }
+            } else if (type == Token.ASSIGN && isName(n.getFirstChild(), var)) {
+                values.add(n.getLastChild());
+            } else if ((type >= Token.ASSIGN_BITOR && type <= Token.ASSIGN_MOD && isName(n.getFirstChild(), var)) ||
+                       ((type == Token.INC || type == Token.DEC) && isName(n.getFirstChild(), var)) ||
+                       (type == Token.CATCH && isName(n.getFirstChild(), var)) ||
+                       (type == Token.FUNCTION && var.equals(n.getFirstChild().getString()))) {
+                return false;
+            } else if (type == Token.FOR && n.getChildCount() == 3) {
+                /*
+                 This is a for in loop like for (var in obj)
+                 */
+                Node target = n.getFirstChild();
+                if (target.getType() == Token.VAR) {
+                    target = target.getFirstChild();
+                }
+                
+                if (isName(target, var)) {
+                    return false;
+                }
+            }
+            
+            if (!findAssignments(n, var, values)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Determine if the specified node is a reference to the specified variable.
+     * 
+     * @param n      the node
+     * @param var    the variable name
+     * 
+     * @return true if this is the variable and false otherwise
+     */
+    private static boolean isName(Node n, String var)
+    {
+        return n != null && n.getType() == Token.NAME && var.equals(n.getString());
+    }
+    
+    /**
+     * Get the string form of a constant value.
+     * 
+     * @param value  the value
+     * 
+     * @return the string
+     */
+    private static String getString(Object value)
+    {
+        if (value instanceof Double) {
+            double num = (Double) value;
+            int inum = (int) num;
+            if (inum == num) {
+                return "" + inum;
+            } else {
+                return "" + num;
+            }
+        } else {
+            return (String) value;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The symbol table interns names as small int IDs.  IDs are handed out in the order the
+ * names are first seen so they can index arrays and BitSets instead of keying maps by
+ * string.
+ */
+public final class SymbolTable
+{
+    private Map<String, Integer> m_ids = new HashMap<String, Integer>();
+    private List<String> m_names = new ArrayList<String>();
+    
+    /**
+     * Get the ID of the specified name and add the name if it isn't in the table yet.
+     * 
+     * @param name   the name
+     * 
+     * @return the ID of the name
+     */
+    public int intern(String name)
+    {
+        Integer id = m_ids.get(name);
+        if (id == null) {
+            id = m_names.size();
+            m_ids.put(name, id);
+            m_names.add(name);
+        }
+        
+        return id;
+    }
+    
+    /**
+     * Get the ID of the specified name.
+     * 
+     * @param name   the name
+     * 
+     * @return the ID of the name or -1 if the name isn't in the table
+     */
+    public int getId(String name)
+    {
+        Integer id = m_ids.get(name);
+        if (id == null) {
+            return -1;
+        }
+        
+        return id;
+    }
+    
+    /**
+     * Get the name with the specified ID.
+     * 
+     * @param id     the ID
+     * 
+     * @return the name
+     */
+    public String getName(int id)
+    {
+        return m_names.get(id);
+    }
+    
+    /**
+     * Get the number of names in this table.  IDs go from 0 to one less than the size.
+     * 
+     * @return the number of names
+     */
+    public int size()
+    {
+        return m_names.size();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "SymbolTable: " + m_names;
+    }
+}
@@ -0,0 +1,480 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * The var pruner removes variable declarations and property assignments which nothing
+ * refers to, like lookup tables, regular expressions, and configuration objects which
+ * were only used by functions JSlim removed.
+ * 
+ * A variable is referenced by any name with the same name.  Global variables are also
+ * referenced by strings and by the names in the main files and the externs.  A property
+ * assignment like jQuery.cssHooks.foo = {} is referenced by any property or string named
+ * foo.  The property also stays if the object it is assigned to is used as a whole, like
+ * passing jQuery.cssHooks to a function or reading it with a computed index, since the 
+ * property could be found that way.  Only values without side effects are removed.
+ * 
+ * Code run with eval or with can refer to anything it can see.  When a library file uses
+ * them we don't remove anything from that file and we don't remove any global variables
+ * or properties.  A computed index on something other than a name or a property, like 
+ * this[k], could read a property of any object or a global variable through the window
+ * object so we don't remove any global variables or properties then either.
+ */
+public class VarPruner
+{
+    private static final Logger LOGGER = JSlim.getLogger();
+    
+    /**
+     * These node types have no side effects as long as their children don't.
+     */
+    private static final Set<Integer> PURE_TYPES = new HashSet<Integer>(Arrays.asList(
+        Token.STRING, Token.NUMBER, Token.TRUE, Token.FALSE, Token.NULL, Token.REGEXP, Token.NAME,
+        Token.THIS, Token.ARRAYLIT, Token.OBJECTLIT, Token.GETTER_DEF, Token.SETTER_DEF, Token.GETPROP,
+        Token.GETELEM, Token.NOT, Token.NEG, Token.POS, Token.BITNOT, Token.TYPEOF, Token.VOID,
+        Token.ADD, Token.SUB, Token.MUL, Token.DIV, Token.MOD, Token.BITOR, Token.BITXOR, Token.BITAND,
+        Token.LSH, Token.RSH, Token.URSH, Token.EQ, Token.NE, Token.LT, Token.LE, Token.GT, Token.GE,
+        Token.SHEQ, Token.SHNE, Token.AND, Token.OR, Token.HOOK));
+    
+    private Set<String> m_external = new HashSet<String>();
+    private Map<String, Integer> m_names = new HashMap<String, Integer>();
+    private Map<String, Integer> m_strings = new HashMap<String, Integer>();
+    private Set<String> m_escaped = new HashSet<String>();
+    private Set<Node> m_dynamicScripts = new HashSet<Node>();
+    private boolean m_computedAccess;
+    
+    /**
+     * Add the names and strings used in a main file.  Global variables and properties
+     * they refer to are never removed.
+     * 
+     * @param node   the root of the main file tree
+     */
+    public void addReferences(Node node)
+    {
+        for (Node n : node.children()) {
+            if (n.getType() == Token.NAME || n.getType() == Token.STRING) {
+                m_external.add(n.getString());
+            }
+            
+            addReferences(n);
+        }
+    }
+    
+    /**
+     * Remove the unreferenced variables and property assignments from the library tree.
+     * Removing one can leave others unreferenced so this should be called again until it
+     * doesn't remove anything.
+     * 
+     * @param root   the root of the library tree
+     * @param calls  the calls from the main files and the externs
+     * 
+     * @return the removed variable names and property assignment statements
+     */
+    public List<Node> prune(Node root, List<Call> calls)
+    {
+        for (Call call : calls) {
+            m_external.add(call.getName());
+        }
+        
+        m_names.clear();
+        m_strings.clear();
+        m_escaped.clear();
+        m_dynamicScripts.clear();
+        m_computedAccess = false;
+        count(root);
+        
+        if (m_computedAccess) {
+            LOGGER.log(Level.INFO, "The library files use a computed index like this[k] so no global variables " +
+                       "or properties are removed.");
+        }
+        
+        List<Node> unused = new ArrayList<Node>();
+        for (Node script : root.children()) {
+            if (!m_dynamicScripts.contains(script)) {
+                findUnused(script, unused);
+            } else {
+                LOGGER.log(Level.INFO, script.getSourceFileName() + " uses eval or with so nothing is removed from it.");
+            }
+        }
+        
+        for (Node n : unused) {
+            if (n.getType() == Token.NAME) {
+                LOGGER.log(Level.INFO, "removeVar({0})", n.getString());
+                if (n.getParent().hasOneChild()) {
+                    n.getParent().detachFromParent();
+                } else {
+                    n.detachFromParent();
+                }
+            } else {
+                LOGGER.log(Level.INFO, "removeProperty({0})", n.getFirstChild().getFirstChild().getLastChild().getString());
+                n.detachFromParent();
+            }
+        }
+        
+        return unused;
+    }
+    
+    /**
+     * Remove the functions which were part of a removed value from a list of functions.
+     * 
+     * @param funcs  the list of functions
+     * @param root   the root of the library tree
+     */
+    static void removeDetached(List<Node> funcs, Node root)
+    {
+        Iterator<Node> iter = funcs.iterator();
+        while (iter.hasNext()) {
+            Node top = iter.next();
+            while (top.getParent() != null) {
+                top = top.getParent();
+            }
+            
+            if (top != root) {
+                iter.remove();
+            }
+        }
+    }
+    
+    /**
+     * Count the names and strings under the specified node and find the objects which
+     * are used as a whole.
+     * 
+     * @param node   the node to look in
+     */
+    private void count(Node node)
+    {
+        for (Node n : node.children()) {
+            if (n.getType() == Token.NAME && n.getParent().getType() != Token.VAR) {
+                increment(m_names, n.getString());
+            } else if (n.getType() == Token.STRING) {
+                increment(m_strings, n.getString());
+            } else if (n.getType() == Token.WITH ||
+                       (n.getType() == Token.CALL && n.getFirstChild().getType() == Token.NAME &&
+                        "eval".equals(n.getFirstChild().getString()))) {
+                m_dynamicScripts.add(getScript(n));
+            } else if (n.getType() == Token.GETELEM && isComputed(n.getLastChild()) &&
+                       n.getFirstChild().getType() != Token.NAME && n.getFirstChild().getType() != Token.GETPROP) {
+                /*
+                 We can't tell which object this[k] or f()[k] reads from
+                 */
+                m_computedAccess = true;
+            }
+            
+            if ((n.getType() == Token.NAME || n.getType() == Token.GETPROP) && isEscaped(n)) {
+                m_escaped.add(getSegment(n));
+            } else if (n.getType() == Token.NAME && n.getParent().getType() == Token.VAR &&
+                       n.getFirstChild() != null && !isFresh(n.getFirstChild())) {
+                /*
+                 A variable like var paperproto = Paper.prototype is
+                 another name for an object which is used elsewhere.
+                 */
+                m_escaped.add(n.getString());
+            } else if (n.getType() == Token.ASSIGN && isEscapedAssign(n)) {
+                m_escaped.add(getSegment(n.getFirstChild()));
+            }
+            
+            count(n);
+        }
+    }
+    
+    /**
+     * Get the script which contains the specified node.
+     * 
+     * @param n      the node to look for
+     * 
+     * @return the script node
+     */
+    private static Node getScript(Node n)
+    {
+        Node script = n;
+        while (script.getType() != Token.SCRIPT) {
+            script = script.getParent();
+        }
+        
+        return script;
+    }
+    
+    /**
+     * Increment the count of the specified string.
+     * 
+     * @param counts the counts to change
+     * @param s      the string to count
+     */
+    private static void increment(Map<String, Integer> counts, String s)
+    {
+        Integer count = counts.get(s);
+        counts.put(s, count == null ? 1 : count + 1);
+    }
+    
+    /**
+     * Get the count of the specified string.
+     * 
+     * @param counts the counts to look in
+     * @param s      the string to look for
+     * 
+     * @return the number of times the string was counted
+     */
+    private static int getCount(Map<String, Integer> counts, String s)
+    {
+        Integer count = counts.get(s);
+        return count == null ? 0 : count;
+    }
+    
+    /**
+     * Get the last name in a name or a property chain, like cssHooks in jQuery.cssHooks.
+     * 
+     * @param n      the name or property node
+     * 
+     * @return the last name
+     */
+    private static String getSegment(Node n)
+    {
+        if (n.getType() == Token.NAME) {
+            return n.getString();
+        } else {
+            return n.getLastChild().getString();
+        }
+    }
+    
+    /**
+     * Determine if the object referred to by the specified name or property is used as a
+     * whole.  Reading a property from it, assigning to it, calling it, or declaring it 
+     * doesn't count.  Anything else, like passing it to a function, could find any of 
+     * its properties.
+     * 
+     * @param n      the name or property node
+     * 
+     * @return true if the object is used as a whole and false otherwise
+     */
+    private static boolean isEscaped(Node n)
+    {
+        Node parent = n.getParent();
+        int type = parent.getType();
+        
+        if (type == Token.GETPROP || type == Token.ASSIGN || type == Token.CALL || type == Token.NEW) {
+            return parent.getFirstChild() != n;
+        } else if (type == Token.GETELEM && parent.getFirstChild() == n) {
+            /*
+             An element reference like obj['foo'] is just like obj.foo
+             but obj[foo] could be any property.
+             */
+            return isComputed(n.getNext());
+        }
+        
+        return type != Token.VAR && type != Token.EXPR_RESULT &&
+               type != Token.FUNCTION && type != Token.PARAM_LIST;
+    }
+    
+    /**
+     * Determine if the specified element index is computed.  An element reference like 
+     * obj['foo'] is just like obj.foo, but obj[foo] could be any property.
+     * 
+     * @param index  the index of the element reference
+     * 
+     * @return true if the index is computed and false if it is a string or a number
+     */
+    private static boolean isComputed(Node index)
+    {
+        return index.getType() != Token.STRING && index.getType() != Token.NUMBER;
+    }
+    
+    /**
+     * Determine if the target of the specified assignment could be another name for an
+     * object used elsewhere.  That happens when the assigned value isn't a new object or
+     * when the assignment is part of a chain like R.fn = paperproto = Paper.prototype.
+     * 
+     * @param assign the assignment node
+     * 
+     * @return true if the target of the assignment is used as a whole and false otherwise
+     */
+    private static boolean isEscapedAssign(Node assign)
+    {
+        Node target = assign.getFirstChild();
+        if (target.getType() != Token.NAME && target.getType() != Token.GETPROP) {
+            return false;
+        }
+        
+        return assign.getParent().getType() != Token.EXPR_RESULT || !isFresh(assign.getLastChild());
+    }
+    
+    /**
+     * Determine if the specified value is a new object or a literal value which can't be
+     * referred to by any other name.
+     * 
+     * @param n      the value node
+     * 
+     * @return true if the value is new and false otherwise
+     */
+    private static boolean isFresh(Node n)
+    {
+        int type = n.getType();
+        return type == Token.OBJECTLIT || type == Token.ARRAYLIT || type == Token.FUNCTION ||
+               type == Token.STRING || type == Token.NUMBER || type == Token.REGEXP ||
+               type == Token.TRUE || type == Token.FALSE || type == Token.NULL;
+    }
+    
+    /**
+     * Find the unused variables and property assignments under the specified node.  We
+     * don't look inside the ones we find since they're removed as a whole.
+     * 
+     * @param node   the node to look in
+     * @param unused the list to add the unused nodes to
+     */
+    private void findUnused(Node node, List<Node> unused)
+    {
+        for (Node n : node.children()) {
+            if (isUnusedVar(n) || isUnusedProperty(n)) {
+                unused.add(n);
+            } else {
+                findUnused(n, unused);
+            }
+        }
+    }
+    
+    /**
+     * Determine if the specified node is the statement list of a script or a function.
+     * We only remove statements from there so we never remove the only statement of 
+     * something like an if block.
+     * 
+     * @param n      the node to check
+     * 
+     * @return true if this is a script or a function body and false otherwise
+     */
+    private static boolean isStatementList(Node n)
+    {
+        return n != null && (n.getType() == Token.SCRIPT || 
+            (n.getType() == Token.BLOCK && n.getParent() != null && n.getParent().getType() == Token.FUNCTION));
+    }
+    
+    /**
+     * Determine if the specified node is a variable declaration nothing refers to.  
+     * 
+     * @param n      the node to check
+     * 
+     * @return true if this is an unused variable name and false otherwise
+     */
+    private boolean isUnusedVar(Node n)
+    {
+        if (n.getType() != Token.NAME || n.getParent().getType() != Token.VAR ||
+            !isStatementList(n.getParent().getParent())) {
+            return false;
+        }
+        
+        if (n.getFirstChild() != null && !isPure(n.getFirstChild())) {
+            return false;
+        }
+        
+        String name = n.getString();
+        if (n.getParent().getParent().getType() == Token.SCRIPT &&
+            (getCount(m_strings, name) > 0 || m_external.contains(name) || isDynamic())) {
+            /*
+             Global variables can be used from the main files or as a 
+             property of the window object.
+             */
+            return false;
+        }
+        
+        return getCount(m_names, name) == 0;
+    }
+    
+    /**
+     * Determine if the specified node is a property assignment statement like 
+     * jQuery.cssHooks.foo = {} which nothing refers to.  Assignments of functions are left
+     * for the function pruning.
+     * 
+     * @param n      the node to check
+     * 
+     * @return true if this is an unused property assignment and false otherwise
+     */
+    private boolean isUnusedProperty(Node n)
+    {
+        if (n.getType() != Token.EXPR_RESULT || !isStatementList(n.getParent()) ||
+            n.getFirstChild().getType() != Token.ASSIGN ||
+            n.getFirstChild().getFirstChild().getType() != Token.GETPROP) {
+            return false;
+        }
+        
+        Node target = n.getFirstChild().getFirstChild();
+        Node value = n.getFirstChild().getLastChild();
+        if (value.getType() == Token.FUNCTION || !isPure(value)) {
+            return false;
+        }
+        
+        Node owner = target.getFirstChild();
+        if ((owner.getType() != Token.NAME && owner.getType() != Token.GETPROP) ||
+            "prototype".equals(getSegment(owner)) || m_escaped.contains(getSegment(owner))) {
+            /*
+             The properties of a prototype can be found from every object
+             created with it so we leave them alone.
+             */
+            return false;
+        }
+        
+        String prop = target.getLastChild().getString();
+        return getCount(m_strings, prop) == 1 && !m_external.contains(prop) && !isDynamic();
+    }
+    
+    /**
+     * Determine if the library files could refer to global variables or properties in a 
+     * way we can't follow, with eval, with, or a computed index we can't resolve.
+     * 
+     * @return true if the library files are dynamic and false otherwise
+     */
+    private boolean isDynamic()
+    {
+        return !m_dynamicScripts.isEmpty() || m_computedAccess;
+    }
+    
+    /**
+     * Determine if evaluating the specified node has no side effects.  Creating a 
+     * function has no side effects since the function isn't called.
+     * 
+     * @param n      the node to check
+     * 
+     * @return true if the node has no side effects and false otherwise
+     */
+    private static boolean isPure(Node n)
+    {
+        if (n.getType() == Token.FUNCTION) {
+            return true;
+        } else if (!PURE_TYPES.contains(n.getType())) {
+            return false;
+        }
+        
+        for (Node child : n.children()) {
+            if (!isPure(child)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+}
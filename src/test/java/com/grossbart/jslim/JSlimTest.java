@@ -17,15 +17,40 @@
  ******************************************************************************/
 package com.grossbart.jslim;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.rhino.Node;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * This test class covers the full unit tests for JSlim.
@@ -413,6 +438,61 @@ public class JSlimTest
         assertEquals("func3", funcs[1]);
     }
     
+    /**
+     * Test function assignments by property reference where the index uses local variables
+     * and the parameters of functions iterating over literal arrays and objects.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void constantIndexTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        String out = slim.addLib("constantindex.js", readFile("constantindex.js"), 
+                                 CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertEquals(7, slim.getTotalFunctionCount());
+        assertEquals(4, slim.getKeptFunctions().length);
+        
+        assertTrue("The called array function should be kept", out.indexOf("I'm inner") > -1);
+        assertTrue("The called split function should be kept", out.indexOf("I'm visible") > -1);
+        assertTrue("The function with a changed parameter should be kept", out.indexOf("I'm changed") > -1);
+        assertTrue("The function from an aliased each should be kept", out.indexOf("I'm aliased") > -1);
+        assertTrue("The called window.jQuery.each function should be kept", out.indexOf("I'm shown") > -1);
+        
+        assertTrue("The unused object function should be removed", out.indexOf("I'm first or last") == -1);
+        assertTrue("The unused forEach function should be removed", out.indexOf("I'm open") == -1);
+        assertTrue("The unused variable index function should be removed", out.indexOf("I'm a value") == -1);
+    }
+    
+    /**
+     * Test functions assigned to variables, including assignment chains declared as
+     * variables and functions passed by variable name instead of called.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void functionVarTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        String out = slim.addLib("functionvar.js", readFile("functionvar.js"), 
+                                 CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertEquals(6, slim.getTotalFunctionCount());
+        assertEquals(3, slim.getKeptFunctions().length);
+        
+        assertTrue("The called variable function should be kept", out.indexOf("I'm function 1") > -1);
+        assertTrue("The called chain function should be kept", out.indexOf("I'm function 4") > -1);
+        assertTrue("The function passed by name should be kept", out.indexOf("I'm the handler") > -1);
+        
+        assertTrue("The unused variable function should be removed", out.indexOf("I'm function 2") == -1);
+        assertTrue("The unused assigned function should be removed", out.indexOf("I'm function 3") == -1);
+        assertTrue("The unused chain function should be removed", out.indexOf("I'm function 5") == -1);
+        assertTrue("The other variable in the declaration should be kept", out.indexOf("I'm not a function") > -1);
+    }
+    
     /**
      * The call tests makes sure we can track down the call method
      * 
@@ -430,6 +510,1153 @@ public class JSlimTest
         assertEquals("func1", funcs[0]);
     }
     
+    /**
+     * Test that the call list finds the same calls and counts before and after it has 
+     * enough calls to build its index.
+     */
+    @Test
+    public void callListTest()
+    {
+        CallList calls = new CallList();
+        for (int i = 0; i < 20; i++) {
+            calls.add("func" + (i % 10), null);
+            calls.add("func" + (i % 10), i % 2 == 0 ? "$" : "_");
+            
+            if (i == 2) {
+                assertEquals(6, calls.size());
+                assertEquals(1, calls.getCount(calls.indexOf("func0", null)));
+                assertTrue(calls.contains("func1", "_"));
+                assertFalse(calls.contains("func1", "$"));
+            }
+        }
+        
+        /*
+         Each name has a call without a receiver and a call on one of
+         the receivers, and each call was made twice
+         */
+        assertEquals(20, calls.size());
+        assertEquals("func0", calls.getName(0));
+        assertEquals("$", calls.getReceiver(1));
+        assertEquals(null, calls.getReceiver(2));
+        assertEquals(2, calls.getCount(calls.indexOf("func3", null)));
+        assertEquals(2, calls.getCount(calls.indexOf("func3", "_")));
+        assertEquals(-1, calls.indexOf("func3", "$"));
+        assertEquals(-1, calls.indexOf("missing", null));
+        
+        calls.addCount(calls.indexOf("func3", null), -2);
+        assertTrue(calls.hasCount("func3"));
+        calls.addCount(calls.indexOf("func3", "_"), -2);
+        assertFalse(calls.hasCount("func3"));
+        assertTrue(calls.hasCount("func4"));
+        
+        /*
+         Adding a call which is already in the list only adds to its count
+         */
+        assertEquals(calls.indexOf("func4", "$"), calls.add("func4", "$"));
+        assertEquals(20, calls.size());
+        assertEquals(3, calls.getCount(calls.indexOf("func4", "$")));
+        
+        Call array[] = calls.toArray();
+        assertEquals(20, array.length);
+        assertEquals("func9", array[19].getName());
+        assertEquals("_", array[19].getReceiver());
+        
+        calls.clear();
+        assertTrue(calls.isEmpty());
+        assertFalse(calls.contains("func4", null));
+    }
+    
+    /**
+     * Test pruning with the closure tables of the library.  The closure tables keep only the
+     * functions reachable from the root calls and they are reused from memory or from disk
+     * when we prune the same library again.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void closureCacheTest()
+        throws IOException
+    {
+        File dir = File.createTempFile("jslim", "closures");
+        dir.delete();
+        
+        try {
+            ClosureCache cache = new ClosureCache(dir);
+            for (int i = 0; i < 2; i++) {
+                JSlim slim = new JSlim();
+                slim.setClosureCache(cache);
+                String out = slim.addLib("closurechain.js", readFile("closurechain.js"), 
+                                         CompilationLevel.SIMPLE_OPTIMIZATIONS);
+                String funcs[] = slim.getKeptFunctions();
+                
+                assertEquals(1, funcs.length);
+                assertEquals("func5", funcs[0]);
+                assertTrue("The chain of uncalled functions should be removed", out.indexOf("I'm function 4") == -1);
+            }
+            
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, dir.list().length);
+            
+            /*
+             A new cache finds the table on disk
+             */
+            cache = new ClosureCache(dir);
+            JSlim slim = new JSlim();
+            slim.setClosureCache(cache);
+            slim.addLib("closurechain.js", readFile("closurechain.js"), CompilationLevel.SIMPLE_OPTIMIZATIONS);
+            
+            assertEquals(1, slim.getKeptFunctions().length);
+            assertEquals(0, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            
+            /*
+             Changing the library source changes the key
+             */
+            slim = new JSlim();
+            slim.setClosureCache(cache);
+            slim.addLib("closurechain.js", readFile("closurechain.js") + "\nfunction func6() {}", 
+                        CompilationLevel.SIMPLE_OPTIMIZATIONS);
+            
+            assertEquals(1, cache.getMissCount());
+            assertEquals(2, dir.list().length);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    /**
+     * Test pruning the library files one at a time when they are over the heap ceiling.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void streamingTest()
+        throws IOException
+    {
+        ClosureCache cache = new ClosureCache();
+        String outs[] = new String[3];
+        for (int i = 0; i < outs.length; i++) {
+            JSlim slim = new JSlim();
+            slim.addSourceFile(new JSFile("vendormain.js", readFile("vendormain.js"), false));
+            slim.addSourceFile(new JSFile("vendorlib1.js", readFile("vendorlib1.js"), true));
+            slim.addSourceFile(new JSFile("vendorlib2.js", readFile("vendorlib2.js"), true));
+            
+            if (i != 1) {
+                slim.setClosureCache(cache);
+            }
+            
+            if (i != 0) {
+                slim.setHeapCeiling(1);
+            }
+            
+            outs[i] = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+            String funcs[] = slim.getKeptFunctions();
+            Arrays.sort(funcs);
+            
+            assertEquals(4, slim.getTotalFunctionCount());
+            assertEquals(2, funcs.length);
+            assertEquals("helper", funcs[0]);
+            assertEquals("run", funcs[1]);
+        }
+        
+        /*
+         The streaming prune keeps the same functions as pruning the
+         libraries together with a closure table and it uses the same
+         table from the cache
+         */
+        assertEquals(outs[0], outs[1]);
+        assertEquals(outs[0], outs[2]);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+    
+    /**
+     * Test walking only the bodies of the reachable functions.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void lazyWalkTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.setClosureCache(new ClosureCache());
+        slim.addLib("lazywalk.js", readFile("lazywalk.js"), CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        /*
+         The closure table follows the call to complete into the callback
+         in the unused function even though we remove it and keeps extra
+         */
+        assertEquals(4, slim.getKeptFunctions().length);
+        
+        slim = new JSlim();
+        slim.setLazyWalk(true);
+        String out = slim.addLib("lazywalk.js", readFile("lazywalk.js"), CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        String funcs[] = slim.getKeptFunctions();
+        Arrays.sort(funcs);
+        
+        assertEquals(2, funcs.length);
+        assertEquals("animate", funcs[0]);
+        assertEquals("used", funcs[1]);
+        assertTrue("The function only called from the unused function should be removed", out.indexOf("I'm extra") == -1);
+        assertTrue("The unused function should be removed", out.indexOf("ajax") == -1);
+    }
+    
+    /**
+     * Test scanning the main files for names instead of parsing them.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void fastScanTest()
+        throws IOException
+    {
+        /*
+         Names in comments, strings, and regular expressions don't count
+         unless the string is an index
+         */
+        assertEquals(Arrays.asList("re", "result", "lib", "func2", "re", "source"), 
+                     JSScanner.scan(readFile("scanmain.js")));
+        
+        /*
+         A slash after an increment or decrement is a division
+         */
+        assertEquals(Arrays.asList("x", "i", "f", "y", "j", "g"), 
+                     JSScanner.scan("x=i++/2+f()/3;y=j--/2+g()/3"));
+        
+        JSlim slim = new JSlim();
+        slim.setFastScan(true);
+        slim.addSourceFile(new JSFile("scanmain.js", readFile("scanmain.js"), false));
+        slim.addSourceFile(new JSFile("closurechain.js", readFile("closurechain.js"), true));
+        
+        String out = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        String funcs[] = slim.getKeptFunctions();
+        Arrays.sort(funcs);
+        
+        assertEquals(4, funcs.length);
+        assertEquals("func2", funcs[0]);
+        assertEquals("func5", funcs[3]);
+        assertTrue("The function only named in a comment should be removed", out.indexOf("func1") == -1);
+    }
+    
+    /**
+     * Test externs with globs, regular expressions, and library scopes in each of the ways
+     * we find the keepers.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void externPatternTest()
+        throws IOException
+    {
+        for (int mode = 0; mode < 3; mode++) {
+            JSlim slim = new JSlim();
+            if (mode == 1) {
+                slim.setClosureCache(new ClosureCache());
+            } else if (mode == 2) {
+                slim.setLazyWalk(true);
+            }
+            
+            slim.addExtern("ui*");
+            slim.addExtern("/^_on[A-Z]/");
+            slim.addExtern("externlib.js:kee?er");
+            slim.addExtern("other.js:dropped");
+            
+            String out = slim.addLib("externlib.js", readFile("externlib.js"), CompilationLevel.SIMPLE_OPTIMIZATIONS);
+            String funcs[] = slim.getKeptFunctions();
+            Arrays.sort(funcs);
+            
+            assertEquals(Arrays.asList("_onClick", "keeper", "uiHide", "uiShow"), Arrays.asList(funcs));
+            assertTrue("The function which doesn't match the expression should be removed", out.indexOf("not an event") == -1);
+            assertTrue("The function scoped to another library should be removed", out.indexOf("another library") == -1);
+            assertTrue("The unused function should be removed", out.indexOf("unused") == -1);
+        }
+    }
+    
+    /**
+     * Test that compiling more than once doesn't add more log handlers.
+     */
+    @Test
+    public void logHandlerTest()
+    {
+        Logger logger = Logger.getLogger("com.google.javascript.jscomp");
+        JSlim.plainCompile("one.js", "function one() {}", CompilationLevel.WHITESPACE_ONLY, null);
+        int handlers = logger.getHandlers().length;
+        JSlim.plainCompile("two.js", "function two() {}", CompilationLevel.WHITESPACE_ONLY, null);
+        
+        assertEquals(1, handlers);
+        assertEquals(handlers, logger.getHandlers().length);
+        assertEquals(JSlim.getLogger().getHandlers()[0], logger.getHandlers()[0]);
+    }
+    
+    /**
+     * Test running sessions from one engine at the same time on different threads.
+     * 
+     * @exception Exception if there is any error reading the sample files or running the threads
+     */
+    @Test
+    public void engineTest()
+        throws Exception
+    {
+        final JSlimEngine engine = new JSlimEngine.Builder()
+            .setCompilationLevel(CompilationLevel.SIMPLE_OPTIMIZATIONS)
+            .setClosureCache(new ClosureCache())
+            .addExtern("unused")
+            .build();
+        
+        final String files[] = {readFile("vendormain.js"), readFile("vendorlib1.js"), readFile("vendorlib2.js")};
+        final String outs[] = new String[4];
+        final String funcs[][] = new String[outs.length][];
+        Thread threads[] = new Thread[outs.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    JSlimSession session = engine.newSession();
+                    session.addSourceFile(new JSFile("vendormain.js", files[0], false));
+                    session.addSourceFile(new JSFile("vendorlib1.js", files[1], true));
+                    session.addSourceFile(new JSFile("vendorlib2.js", files[2], true));
+                    outs[index] = session.prune();
+                    funcs[index] = session.getKeptFunctions();
+                    session.close();
+                }
+            };
+            threads[i].start();
+        }
+        
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        JSlimSession session = engine.newSession();
+        session.addSourceFile(new JSFile("vendormain.js", files[0], false));
+        session.addSourceFile(new JSFile("vendorlib1.js", files[1], true));
+        session.addSourceFile(new JSFile("vendorlib2.js", files[2], true));
+        String out = session.prune();
+        
+        for (int i = 0; i < outs.length; i++) {
+            assertEquals(out, outs[i]);
+            assertEquals(Arrays.asList(session.getKeptFunctions()), Arrays.asList(funcs[i]));
+        }
+        
+        assertEquals(3, session.getKeptFunctions().length);
+        assertTrue("The extern from the engine should keep its function", out.indexOf("unused") > -1);
+        
+        session.close();
+        try {
+            session.getKeptFunctions();
+            fail("A closed session should not be used");
+        } catch (IllegalStateException e) {
+            /*
+             This is the exception we expect
+             */
+        }
+    }
+    
+    /**
+     * Test compiling more than one variant from the same prune.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void variantTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        String pruned = slim.addLib("basic.js", readFile("basic.js"), CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        CompileVariant debug = CompileVariant.parse("WHITESPACE_ONLY,PRETTY_PRINT:basic.debug.js");
+        assertEquals(CompilationLevel.WHITESPACE_ONLY, debug.getLevel());
+        assertEquals(JSlim.FormattingOption.PRETTY_PRINT, debug.getFormatting());
+        assertEquals("basic.debug.js", debug.getOutput());
+        
+        CompileVariant none = CompileVariant.parse("NONE:basic.js");
+        assertEquals(null, none.getLevel());
+        assertEquals(null, none.getFormatting());
+        
+        List<CompileVariant> variants = Arrays.asList(debug, none,
+            new CompileVariant(CompilationLevel.ADVANCED_OPTIMIZATIONS, null, "basic.min.js"));
+        List<String> results = CompileVariant.compileAll(pruned, variants, 3, null, null);
+        
+        /*
+         Each variant is the same as compiling the prune on its own
+         */
+        assertEquals(JSlim.plainCompile("basic.debug.js", pruned, CompilationLevel.WHITESPACE_ONLY, 
+                                        JSlim.FormattingOption.PRETTY_PRINT), results.get(0));
+        assertEquals(pruned, results.get(1));
+        assertEquals(JSlim.plainCompile("basic.min.js", pruned, CompilationLevel.ADVANCED_OPTIMIZATIONS, null), 
+                     results.get(2));
+        
+        try {
+            CompileVariant.parse("FAST:basic.js");
+            fail("A variant with an unknown level should not parse");
+        } catch (IllegalArgumentException e) {
+            /*
+             This is the exception we expect
+             */
+        }
+    }
+    
+    /**
+     * Test compiling with cached fragments for each top level statement.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void fragmentCacheTest()
+        throws IOException
+    {
+        FragmentCache cache = new FragmentCache();
+        String code = readFile("vendorlib1.js") + readFile("vendorlib2.js");
+        
+        String whole = JSlim.plainCompile("vendor.js", code, CompilationLevel.WHITESPACE_ONLY, null);
+        assertEquals(whole, cache.compile("vendor.js", code, CompilationLevel.WHITESPACE_ONLY, null));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        
+        /*
+         Changing one statement only compiles that statement again
+         */
+        String changed = readFile("vendorlib1.js") + readFile("vendorlib2.js").replace("stop", "halt");
+        String result = cache.compile("vendor.js", changed, CompilationLevel.WHITESPACE_ONLY, null);
+        assertEquals(JSlim.plainCompile("vendor.js", changed, CompilationLevel.WHITESPACE_ONLY, null), result);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        
+        /*
+         Each compilation level has its own fragments
+         */
+        cache.compile("vendor.js", code, CompilationLevel.SIMPLE_OPTIMIZATIONS, null);
+        assertEquals(5, cache.getMissCount());
+    }
+    
+    /**
+     * Test reading compiled results from the compile cache and deleting the oldest ones.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void compileCacheTest()
+        throws IOException
+    {
+        File dir = File.createTempFile("jslim", "compiled");
+        dir.delete();
+        
+        try {
+            String code = readFile("vendorlib1.js") + readFile("vendorlib2.js");
+            String whole = JSlim.plainCompile("vendor.js", code, CompilationLevel.SIMPLE_OPTIMIZATIONS, null);
+            
+            CompileCache cache = new CompileCache(dir);
+            assertEquals(whole, cache.compile("vendor.js", code, CompilationLevel.SIMPLE_OPTIMIZATIONS, null, null));
+            assertEquals(0, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+            
+            /*
+             A new cache finds the result on disk
+             */
+            cache = new CompileCache(dir, 1, CompileCache.DEFAULT_MAX_BYTES);
+            assertEquals(whole, cache.compile("vendor.js", code, CompilationLevel.SIMPLE_OPTIMIZATIONS, null, null));
+            assertEquals(1, cache.getHitCount());
+            assertEquals(0, cache.getMissCount());
+            
+            /*
+             Another compilation level is another result and the older
+             one is deleted to stay within one entry
+             */
+            String result = cache.compile("vendor.js", code, CompilationLevel.WHITESPACE_ONLY, null, null);
+            assertEquals(JSlim.plainCompile("vendor.js", code, CompilationLevel.WHITESPACE_ONLY, null), result);
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getEvictionCount());
+            assertEquals(1, dir.list().length);
+            
+            /*
+             Code with errors is never stored
+             */
+            cache.compile("broken.js", "function broken( {", CompilationLevel.WHITESPACE_ONLY, null, null);
+            cache.compile("broken.js", "function broken( {", CompilationLevel.WHITESPACE_ONLY, null, null);
+            assertEquals(3, cache.getMissCount());
+            assertEquals(1, dir.list().length);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    /**
+     * Test reading and validating several files at the same time.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void sourceReaderTest()
+        throws IOException
+    {
+        File dir = File.createTempFile("jslim", "sources");
+        dir.delete();
+        
+        try {
+            String names[] = {"vendorlib1.js", "invalid.js", "vendorlib2.js", "basic.js"};
+            List<String> files = new ArrayList<String>();
+            for (String name : names) {
+                File file = new File(dir, name);
+                FileUtils.writeStringToFile(file, readFile(name), "UTF-8");
+                files.add(file.getPath());
+            }
+            
+            List<SourceReader.Source> sources = new SourceReader("UTF-8", true, null).readAll(files);
+            assertEquals(names.length, sources.size());
+            for (int i = 0; i < names.length; i++) {
+                assertEquals(names[i], sources.get(i).getFile().getName());
+                assertEquals(readFile(names[i]), sources.get(i).getContents());
+                assertEquals("invalid.js".equals(names[i]), sources.get(i).hasErrors());
+            }
+            
+            /*
+             The contents after the kept files are dropped
+             */
+            sources = new SourceReader("UTF-8", true, null).readAll(files, 1);
+            assertEquals(readFile(names[0]), sources.get(0).getContents());
+            for (int i = 1; i < names.length; i++) {
+                assertNull(sources.get(i).getContents());
+                assertEquals("invalid.js".equals(names[i]), sources.get(i).hasErrors());
+            }
+            
+            /*
+             Without validation there are never errors
+             */
+            assertFalse(new SourceReader("UTF-8", false, null).read(files.get(1)).hasErrors());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    /**
+     * Test that searching a large call graph on several threads finds the same functions
+     * as searching it on one thread.
+     */
+    @Test
+    public void parallelReachableTest()
+    {
+        CallGraph graph = new CallGraph();
+        Random random = new Random(42);
+        int size = CallGraph.PARALLEL_THRESHOLD * 2;
+        for (int i = 0; i < size; i++) {
+            /*
+             Some of the functions share a name with another function
+             */
+            List<String> names = Arrays.asList("func" + (i % 2 == 0 ? i : i - 1));
+            Call calls[] = new Call[random.nextInt(4)];
+            for (int j = 0; j < calls.length; j++) {
+                calls[j] = new Call("func" + random.nextInt(size));
+            }
+            graph.addFunction(null, names, calls);
+        }
+        
+        List<String> roots = Arrays.asList("func0", "func100", "func2000", "missing");
+        BitSet reachable = graph.findReachable(roots);
+        assertTrue(reachable.cardinality() > 2);
+        assertTrue(reachable.cardinality() < size);
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(reachable, graph.findReachableParallel(roots, pool));
+            assertEquals(reachable, graph.findReachable(roots, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Test that the keeper search finds the same keepers in the same order when it finds
+     * the calls of each function on the threads of a pool.
+     */
+    @Test
+    public void parallelKeeperSearchTest()
+    {
+        LibraryGenerator generator = new LibraryGenerator();
+        generator.setFunctions(CallGraph.PARALLEL_THRESHOLD);
+        generator.generate();
+        
+        JSlim slim = new JSlim();
+        Compiler main = slim.parse(Arrays.asList(new JSFile("main.js", generator.getMain(), false)), null);
+        Compiler lib = slim.parse(Arrays.asList(new JSFile("lib.js", generator.getLibrary(), true)), null);
+        slim.addBoundNames(lib.getRoot());
+        List<Node> funcs = slim.findLibFunctions(lib.getRoot());
+        CallList calls = new CallList();
+        slim.findRootCalls(main.getRoot().getLastChild(), calls);
+        slim.findRootCalls(lib.getRoot().getLastChild(), calls);
+        
+        List<Node> keepers = KeeperSearch.findKeepers(slim, funcs, calls, null);
+        assertTrue(funcs.size() >= CallGraph.PARALLEL_THRESHOLD);
+        assertTrue(keepers.size() > 1);
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(keepers, KeeperSearch.findKeepers(slim, funcs, calls, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Test that a closure table finds the same functions as searching the graph and that
+     * it finds the same functions after it is written and read again.
+     * 
+     * @exception IOException if there is any error writing or reading the table
+     */
+    @Test
+    public void closureTableTest()
+        throws IOException
+    {
+        CallGraph graph = new CallGraph();
+        Random random = new Random(42);
+        int size = 2000;
+        String functions[] = new String[size];
+        for (int i = 0; i < size; i++) {
+            functions[i] = "func" + i;
+            
+            /*
+             The first functions call a lot of others so some closures
+             are dense and the rest only call a few
+             */
+            Call calls[] = new Call[i < 50 ? 20 : random.nextInt(2)];
+            for (int j = 0; j < calls.length; j++) {
+                calls[j] = new Call("func" + random.nextInt(size));
+            }
+            graph.addFunction(null, Arrays.asList(functions[i]), calls);
+        }
+        
+        ClosureTable table = new ClosureTable(graph, functions);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        table.write(out);
+        ClosureTable read = ClosureTable.read(new ByteArrayInputStream(out.toByteArray()));
+        
+        for (String root : new String[] {"func0", "func100", "func1999"}) {
+            List<String> roots = Arrays.asList(root, "missing");
+            assertEquals(graph.findReachable(roots), table.getReachable(roots));
+            assertEquals(graph.findReachable(roots), read.getReachable(roots));
+        }
+        
+        assertTrue(read.matches(functions));
+        functions[0] = "other";
+        assertFalse(read.matches(functions));
+        assertFalse(new ClosureTable(graph).matches(functions));
+    }
+    
+    /**
+     * Test that removing the unused names of an assignment chain keeps the function at the
+     * end of the chain when it is called by one of the other names.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void aliasChainTest()
+        throws IOException
+    {
+        for (int i = 0; i < 2; i++) {
+            JSlim slim = new JSlim();
+            slim.setLazyWalk(i == 1);
+            slim.addSourceFile(new JSFile("aliaschainmain.js", readFile("aliaschainmain.js"), false));
+            slim.addSourceFile(new JSFile("aliaschainlib.js", readFile("aliaschainlib.js"), true));
+            String out = slim.prune(null);
+            
+            assertTrue(out, out.indexOf("foldl") > -1);
+            assertTrue(out, out.indexOf("return obj") > -1);
+            assertTrue(out, out.indexOf("all") > -1);
+            assertTrue(out, out.indexOf("return!!obj") > -1);
+            assertFalse(out, out.indexOf("unused") > -1);
+        }
+    }
+    
+    /**
+     * Test pruning a generated library with alias chains, object literal methods, and 
+     * GETELEM assignments.  The lazy walk keeps exactly the functions the main file reaches
+     * and the full prune keeps at least those.
+     */
+    @Test
+    public void generatedLibraryTest()
+    {
+        LibraryGenerator generator = new LibraryGenerator();
+        generator.setFunctions(400);
+        generator.setPercentages(25, 25, 25);
+        generator.generate();
+        
+        assertEquals(0, JSlim.validate("lib.js", generator.getLibrary(), null).getErrorCount());
+        assertTrue(generator.getReachableCount() > 10);
+        assertTrue(generator.getReachableCount() < 400);
+        
+        for (int i = 0; i < 2; i++) {
+            JSlim slim = new JSlim();
+            slim.setLazyWalk(i == 0);
+            slim.addSourceFile(new JSFile("main.js", generator.getMain(), false));
+            slim.addSourceFile(new JSFile("lib.js", generator.getLibrary(), true));
+            
+            /*
+             Each generated function returns its own number so we can
+             count the functions in the output
+             */
+            Matcher bodies = Pattern.compile("return\\s*\\d+\\s*\\*\\s*2").matcher(slim.prune(null));
+            int count = 0;
+            while (bodies.find()) {
+                count++;
+            }
+            
+            if (i == 0) {
+                assertEquals(generator.getReachableCount(), count);
+            } else {
+                assertTrue(count >= generator.getReachableCount());
+            }
+        }
+    }
+    
+    /**
+     * Test that validating, pruning, and compiling the chart sample stay within the 
+     * memory budgets in allocation-budgets.properties.  If a change needs more memory 
+     * on purpose then raise the budget in the same change.
+     * 
+     * @exception Exception if there is any error reading the samples or running a phase
+     */
+    @Test
+    public void allocationBudgetTest()
+        throws Exception
+    {
+        assumeTrue(PhaseBudget.isSupported());
+        
+        Properties budgets = new Properties();
+        InputStream in = getClass().getClassLoader().getResourceAsStream(PhaseBudget.BUDGETS);
+        try {
+            budgets.load(in);
+        } finally {
+            in.close();
+        }
+        
+        final String lib = FileUtils.readFileToString(new File("libs/chart/raphael.js"), "UTF-8");
+        final String main = FileUtils.readFileToString(new File("libs/chart/chart.js"), "UTF-8");
+        final String pruned[] = new String[1];
+        
+        PhaseBudget phases[] = {
+            new PhaseBudget("validate", new Callable<Object>() {
+                    public Object call()
+                        throws IOException
+                    {
+                        return new SourceReader("UTF-8", true, null).read("libs/chart/raphael.js");
+                    }
+                }),
+            new PhaseBudget("prune", new Callable<Object>() {
+                    public Object call()
+                    {
+                        JSlim slim = new PhaseBudget.ThreadlessSlim();
+                        slim.addSourceFile(new JSFile("chart.js", main, false));
+                        slim.addSourceFile(new JSFile("raphael.js", lib, true));
+                        pruned[0] = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+                        return slim;
+                    }
+                }),
+            new PhaseBudget("compile", new Callable<Object>() {
+                    public Object call()
+                    {
+                        return PhaseBudget.compile("raphael.js", pruned[0], CompilationLevel.SIMPLE_OPTIMIZATIONS);
+                    }
+                }),
+        };
+        
+        /*
+         Logging allocates on the calling thread so every phase runs 
+         at the same level
+         */
+        Logger logger = JSlim.getLogger();
+        Level level = logger.getLevel();
+        logger.setLevel(Level.WARNING);
+        
+        StringBuffer measured = new StringBuffer();
+        StringBuffer failures = new StringBuffer();
+        try {
+            for (PhaseBudget phase : phases) {
+                phase.measure();
+                measured.append(phase + "\n");
+                assertTrue(phase.toString(), phase.getAllocated() > 0);
+                failures.append(phase.check(budgets));
+            }
+        } finally {
+            logger.setLevel(level);
+        }
+        
+        assertEquals(measured.toString(), "", failures.toString());
+    }
+    
+    /**
+     * Test that the GZIPed file has all of the contents.
+     * 
+     * @exception IOException if there is any error writing or reading the file
+     */
+    @Test
+    public void gzipTest()
+        throws IOException
+    {
+        File file = File.createTempFile("jslim", ".js");
+        File gz = new File(file.getParentFile(), file.getName() + ".gz");
+        
+        try {
+            String contents = readFile("basic.js");
+            JSlim.writeGzip(contents, file, "UTF-8");
+            
+            InputStream in = new GZIPInputStream(new FileInputStream(gz));
+            try {
+                assertEquals(contents, IOUtils.toString(in, "UTF-8"));
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+            gz.delete();
+        }
+    }
+    
+    /**
+     * Test splitting a library across two entry points.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void splitTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("splitlib.js", readFile("splitlib.js"), true));
+        slim.addEntryFile("one", new JSFile("splitentry1.js", readFile("splitentry1.js"), false));
+        slim.addEntryFile("two", new JSFile("splitentry2.js", readFile("splitentry2.js"), false));
+        
+        ChunkSet chunks = slim.split(CompilationLevel.SIMPLE_OPTIMIZATIONS, 0);
+        String funcs[] = slim.getKeptFunctions();
+        
+        /*
+         The closureOne function is only used by the first entry, but
+         it is part of an object literal so it has to stay in the
+         shared chunk.
+         */
+        assertEquals(2, funcs.length);
+        assertEquals("shared1", funcs[0]);
+        assertEquals("closureOne", funcs[1]);
+        
+        assertTrue("The unused function should be removed", chunks.getSharedChunk().indexOf("unused") == -1);
+        assertTrue("The pageOne function should be in the first chunk", chunks.getEntryChunk("one").indexOf("pageOne") > -1);
+        assertTrue("The pageTwo function should be in the second chunk", chunks.getEntryChunk("two").indexOf("pageTwo") > -1);
+        assertTrue("The pageTwo function shouldn't be in the first chunk", chunks.getEntryChunk("one").indexOf("pageTwo") == -1);
+        assertTrue("The pageOne function shouldn't be shared", chunks.getSharedChunk().indexOf("pageOne") == -1);
+    }
+    
+    /**
+     * Test pruning library files into separate outputs.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void pruneLibrariesTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("vendormain.js", readFile("vendormain.js"), false));
+        slim.addSourceFile(new JSFile("vendorlib1.js", readFile("vendorlib1.js"), true));
+        slim.addSourceFile(new JSFile("vendorlib2.js", readFile("vendorlib2.js"), true));
+        
+        Map<String, String> libs = slim.pruneLibraries(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertEquals(2, libs.size());
+        
+        /*
+         The helper function is only called from the second library, but
+         it still has to stay in the first one.
+         */
+        String lib1 = libs.get("vendorlib1.js");
+        assertTrue("The helper function should still be in the output", lib1.indexOf("helper") > -1);
+        assertTrue("The unused function should be removed", lib1.indexOf("unused") == -1);
+        
+        String lib2 = libs.get("vendorlib2.js");
+        assertTrue("The run function should still be in the output", lib2.indexOf("run") > -1);
+        assertTrue("The stop function should be removed", lib2.indexOf("stop") == -1);
+        assertTrue("The second library shouldn't contain the first", lib2.indexOf("lib1=") == -1);
+    }
+    
+    /**
+     * Test the size report and the call chains which keep each function.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void sizeReportTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("vendormain.js", readFile("vendormain.js"), false));
+        slim.addSourceFile(new JSFile("vendorlib1.js", readFile("vendorlib1.js"), true));
+        slim.addSourceFile(new JSFile("vendorlib2.js", readFile("vendorlib2.js"), true));
+        
+        slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        SizeReport report = slim.createSizeReport(2);
+        List<SizeReport.FunctionSize> funcs = report.getFunctions();
+        
+        assertEquals(2, funcs.size());
+        
+        for (SizeReport.FunctionSize func : funcs) {
+            assertTrue("The function should have a size", func.getBytes() > 0);
+            assertTrue("The minified function shouldn't be bigger", func.getMinifiedBytes() <= func.getBytes());
+            assertTrue("The function should have a gzip size", func.getGzipBytes() > 0);
+            assertEquals("run", func.getRoot());
+            assertFalse(func.isLibRoot());
+            
+            if (func.getName().equals("helper")) {
+                assertEquals(Arrays.asList("run", "helper"), func.getChain());
+            } else {
+                assertEquals("run", func.getName());
+                assertEquals(Arrays.asList("run"), func.getChain());
+            }
+        }
+        
+        assertEquals(1, report.getRootSizes().size());
+        assertTrue("The report should list the call chain", report.getReport().indexOf("helper <- run -> helper") > -1);
+    }
+    
+    /**
+     * Test instrumenting a library for coverage.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void instrumentTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("vendorlib1.js", readFile("vendorlib1.js"), true));
+        
+        String result = slim.instrument(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertTrue("The result should start with the coverage header", result.startsWith(Coverage.HEADER));
+        assertTrue("The helper function should be instrumented", result.indexOf("__jslimCover(\"helper\")") > -1);
+        assertTrue("The unused function should be instrumented", result.indexOf("__jslimCover(\"unused\")") > -1);
+    }
+    
+    /**
+     * Test that the runner only writes instrumented libraries at the levels which keep 
+     * the coverage calls.
+     * 
+     * @exception IOException if there is any error reading or writing the sample files
+     */
+    @Test
+    public void instrumentLevelTest()
+        throws IOException
+    {
+        File dir = File.createTempFile("jslim", "instrument");
+        dir.delete();
+        dir.mkdirs();
+        
+        try {
+            File lib = new File(dir, "vendorlib1.js");
+            FileUtils.writeStringToFile(lib, readFile("vendorlib1.js"), "UTF-8");
+            
+            String levels[] = {"WHITESPACE_ONLY", "SIMPLE_OPTIMIZATIONS", "ADVANCED_OPTIMIZATIONS"};
+            for (String level : levels) {
+                File out = new File(dir, level + ".js");
+                JSlimRunner.main(new String[] {"--instrument", "--skip_gzip", "--compilation_level", level, 
+                                               "--js_output_file", out.getPath(), "--lib_js", lib.getPath()});
+                
+                if ("WHITESPACE_ONLY".equals(level)) {
+                    String result = FileUtils.readFileToString(out, "UTF-8");
+                    assertTrue(result, result.indexOf("__jslimCoverageProfile") > -1);
+                    assertTrue(result, result.indexOf("__jslimCover(\"helper\")") > -1);
+                } else {
+                    assertFalse("The runner should not instrument at " + level, out.exists());
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    /**
+     * Test pruning with a coverage profile instead of the calls in the main file.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void coverageProfileTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("vendormain.js", readFile("vendormain.js"), false));
+        slim.addSourceFile(new JSFile("vendorlib1.js", readFile("vendorlib1.js"), true));
+        slim.addSourceFile(new JSFile("vendorlib2.js", readFile("vendorlib2.js"), true));
+        
+        /*
+         The main file calls run, but the profile says only stop was called
+         */
+        slim.addProfiledCall("stop");
+        
+        slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        String funcs[] = slim.getKeptFunctions();
+        assertEquals(1, funcs.length);
+        assertEquals("stop", funcs[0]);
+    }
+    
+    /**
+     * Test replacing removed functions with lazy stubs.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void lazyStubsTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("vendormain.js", readFile("vendormain.js"), false));
+        slim.addSourceFile(new JSFile("vendorlib1.js", readFile("vendorlib1.js"), true));
+        slim.addSourceFile(new JSFile("vendorlib2.js", readFile("vendorlib2.js"), true));
+        slim.setLazyStubs(new LazyStubs("out.lazy.js"));
+        
+        String result = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertEquals(2, slim.getKeptFunctions().length);
+        assertEquals(2, slim.getLazyStubs().size());
+        
+        assertTrue("The result should start with the stub header", result.startsWith(slim.getLazyStubs().getHeader()));
+        assertTrue("The stubs should use a direct eval", result.indexOf("return eval(__jslimLazy.load(") > -1);
+        assertTrue("The removed functions should be stubbed", result.indexOf("return\"unused\"") == -1);
+        
+        String remainder = slim.getLazyStubs().getRemainder();
+        assertTrue("The unused function should be in the remainder", remainder.indexOf("return\\\"unused\\\"") > -1);
+        assertTrue("The stop function should be in the remainder", remainder.indexOf("return\\\"stop\\\"") > -1);
+    }
+    
+    /**
+     * Test matching calls to functions with the object they are called on.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void receiverTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("receivermain.js", readFile("receivermain.js"), false));
+        slim.addSourceFile(new JSFile("receiverlib.js", readFile("receiverlib.js"), true));
+        
+        String result = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        /*
+         Matching by name keeps both each functions
+         */
+        assertEquals(2, slim.getKeptFunctions().length);
+        assertTrue("The underscore each function should be kept", result.indexOf("underscore each") > -1);
+        
+        slim = new JSlim();
+        slim.setReceiverAware(true);
+        slim.addSourceFile(new JSFile("receivermain.js", readFile("receivermain.js"), false));
+        slim.addSourceFile(new JSFile("receiverlib.js", readFile("receiverlib.js"), true));
+        
+        result = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertEquals(1, slim.getKeptFunctions().length);
+        assertTrue("The jQuery each function should be kept", result.indexOf("jquery each") > -1);
+        assertTrue("The underscore each function should be removed", result.indexOf("underscore each") == -1);
+    }
+    
+    /**
+     * Test that receiver aware matching falls back to matching by name when the receiver
+     * holds the result of a call and that it follows aliases of window properties.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void receiverAliasTest()
+        throws IOException
+    {
+        /*
+         The result of jQuery.noConflict() could be any object so both
+         each functions stay
+         */
+        JSlim slim = new JSlim();
+        slim.setReceiverAware(true);
+        slim.addSourceFile(new JSFile("receivernoconflict.js", readFile("receivernoconflict.js"), false));
+        slim.addSourceFile(new JSFile("receiveraliaslib.js", readFile("receiveraliaslib.js"), true));
+        
+        String result = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertTrue("The jQuery each function should be kept", result.indexOf("jquery each") > -1);
+        assertTrue("The underscore each function should be kept", result.indexOf("underscore each") > -1);
+        
+        /*
+         window._ is an alias of the underscore object
+         */
+        slim = new JSlim();
+        slim.setReceiverAware(true);
+        slim.addSourceFile(new JSFile("receiverwindow.js", readFile("receiverwindow.js"), false));
+        slim.addSourceFile(new JSFile("receiveraliaslib.js", readFile("receiveraliaslib.js"), true));
+        
+        result = slim.prune(CompilationLevel.SIMPLE_OPTIMIZATIONS);
+        
+        assertTrue("The underscore each function should be kept", result.indexOf("underscore each") > -1);
+        assertTrue("The jQuery each function should be removed", result.indexOf("jquery each") == -1);
+    }
+    
+    /**
+     * Test removing the variables and property assignments nothing refers to.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void pruneVarsTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.addSourceFile(new JSFile("varsmain.js", readFile("varsmain.js"), false));
+        slim.addSourceFile(new JSFile("varslib.js", readFile("varslib.js"), true));
+        
+        String result = slim.prune(CompilationLevel.WHITESPACE_ONLY);
+        
+        assertTrue("The unused variables stay without pruning variables", result.indexOf("rdigit") > -1);
+        assertTrue("The unused properties stay without pruning variables", result.indexOf("speed") > -1);
+        
+        slim = new JSlim();
+        slim.setPruneVars(true);
+        slim.addSourceFile(new JSFile("varsmain.js", readFile("varsmain.js"), false));
+        slim.addSourceFile(new JSFile("varslib.js", readFile("varslib.js"), true));
+        
+        result = slim.prune(CompilationLevel.WHITESPACE_ONLY);
+        
+        assertEquals(2, slim.getKeptFunctions().length);
+        assertTrue("The variable used by a kept function should be kept", result.indexOf("rspace") > -1);
+        assertTrue("The global variable used by the main file should be kept", result.indexOf("config") > -1);
+        assertTrue("The property on an object passed to a function should be kept", result.indexOf("first hook") > -1);
+        
+        assertTrue("The unused global variable should be removed", result.indexOf("version") == -1);
+        assertTrue("The unused variable should be removed", result.indexOf("cache") == -1);
+        assertTrue("The unused property should be removed", result.indexOf("speed") == -1);
+        assertTrue("The variable used by a removed function should be removed", result.indexOf("rdigit") == -1);
+        assertTrue("The variable used by a removed function should be removed", result.indexOf("lookup") == -1);
+    }
+    
+    /**
+     * Test that a computed index on this keeps the properties it could read.
+     * 
+     * @exception IOException if there is any error reading the sample file
+     */
+    @Test
+    public void pruneVarsComputedTest()
+        throws IOException
+    {
+        JSlim slim = new JSlim();
+        slim.setPruneVars(true);
+        slim.addSourceFile(new JSFile("varscomputedmain.js", readFile("varscomputedmain.js"), false));
+        slim.addSourceFile(new JSFile("varscomputedlib.js", readFile("varscomputedlib.js"), true));
+        
+        String result = slim.prune(CompilationLevel.WHITESPACE_ONLY);
+        
+        assertTrue("The property read by this[k] should be kept", result.indexOf("table") > -1);
+    }
+    
     /**
      * Check a file with a parse error.
      * 
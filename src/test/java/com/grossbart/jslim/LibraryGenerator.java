@@ -0,0 +1,291 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * The library generator writes synthetic JavaScript libraries to measure how JSlim scales
+ * with the size of a library.  The functions are split into layers and each function 
+ * calls functions in the next layer so the fan-out and depth of the call graph are easy 
+ * to control.  The functions are defined in all of the ways JSlim has to understand:
+ * property assignments, alias chains like lib.a1 = lib.f1 = function(), object literal
+ * methods, and GETELEM assignments like lib["f1"] = function().
+ */
+final class LibraryGenerator
+{
+    private static final int PLAIN = 0;
+    private static final int ALIAS = 1;
+    private static final int LITERAL = 2;
+    private static final int GETELEM = 3;
+    
+    private int m_functions = 1000;
+    private int m_fanOut = 2;
+    private int m_depth = 8;
+    private int m_roots = 10;
+    private int m_aliasPercent = 10;
+    private int m_literalPercent = 10;
+    private int m_getElemPercent = 10;
+    private long m_seed = 1;
+    
+    private String m_library;
+    private String m_main;
+    private int m_reachable;
+    
+    /**
+     * Set the number of functions in the library.
+     * 
+     * @param functions the number of functions
+     */
+    void setFunctions(int functions)
+    {
+        m_functions = functions;
+    }
+    
+    /**
+     * Set the number of calls each function makes to the next layer.
+     * 
+     * @param fanOut the number of calls
+     */
+    void setFanOut(int fanOut)
+    {
+        m_fanOut = fanOut;
+    }
+    
+    /**
+     * Set the number of layers of functions.  This is the longest chain of calls.
+     * 
+     * @param depth  the number of layers
+     */
+    void setDepth(int depth)
+    {
+        m_depth = depth;
+    }
+    
+    /**
+     * Set the number of functions in the first layer the main file calls.
+     * 
+     * @param roots  the number of root calls
+     */
+    void setRoots(int roots)
+    {
+        m_roots = roots;
+    }
+    
+    /**
+     * Set the percentages of functions defined as alias chains, object literal methods,
+     * and GETELEM assignments.  The rest are property assignments.
+     * 
+     * @param alias   the percentage of alias chains
+     * @param literal the percentage of object literal methods
+     * @param getElem the percentage of GETELEM assignments
+     */
+    void setPercentages(int alias, int literal, int getElem)
+    {
+        m_aliasPercent = alias;
+        m_literalPercent = literal;
+        m_getElemPercent = getElem;
+    }
+    
+    /**
+     * Set the seed of the random calls so the same settings always write the same library.
+     * 
+     * @param seed   the seed
+     */
+    void setSeed(long seed)
+    {
+        m_seed = seed;
+    }
+    
+    /**
+     * Generate the library and the main file.
+     */
+    void generate()
+    {
+        Random random = new Random(m_seed);
+        
+        int kinds[] = new int[m_functions];
+        for (int i = 0; i < m_functions; i++) {
+            int r = random.nextInt(100);
+            if (r < m_aliasPercent) {
+                kinds[i] = ALIAS;
+            } else if (r < m_aliasPercent + m_literalPercent) {
+                kinds[i] = LITERAL;
+            } else if (r < m_aliasPercent + m_literalPercent + m_getElemPercent) {
+                kinds[i] = GETELEM;
+            } else {
+                kinds[i] = PLAIN;
+            }
+        }
+        
+        int calls[][] = new int[m_functions][];
+        for (int i = 0; i < m_functions; i++) {
+            int layer = getLayer(i);
+            if (layer == m_depth - 1) {
+                calls[i] = new int[0];
+                continue;
+            }
+            
+            int start = getLayerStart(layer + 1);
+            int size = getLayerStart(layer + 2) - start;
+            calls[i] = new int[size == 0 ? 0 : m_fanOut];
+            for (int j = 0; j < calls[i].length; j++) {
+                calls[i][j] = start + random.nextInt(size);
+            }
+        }
+        
+        StringBuffer sb = new StringBuffer();
+        sb.append("var lib = {};\n(function() {\n");
+        for (int i = 0; i < m_functions; i++) {
+            String indent = kinds[i] == LITERAL ? "        " : "    ";
+            StringBuffer body = new StringBuffer();
+            body.append("function() {\n");
+            for (int call : calls[i]) {
+                body.append(indent + "    " + getCall(call, kinds[call], random) + ";\n");
+            }
+            body.append(indent + "    return " + i + " * 2;\n" + indent + "}");
+            
+            if (kinds[i] == ALIAS) {
+                sb.append("    lib.a" + i + " = lib.f" + i + " = " + body + ";\n");
+            } else if (kinds[i] == LITERAL) {
+                sb.append("    lib.o" + i + " = {\n        f" + i + ": " + body + "\n    };\n");
+            } else if (kinds[i] == GETELEM) {
+                sb.append("    lib[\"f" + i + "\"] = " + body + ";\n");
+            } else {
+                sb.append("    lib.f" + i + " = " + body + ";\n");
+            }
+        }
+        sb.append("})();\n");
+        m_library = sb.toString();
+        
+        sb = new StringBuffer();
+        int roots = Math.min(m_roots, getLayerStart(1));
+        for (int i = 0; i < roots; i++) {
+            sb.append(getCall(i, kinds[i], random) + ";\n");
+        }
+        m_main = sb.toString();
+        
+        m_reachable = countReachable(calls, roots);
+    }
+    
+    /**
+     * Get the code which calls the specified function.
+     * 
+     * @param func   the index of the function
+     * @param kind   how the function is defined
+     * @param random the random numbers to pick a name of an alias chain with
+     * 
+     * @return the call
+     */
+    private static String getCall(int func, int kind, Random random)
+    {
+        if (kind == ALIAS && random.nextBoolean()) {
+            return "lib.a" + func + "()";
+        } else if (kind == LITERAL) {
+            return "lib.o" + func + ".f" + func + "()";
+        } else {
+            return "lib.f" + func + "()";
+        }
+    }
+    
+    /**
+     * Count the functions which can be reached from the root calls.
+     * 
+     * @param calls  the functions each function calls
+     * @param roots  the number of root functions
+     * 
+     * @return the number of reachable functions
+     */
+    private static int countReachable(int calls[][], int roots)
+    {
+        BitSet reachable = new BitSet(calls.length);
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int i = 0; i < roots; i++) {
+            queue.add(i);
+        }
+        
+        while (!queue.isEmpty()) {
+            int func = queue.removeFirst();
+            if (!reachable.get(func)) {
+                reachable.set(func);
+                for (int call : calls[func]) {
+                    queue.add(call);
+                }
+            }
+        }
+        
+        return reachable.cardinality();
+    }
+    
+    /**
+     * Get the layer of the specified function.
+     * 
+     * @param func   the index of the function
+     * 
+     * @return the layer
+     */
+    private int getLayer(int func)
+    {
+        return (int) ((long) func * m_depth / m_functions);
+    }
+    
+    /**
+     * Get the index of the first function in the specified layer.
+     * 
+     * @param layer  the layer
+     * 
+     * @return the index of the first function
+     */
+    private int getLayerStart(int layer)
+    {
+        return (int) (((long) layer * m_functions + m_depth - 1) / m_depth);
+    }
+    
+    /**
+     * Get the generated library.
+     * 
+     * @return the library code
+     */
+    String getLibrary()
+    {
+        return m_library;
+    }
+    
+    /**
+     * Get the generated main file which makes the root calls.
+     * 
+     * @return the main code
+     */
+    String getMain()
+    {
+        return m_main;
+    }
+    
+    /**
+     * Get the number of functions the main file reaches.  A prune should keep exactly 
+     * these functions.
+     * 
+     * @return the number of reachable functions
+     */
+    int getReachableCount()
+    {
+        return m_reachable;
+    }
+}
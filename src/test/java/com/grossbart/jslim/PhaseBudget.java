@@ -0,0 +1,266 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSSourceFile;
+
+/**
+ * A phase budget measures how much memory one phase of a prune allocates and how much 
+ * memory the result of the phase keeps alive after a garbage collection.  The phase runs
+ * on a thread of its own and we count the bytes allocated on that thread.
+ * 
+ * Closure compiles and prints code on a new thread of its own so it can have a large 
+ * stack, and that thread is gone before we could count what it allocated.  The phases 
+ * turn the closure threads off with ThreadlessSlim and compile instead so all of the work
+ * happens on the phase thread, which has a large stack in their place.
+ * 
+ * The budgets are in allocation-budgets.properties as the phase name followed by 
+ * .allocated and .retained in kilobytes.
+ */
+final class PhaseBudget
+{
+    /**
+     * The resource holding the budgets.
+     */
+    static final String BUDGETS = "allocation-budgets.properties";
+    
+    /*
+     Closure gives its own compiler thread a large stack for deeply
+     nested code and the phase thread takes its place
+     */
+    private static final long STACK_SIZE = 16 * 1024 * 1024;
+    private static final int GC_RUNS = 3;
+    
+    private String m_name;
+    private Callable<Object> m_phase;
+    private Object m_result;
+    private Exception m_error;
+    private long m_allocated = -1;
+    private long m_retained = -1;
+    
+    /**
+     * Create a new PhaseBudget.
+     * 
+     * @param name   the name of the phase in the budgets
+     * @param phase  the phase to run which returns the result to keep alive
+     */
+    PhaseBudget(String name, Callable<Object> phase)
+    {
+        m_name = name;
+        m_phase = phase;
+    }
+    
+    /**
+     * Determine if this JVM can measure the bytes each thread allocates.
+     * 
+     * @return true if the allocations can be measured and false otherwise
+     */
+    static boolean isSupported()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean &&
+               ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported() &&
+               ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+    }
+    
+    /**
+     * Run the phase and measure it.  The phase runs once to load its classes and fill the
+     * static caches of the compiler and then again to measure it.
+     * 
+     * @exception Exception if the phase fails
+     */
+    void measure()
+        throws Exception
+    {
+        run();
+        m_result = null;
+        
+        long used = getUsedHeap();
+        run();
+        m_retained = Math.max(0, getUsedHeap() - used);
+        m_result = null;
+    }
+    
+    /**
+     * Run the phase on a thread of its own and keep its result.
+     * 
+     * @exception Exception if the phase fails
+     */
+    private void run()
+        throws Exception
+    {
+        Thread thread = new Thread(null, new Runnable() {
+                public void run()
+                {
+                    try {
+                        long start = getAllocatedBytes();
+                        m_result = m_phase.call();
+                        m_allocated = getAllocatedBytes() - start;
+                    } catch (Exception e) {
+                        m_error = e;
+                    }
+                }
+            }, "jslim-" + m_name, STACK_SIZE);
+        
+        thread.start();
+        thread.join();
+        
+        if (m_error != null) {
+            throw m_error;
+        }
+    }
+    
+    /**
+     * Compile the specified code the same way JSlim.plainCompile does, but on the calling 
+     * thread.
+     * 
+     * @param name   the name of the file to compile
+     * @param code   the code to compile
+     * @param level  the compilation level
+     * 
+     * @return the compiled code
+     */
+    static String compile(String name, String code, CompilationLevel level)
+    {
+        Compiler compiler = new Compiler();
+        compiler.disableThreads();
+        
+        CompilerOptions options = new CompilerOptions();
+        level.setOptionsForCompilationLevel(options);
+        
+        compiler.compile(JSSourceFile.fromCode("externs.js", ""), JSSourceFile.fromCode(name, code), options);
+        return compiler.toSource();
+    }
+    
+    /**
+     * Get the number of bytes the calling thread allocated so far.
+     * 
+     * @return the number of bytes
+     */
+    private static long getAllocatedBytes()
+    {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).
+            getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    /**
+     * Get the number of bytes in use on the heap after a garbage collection.
+     * 
+     * @return the number of bytes
+     */
+    private static long getUsedHeap()
+    {
+        for (int i = 0; i < GC_RUNS; i++) {
+            System.gc();
+        }
+        
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+    
+    /**
+     * Compare the measurements to the budgets.
+     * 
+     * @param budgets the budgets in kilobytes
+     * 
+     * @return a description of each budget this phase is over or an empty string if it is
+     *         within its budgets
+     */
+    String check(Properties budgets)
+    {
+        return check(budgets, "allocated", m_allocated) + check(budgets, "retained", m_retained);
+    }
+    
+    /**
+     * Compare one measurement to its budget.
+     * 
+     * @param budgets the budgets in kilobytes
+     * @param kind    allocated or retained
+     * @param bytes   the measured bytes
+     * 
+     * @return a description of the failure or an empty string if it is within the budget
+     */
+    private String check(Properties budgets, String kind, long bytes)
+    {
+        String key = m_name + "." + kind;
+        String budget = budgets.getProperty(key);
+        if (budget == null) {
+            return "There is no budget for " + key + " in " + BUDGETS + "\n";
+        }
+        
+        long kb = bytes / 1024;
+        if (kb > Long.parseLong(budget.trim())) {
+            return "The " + m_name + " phase " + kind + " " + kb + " KB which is over its budget of " + 
+                budget.trim() + " KB\n";
+        }
+        
+        return "";
+    }
+    
+    /**
+     * Get the number of bytes the phase allocated.
+     * 
+     * @return the number of bytes
+     */
+    long getAllocated()
+    {
+        return m_allocated;
+    }
+    
+    /**
+     * Get the number of bytes the result of the phase keeps alive.
+     * 
+     * @return the number of bytes
+     */
+    long getRetained()
+    {
+        return m_retained;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return m_name + ": allocated " + (m_allocated / 1024) + " KB, retained " + (m_retained / 1024) + " KB";
+    }
+    
+    /**
+     * A JSlim which parses with the closure compiler threads turned off, so printing the 
+     * pruned code happens on the calling thread.
+     */
+    static final class ThreadlessSlim extends JSlim
+    {
+        @Override
+        Compiler parse(List<JSFile> files, CompilationLevel compLevel)
+        {
+            Compiler compiler = super.parse(files, compLevel);
+            if (compiler != null) {
+                compiler.disableThreads();
+            }
+            
+            return compiler;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The sample regression runs JSlimRunner on each of the sample applications in the libs
+ * directory at every compilation level.  For each run it records the size of the output,
+ * the size of the GZIPed output, the number of functions JSlim removed out of the total,
+ * and the wall time.  It compares each run to the baseline in sample-baseline.txt and 
+ * fails if the output grew, JSlim removed fewer functions, or the run got much slower.
+ * 
+ * Run it with gradle regression or pass update to write the current results as the new 
+ * baseline.
+ */
+public final class SampleRegression
+{
+    private static final String BASELINE = "src/test/resources/sample-baseline.txt";
+    
+    /*
+     The sizes can change a little with the closure compiler, but the
+     wall time is noisy so it gets much more room and a few seconds of
+     slack for the short runs.
+     */
+    private static final double SIZE_TOLERANCE = 0.02;
+    private static final double TIME_TOLERANCE = 0.5;
+    private static final long TIME_SLACK = 2000;
+    
+    private static final String LEVELS[] = {"NONE", "WHITESPACE_ONLY", "SIMPLE_OPTIMIZATIONS", "ADVANCED_OPTIMIZATIONS"};
+    
+    /*
+     Each application is a name, the main file, the externs file or
+     null, and the library files in the order they load.
+     */
+    private static final String APPS[][] = {
+        {"backbone", "libs/backbone/todos.js", "libs/backbone/externs.txt", "libs/backbone/json2.js", 
+         "libs/backbone/jquery-1.6.4.js", "libs/backbone/underscore-1.1.6.js", "libs/backbone/backbone.js", 
+         "libs/backbone/backbone-localstorage.js"},
+        {"moosimple", "libs/mootools/moosimple.js", "libs/mootools/extern.txt", 
+         "libs/mootools/mootools-core-1.3.2-full-compat.js"},
+        {"periodical", "libs/mootools/periodical.js", "libs/mootools/extern.txt", 
+         "libs/mootools/mootools-core-1.3.2-full-compat.js"},
+        {"prototype", "libs/prototype/main.js", null, "libs/prototype/prototype.js"},
+        {"modernizr", "libs/modernizr/main.js", null, "libs/modernizr/modernizr-2.0.6.js"},
+        {"chart", "libs/chart/chart.js", null, "libs/chart/raphael.js"},
+        {"dots", "libs/dots/dots.js", null, "libs/dots/raphael.js"},
+        {"easing", "libs/easing/easing.js", null, "libs/easing/raphael.js"},
+    };
+    
+    private static final Pattern REMOVED = Pattern.compile("Removed (\\d+) out of (\\d+) named functions");
+    
+    private File m_dir;
+    
+    private SampleRegression(File dir)
+    {
+        m_dir = dir;
+    }
+    
+    /**
+     * The results of one run of JSlimRunner.
+     */
+    private static final class Run
+    {
+        private long m_bytes;
+        private long m_gzipBytes;
+        private int m_removed;
+        private int m_total;
+        private long m_millis;
+        
+        /**
+         * Read a run from a line of the baseline.
+         * 
+         * @param fields the fields of the line after the application and level
+         * 
+         * @return the run
+         */
+        static Run parse(String fields[])
+        {
+            Run run = new Run();
+            run.m_bytes = Long.parseLong(fields[2]);
+            run.m_gzipBytes = Long.parseLong(fields[3]);
+            run.m_removed = Integer.parseInt(fields[4]);
+            run.m_total = Integer.parseInt(fields[5]);
+            run.m_millis = Long.parseLong(fields[6]);
+            return run;
+        }
+        
+        /**
+         * Compare this run to the baseline and describe every regression.
+         * 
+         * @param key      the application and level of the run
+         * @param baseline the run in the baseline
+         * 
+         * @return the regressions or an empty string if there aren't any
+         */
+        String compare(String key, Run baseline)
+        {
+            StringBuffer sb = new StringBuffer();
+            if (m_bytes > baseline.m_bytes * (1 + SIZE_TOLERANCE)) {
+                sb.append(key + ": the output grew from " + baseline.m_bytes + " to " + m_bytes + " bytes\n");
+            }
+            if (m_gzipBytes > baseline.m_gzipBytes * (1 + SIZE_TOLERANCE)) {
+                sb.append(key + ": the GZIPed output grew from " + baseline.m_gzipBytes + " to " + m_gzipBytes + " bytes\n");
+            }
+            if (m_total != baseline.m_total) {
+                sb.append(key + ": JSlim found " + m_total + " functions instead of " + baseline.m_total + "\n");
+            }
+            if (m_removed < baseline.m_removed) {
+                sb.append(key + ": JSlim removed " + m_removed + " functions instead of " + baseline.m_removed + "\n");
+            }
+            if (m_millis > baseline.m_millis * (1 + TIME_TOLERANCE) + TIME_SLACK) {
+                sb.append(key + ": the run took " + m_millis + " ms instead of " + baseline.m_millis + " ms\n");
+            }
+            
+            return sb.toString();
+        }
+        
+        @Override
+        public String toString()
+        {
+            return m_bytes + "\t" + m_gzipBytes + "\t" + m_removed + "\t" + m_total + "\t" + m_millis;
+        }
+    }
+    
+    /**
+     * Run JSlimRunner on one application at one compilation level.
+     * 
+     * @param app    the application
+     * @param level  the compilation level
+     * 
+     * @return the results of the run
+     * @exception IOException if there is an error reading the output
+     */
+    private Run run(String app[], String level)
+        throws IOException
+    {
+        File output = new File(m_dir, app[0] + "." + level + ".js");
+        output.delete();
+        
+        List<String> args = new ArrayList<String>();
+        args.add("--compilation_level");
+        args.add(level);
+        args.add("--js_output_file");
+        args.add(output.getPath());
+        args.add("--js");
+        args.add(app[1]);
+        if (app[2] != null) {
+            args.add("--externs");
+            args.add(app[2]);
+        }
+        for (int i = 3; i < app.length; i++) {
+            args.add("--lib_js");
+            args.add(app[i]);
+        }
+        
+        /*
+         JSlim prints the number of functions it removed to System.out
+         */
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        System.setOut(new PrintStream(printed, true, "UTF-8"));
+        try {
+            JSlimRunner.main(args.toArray(new String[args.size()]));
+        } finally {
+            System.setOut(out);
+        }
+        
+        Run run = new Run();
+        run.m_millis = (System.nanoTime() - start) / 1000000;
+        
+        File gzip = new File(m_dir, output.getName() + ".gz");
+        if (!output.exists() || !gzip.exists()) {
+            throw new IOException("JSlimRunner didn't write " + output + "\n" + printed.toString("UTF-8"));
+        }
+        run.m_bytes = output.length();
+        run.m_gzipBytes = gzip.length();
+        
+        Matcher m = REMOVED.matcher(printed.toString("UTF-8"));
+        while (m.find()) {
+            run.m_removed = Integer.parseInt(m.group(1));
+            run.m_total = Integer.parseInt(m.group(2));
+        }
+        
+        return run;
+    }
+    
+    /**
+     * Read the baseline runs keyed by the application and level.
+     * 
+     * @return the runs in the baseline
+     * @exception IOException if there is an error reading the baseline
+     */
+    private static Map<String, Run> readBaseline()
+        throws IOException
+    {
+        Map<String, Run> runs = new LinkedHashMap<String, Run>();
+        File baseline = new File(BASELINE);
+        if (!baseline.exists()) {
+            return runs;
+        }
+        
+        for (String line : FileUtils.readLines(baseline, "UTF-8")) {
+            if (line.trim().length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            
+            String fields[] = line.trim().split("\t");
+            runs.put(fields[0] + " " + fields[1], Run.parse(fields));
+        }
+        
+        return runs;
+    }
+    
+    /**
+     * The main entry point.
+     * 
+     * @param args   update to write the results as the new baseline
+     * 
+     * @exception IOException if there is an error reading or writing the files
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        boolean update = args.length > 0 && "update".equals(args[0]);
+        Map<String, Run> baseline = readBaseline();
+        
+        File dir = File.createTempFile("jslim", "samples");
+        dir.delete();
+        dir.mkdirs();
+        
+        List<String> results = new ArrayList<String>();
+        results.add("# app\tlevel\tbytes\tgzip bytes\tremoved\ttotal\tms");
+        StringBuffer regressions = new StringBuffer();
+        
+        try {
+            SampleRegression regression = new SampleRegression(dir);
+            
+            /*
+             The first run warms up the JIT
+             */
+            regression.run(APPS[0], LEVELS[0]);
+            
+            System.out.println(results.get(0));
+            for (String app[] : APPS) {
+                for (String level : LEVELS) {
+                    Run run = regression.run(app, level);
+                    String line = app[0] + "\t" + level + "\t" + run;
+                    System.out.println(line);
+                    results.add(line);
+                    
+                    String key = app[0] + " " + level;
+                    if (baseline.containsKey(key)) {
+                        regressions.append(run.compare(key, baseline.get(key)));
+                    } else {
+                        regressions.append(key + ": there is no baseline\n");
+                    }
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+        
+        if (update) {
+            FileUtils.writeLines(new File(BASELINE), "UTF-8", results, "\r\n");
+            System.out.println("Wrote the baseline to " + BASELINE);
+        } else if (regressions.length() > 0) {
+            System.out.print(regressions);
+            System.out.println("If a change is expected then run gradle regression -PregressionArgs=update " + 
+                               "to write a new baseline.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/******************************************************************************* 
+ * 
+ * Copyright 2011 Zack Grossbart 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package com.grossbart.jslim;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.rhino.Node;
+
+/**
+ * The scaling benchmark prunes synthetic libraries of doubling size and prints the time 
+ * and memory of each prune.  For each step it prints the exponent of the growth, which
+ * is about 1 when the prune scales linearly with the size of the library and about 2 
+ * when it scales quadratically, and it warns about every step which grows faster than
+ * linear.
+ * 
+ * Run it with gradle benchmark or pass the largest number of functions and lazy to use
+ * the lazy walk.  Passing cores instead times the keeper search of the largest library 
+ * with pools of 1, 2, 4 and more threads up to the number of processors and prints the 
+ * speedup over one thread.
+ */
+public final class ScalingBenchmark
+{
+    /*
+     An exponent above this is reported as super-linear.  Timings
+     are noisy so we leave some room above 1.
+     */
+    private static final double SUPER_LINEAR = 1.3;
+    
+    private static final int FIRST_SIZE = 1000;
+    private static final int DEFAULT_MAX_SIZE = 16000;
+    private static final int RUNS = 3;
+    
+    private boolean m_lazyWalk;
+    private long m_millis;
+    private long m_allocated;
+    
+    private ScalingBenchmark(boolean lazyWalk)
+    {
+        m_lazyWalk = lazyWalk;
+    }
+    
+    /**
+     * Prune the specified library a few times and keep the fastest time and the memory
+     * that prune allocated.
+     * 
+     * @param generator the generated library
+     */
+    private void measure(LibraryGenerator generator)
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        
+        m_millis = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            JSlim slim = new JSlim();
+            slim.setLazyWalk(m_lazyWalk);
+            slim.addSourceFile(new JSFile("main.js", generator.getMain(), false));
+            slim.addSourceFile(new JSFile("lib.js", generator.getLibrary(), true));
+            
+            long allocated = getAllocatedBytes(threads);
+            long start = System.nanoTime();
+            slim.prune(null);
+            long millis = (System.nanoTime() - start) / 1000000;
+            
+            if (millis < m_millis) {
+                m_millis = millis;
+                m_allocated = allocated < 0 ? -1 : getAllocatedBytes(threads) - allocated;
+            }
+        }
+    }
+    
+    /**
+     * Time the keeper search of the specified library with more and more threads.  The
+     * library is parsed and its functions and root calls are found once so only the
+     * search is timed.
+     * 
+     * @param generator the generated library
+     * @param out       the stream to print the results to
+     */
+    private static void measureCores(LibraryGenerator generator, PrintStream out)
+    {
+        JSlim slim = new JSlim();
+        Compiler main = slim.parse(Collections.singletonList(new JSFile("main.js", generator.getMain(), false)), null);
+        Compiler lib = slim.parse(Collections.singletonList(new JSFile("lib.js", generator.getLibrary(), true)), null);
+        
+        slim.addBoundNames(lib.getRoot());
+        List<Node> funcs = slim.findLibFunctions(lib.getRoot());
+        CallList calls = new CallList();
+        slim.findRootCalls(main.getRoot().getLastChild(), calls);
+        slim.findRootCalls(lib.getRoot().getLastChild(), calls);
+        
+        out.println("threads\tms\tspeedup");
+        
+        int processors = Runtime.getRuntime().availableProcessors();
+        long oneThread = 0;
+        int threads = 0;
+        do {
+            threads = Math.min(Math.max(threads * 2, 1), processors);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i <= RUNS; i++) {
+                    long start = System.nanoTime();
+                    KeeperSearch.findKeepers(slim, funcs, calls, pool);
+                    long millis = (System.nanoTime() - start) / 1000000;
+                    
+                    /*
+                     The first search warms up the JIT
+                     */
+                    if (i > 0) {
+                        best = Math.min(best, millis);
+                    }
+                }
+                
+                if (threads == 1) {
+                    oneThread = best;
+                }
+                out.println(String.format("%d\t%d\t%.2f", threads, best, (double) Math.max(oneThread, 1) / Math.max(best, 1)));
+            } finally {
+                pool.shutdown();
+            }
+        } while (threads < processors);
+        
+        if (processors == 1) {
+            out.println("Only one processor is available so there is no speedup to measure.");
+        }
+    }
+    
+    /**
+     * Get the number of bytes this thread allocated so far.
+     * 
+     * @param threads the thread bean
+     * 
+     * @return the number of bytes or -1 if this JVM can't tell
+     */
+    private static long getAllocatedBytes(ThreadMXBean threads)
+    {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Get the exponent of the growth between two measurements.
+     * 
+     * @param size1  the first size
+     * @param value1 the value measured at the first size
+     * @param size2  the second size
+     * @param value2 the value measured at the second size
+     * 
+     * @return the exponent
+     */
+    private static double getExponent(int size1, long value1, int size2, long value2)
+    {
+        return Math.log((double) Math.max(value2, 1) / Math.max(value1, 1)) / Math.log((double) size2 / size1);
+    }
+    
+    /**
+     * The main entry point.
+     * 
+     * @param args   the largest number of functions and lazy to use the lazy walk or cores
+     *               to time the keeper search with more threads
+     */
+    public static void main(String[] args)
+    {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_SIZE;
+        ScalingBenchmark benchmark = new ScalingBenchmark(args.length > 1 && "lazy".equals(args[1]));
+        
+        JSlim.getLogger().setLevel(Level.WARNING);
+        PrintStream out = System.out;
+        
+        if (args.length > 1 && "cores".equals(args[1])) {
+            LibraryGenerator generator = new LibraryGenerator();
+            generator.setFunctions(maxSize);
+            generator.generate();
+            measureCores(generator, out);
+            return;
+        }
+        StringBuffer warnings = new StringBuffer();
+        
+        out.println("functions\tbytes\tms\tallocated KB\ttime exponent\tmemory exponent");
+        
+        int lastSize = 0;
+        long lastMillis = 0;
+        long lastAllocated = 0;
+        for (int size = FIRST_SIZE; size <= maxSize; size *= 2) {
+            LibraryGenerator generator = new LibraryGenerator();
+            generator.setFunctions(size);
+            generator.generate();
+            
+            /*
+             JSlim prints a summary of each prune and that would mix
+             with our results
+             */
+            System.setOut(new PrintStream(new NullOutputStream()));
+            try {
+                if (lastSize == 0) {
+                    /*
+                     The first prune warms up the JIT
+                     */
+                    benchmark.measure(generator);
+                }
+                benchmark.measure(generator);
+            } finally {
+                System.setOut(out);
+            }
+            
+            StringBuffer line = new StringBuffer();
+            line.append(size + "\t" + generator.getLibrary().length() + "\t" + benchmark.m_millis + "\t" + 
+                        (benchmark.m_allocated / 1024));
+            if (lastSize > 0) {
+                double time = getExponent(lastSize, lastMillis, size, benchmark.m_millis);
+                double memory = getExponent(lastSize, lastAllocated, size, benchmark.m_allocated);
+                line.append(String.format("\t%.2f\t%.2f", time, memory));
+                
+                if (time > SUPER_LINEAR) {
+                    warnings.append(String.format("Time grows super-linearly from %d to %d functions: exponent %.2f%n", 
+                                                  lastSize, size, time));
+                }
+                if (memory > SUPER_LINEAR) {
+                    warnings.append(String.format("Memory grows super-linearly from %d to %d functions: exponent %.2f%n", 
+                                                  lastSize, size, memory));
+                }
+            }
+            out.println(line);
+            
+            lastSize = size;
+            lastMillis = benchmark.m_millis;
+            lastAllocated = benchmark.m_allocated;
+        }
+        
+        out.print(warnings);
+    }
+}
@@ -0,0 +1,13 @@
+var _ = {};
+
+_.reduce = _.foldl = _.inject = function(obj) {
+    return obj;
+};
+
+_.every = _.all = function(obj) {
+    return !!obj;
+};
+
+_.unused = function() {
+    return 0;
+};
@@ -0,0 +1,2 @@
+_.foldl([]);
+_.all([]);
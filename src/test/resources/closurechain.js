@@ -0,0 +1,23 @@
+var lib = {
+    func1: function() {
+        return lib.func2();
+    },
+    
+    func2: function() {
+        return lib.func3();
+    },
+    
+    func3: function() {
+        return lib.func4();
+    },
+    
+    func4: function() {
+        return "I'm function 4";
+    },
+    
+    func5: function() {
+        return "I'm function 5";
+    }
+};
+
+alert(lib.func5());
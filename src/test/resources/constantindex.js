@@ -0,0 +1,63 @@
+(function() {
+    var jQuery = {};
+    var prefix = 'get';
+    
+    jQuery.each = function(obj, callback) {
+        for (var key in obj) {
+            callback(key, obj[key]);
+        }
+    };
+    
+    jQuery.each(['Height', 'Width'], function(i, name) {
+        jQuery['inner' + name] = function() {
+            return "I'm inner";
+        };
+    });
+    
+    jQuery.each({ first: 'a', last: 'b' }, function(name, value) {
+        jQuery[name] = function() {
+            return "I'm first or last";
+        };
+    });
+    
+    jQuery.each('show hide'.split(' '), function(i, name) {
+        jQuery[name] = function() {
+            return "I'm visible";
+        };
+    });
+    
+    ['open', 'close'].forEach(function(name) {
+        jQuery[name] = function() {
+            return "I'm open";
+        };
+    });
+    
+    jQuery[prefix + 'Value'] = function() {
+        return "I'm a value";
+    };
+    
+    jQuery.each(['a'], function(i, name) {
+        name = name + i;
+        jQuery[name] = function() {
+            return "I'm changed";
+        };
+    });
+    
+    var jq = jQuery;
+    jq.each(['aliased'], function(i, name) {
+        jQuery[name] = function() {
+            return "I'm aliased";
+        };
+    });
+    
+    window.jQuery.each(['shown'], function(i, name) {
+        jQuery[name] = function() {
+            return "I'm shown";
+        };
+    });
+    
+    alert(jQuery.innerWidth());
+    alert(jQuery.show());
+    alert(jQuery.aliased());
+    alert(jQuery.shown());
+})();
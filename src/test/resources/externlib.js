@@ -0,0 +1,29 @@
+var view = {
+    uiShow: function() {
+        return "I'm shown";
+    },
+    
+    uiHide: function() {
+        return "I'm hidden";
+    },
+    
+    _onClick: function() {
+        return "I'm clicked";
+    },
+    
+    _onclick: function() {
+        return "I'm not an event";
+    },
+    
+    keeper: function() {
+        return "I'm kept for this library";
+    },
+    
+    dropped: function() {
+        return "I'm only kept for another library";
+    },
+    
+    unused: function() {
+        return "I'm unused";
+    }
+};
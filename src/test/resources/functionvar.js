@@ -0,0 +1,29 @@
+var ns = {};
+
+var func1 = function() {
+    return "I'm function 1";
+};
+
+var func2 = function() {
+    return "I'm function 2";
+};
+
+func3 = function() {
+    return "I'm function 3";
+};
+
+var func4 = ns.func4 = function() {
+    return "I'm function 4";
+};
+
+var func5 = ns.func5 = function() {
+    return "I'm function 5";
+}, other = "I'm not a function";
+
+var handler = function() {
+    return "I'm the handler";
+};
+
+alert(func1());
+alert(ns.func4());
+setTimeout(handler, 10);
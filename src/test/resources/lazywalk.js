@@ -0,0 +1,24 @@
+var lib = {
+    used: function() {
+        return "I'm used";
+    },
+    
+    unused: function() {
+        return lib.ajax({
+            complete: function() {
+                return lib.extra();
+            }
+        });
+    },
+    
+    extra: function() {
+        return "I'm extra";
+    },
+    
+    animate: function(options) {
+        return options.complete();
+    }
+};
+
+alert(lib.used());
+lib.animate({});
@@ -0,0 +1,12 @@
+var _ = {};
+_.each = function(obj) {
+    return "underscore each";
+};
+
+var jQuery = {};
+jQuery.noConflict = function() {
+    return jQuery;
+};
+jQuery.each = function(obj) {
+    return "jquery each";
+};
@@ -0,0 +1,19 @@
+(function() {
+    var jQuery = {
+        each: function(obj, fn) {
+            return "jquery each";
+        }
+    };
+    
+    window.jQuery = window.$ = jQuery;
+})();
+
+(function() {
+    var root = this;
+    var _ = {};
+    root._ = _;
+    
+    _.each = function(obj, fn) {
+        return "underscore each";
+    };
+})();
@@ -0,0 +1 @@
+$.each([1, 2], function() {});
@@ -0,0 +1,2 @@
+var jq = jQuery.noConflict();
+jq.each([]);
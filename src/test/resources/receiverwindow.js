@@ -0,0 +1,2 @@
+var u = window._;
+u.each([]);
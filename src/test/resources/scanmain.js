@@ -0,0 +1,3 @@
+// func1 is only mentioned in this comment
+var re = /["'func1]/g;
+var result = lib["func2"]() + " / func1 " + re.source;
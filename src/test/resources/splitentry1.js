@@ -0,0 +1,2 @@
+pageOne();
+lib.closureOne();
@@ -0,0 +1,25 @@
+function shared1() {
+    return "shared";
+}
+
+function pageOne() {
+    return shared1();
+}
+
+function pageTwo() {
+    return "two";
+}
+
+function unused() {
+    return "unused";
+}
+
+lib = {
+    closureOne: function() {
+        return 1;
+    },
+
+    closureUnused: function() {
+        return 2;
+    }
+};
@@ -0,0 +1,7 @@
+var ns = {};
+
+ns.table = {x: 1};
+
+ns.get = function(k) {
+    return this[k];
+};
@@ -0,0 +1 @@
+ns.get('tab' + 'le');
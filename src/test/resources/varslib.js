@@ -0,0 +1,45 @@
+var config = {
+    debug: false
+};
+
+var version = "1.0";
+
+(function() {
+    var rdigit = /\d/;
+    var rspace = /\s/;
+    var lookup = {
+        a: 1,
+        b: 2
+    };
+    var cache = {};
+    var hooks = {};
+    var settings = {
+        timeout: 10
+    };
+    
+    var lib = {
+        used: function(s) {
+            return rspace.test(s) && settings.timeout;
+        },
+        unused: function(s) {
+            return rdigit.test(s) || lookup.a;
+        },
+        each: function(obj, fn) {
+            for (var key in obj) {
+                fn(obj[key]);
+            }
+        }
+    };
+    
+    settings.defaults = {
+        speed: 100
+    };
+    
+    hooks.first = {
+        name: "first hook"
+    };
+    
+    lib.each(hooks, function(hook) {});
+    
+    window.lib = lib;
+})();
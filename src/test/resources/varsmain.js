@@ -0,0 +1,2 @@
+lib.used("a b");
+config.debug = true;
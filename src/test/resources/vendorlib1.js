@@ -0,0 +1,9 @@
+lib1 = {
+    helper: function() {
+        return "helper";
+    },
+
+    unused: function() {
+        return "unused";
+    }
+};
@@ -0,0 +1,9 @@
+lib2 = {
+    run: function() {
+        return lib1.helper();
+    },
+
+    stop: function() {
+        return "stop";
+    }
+};